@@ -5,10 +5,21 @@ import ru.mt.app.Component;
 import ru.mt.app.Configuration;
 import ru.mt.data.AccountBalanceCallRepository;
 import ru.mt.data.AccountRepository;
+import ru.mt.data.LedgerRepository;
 import ru.mt.domain.*;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.Histogram;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Deadline;
 import ru.mt.utils.Processor;
+import ru.mt.utils.WaitStrategy;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /*
   Отвечает за управление балансом своей пачки счетов,
@@ -20,24 +31,230 @@ public class AccountBalanceManager extends Component {
     private final int shardIndex;
     private final AccountBalanceCallRepository balanceCallRepo;
     private final AccountRepository accountRepo;
+    private final LedgerRepository ledgerRepo;
 
 
     AccountBalanceManager(int shardIndex) {
         this.shardIndex = shardIndex;
         balanceCallRepo = Configuration.getComponent(AccountBalanceCallRepository.class);
         accountRepo = Configuration.getComponent(AccountRepository.class);
+        ledgerRepo = Configuration.getComponent(LedgerRepository.class);
 
+        initMetrics();
+        initTotals();
+        startFollowers();
         startCallProcessing();
     }
 
     @Override
     protected void destroyInternal() {
         stopCallProcessing();
+        stopFollowers();
     }
 
+    //region Metrics
+
+    /**
+     * Metrics by call type (index = AccountBalanceCallType.ordinal())
+     */
+    private final Histogram[] queueWaitHistograms = new Histogram[AccountBalanceCallType.values().length];
+    private final Histogram[] executionHistograms = new Histogram[AccountBalanceCallType.values().length];
+    private final Counter[] errorCounters = new Counter[AccountBalanceCallType.values().length];
+    private final Counter[] expiredCounters = new Counter[AccountBalanceCallType.values().length];
+
+    private void initMetrics() {
+        MetricsRegistry metrics = Configuration.getComponent(MetricsRegistry.class);
+        var shard = String.valueOf(shardIndex);
+
+        metrics.gauge("mt_abm_queue_depth", "Count of calls waiting in the shard queue",
+                () -> balanceCallRepo.getQueueSize(shardIndex), "shard", shard);
+
+        for (var callType : AccountBalanceCallType.values()) {
+            var i = callType.ordinal();
+            queueWaitHistograms[i] = metrics.histogram("mt_abm_queue_wait_seconds",
+                    "Time the call spent in the shard queue", "shard", shard, "call_type", callType.name());
+            executionHistograms[i] = metrics.histogram("mt_abm_execution_seconds",
+                    "Call execution time", "shard", shard, "call_type", callType.name());
+            errorCounters[i] = metrics.counter("mt_abm_call_errors_total",
+                    "Count of calls completed with an error", "shard", shard, "call_type", callType.name());
+            expiredCounters[i] = metrics.counter("mt_abm_expired_calls_total",
+                    "Count of calls dropped without execution because their deadline had passed",
+                    "shard", shard, "call_type", callType.name());
+        }
+    }
+
+    //endregion
+
+    //region Load estimation
+
+    /**
+     * Exponentially weighted moving average of the call execution time (ns).
+     * Written only by the shard thread.
+     */
+    private volatile long avgExecutionNanos = 0;
+
+    private void updateAvgExecutionTime(long executionNanos) {
+        // alpha = 1/16
+        avgExecutionNanos += (executionNanos - avgExecutionNanos) >> 4;
+    }
+
+    int getQueueSize() {
+        return balanceCallRepo.getQueueSize(shardIndex);
+    }
+
+    /**
+     * @return estimated time a new call will wait in the shard queue before its execution
+     */
+    long getEstimatedWaitNanos() {
+        return getQueueSize() * avgExecutionNanos;
+    }
+
+    //endregion
+
+    //region Totals
+
+    /**
+     * Totals of the shard accounts: replaced by the shard thread on every change, read by any thread
+     */
+    private volatile BalanceTotals totals;
+
+    /**
+     * Sums up the accounts of the shard which are already stored (e.g. in the DB), they are the initial supply
+     */
+    private void initTotals() {
+        var balance = BigDecimal.ZERO;
+        var reserved = BigDecimal.ZERO;
+
+        for (var accountId : accountRepo.findAllAccount()) {
+            if (AccountService.getShardIndex(accountId) != shardIndex) {
+                continue;
+            }
+
+            balance = balance.add(getAccountBalance(accountId));
+            for (var reservation : accountRepo.getAllReservationWhereStatusOK(accountId)) {
+                reserved = reserved.add(reservation.getAmount());
+            }
+        }
+
+        totals = new BalanceTotals(balance, reserved, balance, 0);
+    }
+
+    private void updateTotals(BigDecimal balanceDelta, BigDecimal reservedDelta) {
+        updateTotals(balanceDelta, reservedDelta, BigDecimal.ZERO);
+    }
+
+    private void updateTotals(BigDecimal balanceDelta, BigDecimal reservedDelta, BigDecimal supplyDelta) {
+        totals = totals.add(balanceDelta, reservedDelta, supplyDelta);
+    }
+
+    BalanceTotals getTotals() {
+        return totals;
+    }
+
+    //endregion
+
+    //region Follower replicas
+
+    /**
+     * Followers of the shard which serve the stale balance reads (mt.replica.followers, none by default)
+     */
+    private BalanceFollower[] followers;
+
+    private void startFollowers() {
+        followers = new BalanceFollower[Integer.getInteger("mt.replica.followers", 0)];
+        for (int i = 0; i < followers.length; i++) {
+            followers[i] = new BalanceFollower(shardIndex, i);
+        }
+    }
+
+    private void stopFollowers() {
+        for (var follower : followers) {
+            follower.destroy();
+        }
+    }
+
+    private void replicateSnapshot(String accountId, BigDecimal availableBalance) {
+        for (var follower : followers) {
+            follower.publishSnapshot(accountId, availableBalance);
+        }
+    }
+
+    /**
+     * Streams the committed change of the available balance to the followers
+     */
+    private void replicateChange(String accountId, BigDecimal delta) {
+        for (var follower : followers) {
+            follower.publishChange(accountId, delta);
+        }
+    }
+
+    /**
+     * Reads the available balance from a follower, without a call to the shard
+     *
+     * @return null if there are no followers, the follower does not know the balance yet
+     * or lags behind the shard more than maxStalenessMillis
+     */
+    BigDecimal findReplicatedBalance(String accountId, long maxStalenessMillis) {
+        if (followers.length == 0) {
+            return null;
+        }
+
+        var follower = followers[ThreadLocalRandom.current().nextInt(followers.length)];
+        return follower.findAvailableBalance(accountId, maxStalenessMillis);
+    }
+
+    //endregion
+
     //region Call processing
 
+    /**
+     * Lane orders of the consecutive picks of the calls: the lanes are interleaved in proportion to their weights
+     * (smooth weighted round-robin), the preferred lane of a pick is followed by the others in the order of priority.
+     * So the saga steps go first, but the reads and the new work still get their share under a burst of the steps.
+     */
+    private static final CallLane[][] LANE_SCHEDULE = buildLaneSchedule();
+
+    private static CallLane[][] buildLaneSchedule() {
+        var lanes = CallLane.values();
+        var totalWeight = 0;
+        for (var lane : lanes) {
+            totalWeight += lane.getWeight();
+        }
+
+        var currentWeights = new int[lanes.length];
+        var schedule = new CallLane[totalWeight][];
+        for (int pick = 0; pick < totalWeight; pick++) {
+            var preferred = 0;
+            for (int i = 0; i < lanes.length; i++) {
+                currentWeights[i] += lanes[i].getWeight();
+                if (currentWeights[i] > currentWeights[preferred]) {
+                    preferred = i;
+                }
+            }
+            currentWeights[preferred] -= totalWeight;
+
+            var order = new ArrayList<CallLane>(lanes.length);
+            order.add(lanes[preferred]);
+            for (var lane : lanes) {
+                if (lane.ordinal() != preferred) {
+                    order.add(lane);
+                }
+            }
+            schedule[pick] = order.toArray(new CallLane[0]);
+        }
+        return schedule;
+    }
+
+    /**
+     * How the shard threads wait for the calls (mt.processor.shards.waitStrategy)
+     */
+    private final WaitStrategy waitStrategy = WaitStrategy.fromProperty("mt.processor.shards.waitStrategy");
+
     private Processor callProcessor;
+    /**
+     * Position in the lane schedule, used only by the shard thread
+     */
+    private int schedulePosition = 0;
 
     private void startCallProcessing() {
         callProcessor = new Processor(String.format("abm-%04d", shardIndex), this::processCall);
@@ -51,24 +268,49 @@ public class AccountBalanceManager extends Component {
     private void processCall() throws InterruptedException {
         log.debug("getting next call...");
 
-        var call = balanceCallRepo.getNextCall(shardIndex, 1000);
+        var laneOrder = LANE_SCHEDULE[schedulePosition];
+        var call = waitStrategy.poll(timeout -> balanceCallRepo.getNextCall(shardIndex, laneOrder, timeout), 1000);
         if (call == null) {
             return;
         }
+        schedulePosition = (schedulePosition + 1) % LANE_SCHEDULE.length;
+
+        var startNanos = System.nanoTime();
+        var callTypeIndex = call.getCallType().ordinal();
+        queueWaitHistograms[callTypeIndex].record(startNanos - call.getCreatedNanos());
 
-        log.debug("executing call: " + call);
         var resultBuilder = AccountBalanceCallResult.builder().callId(call.getId());
 
+        // nobody waits for the result of the expired call, executing it would only make the overload worse;
+        // the saga continuation is executed anyway, otherwise the reserved money would stay locked
+        if (!call.getCallType().isSagaContinuation() && Deadline.isExpired(call.getDeadline())) {
+            expiredCounters[callTypeIndex].inc();
+            balanceCallRepo.setCallResult(call.getId(), resultBuilder
+                    .errorMessage(String.format("Call '%s' is not executed: the deadline has passed", call.getId()))
+                    .build());
+            return;
+        }
+
+        log.debug("executing call: " + call);
+
         try {
             switch (call.getCallType()) {
                 case GET_AVAILABLE_BALANCE:
                     var balance = getAvailableBalance(call.getAccountId());
+                    replicateSnapshot(call.getAccountId(), balance);
                     resultBuilder.amount(balance);
                     break;
 
+                case GET_AVAILABLE_BALANCES:
+                    resultBuilder.amounts(getAvailableBalances(call.getAccountIds()));
+                    break;
+
                 case RESERVE_AMOUNT:
-                    var status = reserveAmount(call.getAccountId(), call.getTransactionId(), call.getAmount());
-                    resultBuilder.reservationStatus(status);
+                    reserveAmount(call.getAccountId(), call.getTransactionId(), call.getAmount(), resultBuilder);
+                    break;
+
+                case RESERVE_MANY:
+                    reserveMany(call.getAccountId(), call.getTransactionIds(), call.getAmounts(), resultBuilder);
                     break;
 
                 case DEBIT_RESERVED_AMOUNT:
@@ -83,6 +325,21 @@ public class AccountBalanceManager extends Component {
                     addAmount(call.getAccountId(), call.getTransactionId(), call.getAmount());
                     break;
 
+                case DEPOSIT:
+                    deposit(call.getAccountId(), call.getCounterpartyAccountId(), call.getTransactionId(),
+                            call.getAmount());
+                    break;
+
+                case DEPOSIT_BATCH:
+                    depositBatch(call.getAccountIds(), call.getCounterpartyAccountId(), call.getTransactionIds(),
+                            call.getAmount());
+                    break;
+
+                case WITHDRAW:
+                    withdraw(call.getAccountId(), call.getCounterpartyAccountId(), call.getTransactionId(),
+                            call.getAmount(), resultBuilder);
+                    break;
+
                 default:
                     throw new IllegalStateException("Unknown call type: " + call.getCallType());
             }
@@ -90,9 +347,14 @@ public class AccountBalanceManager extends Component {
         } catch (Throwable e) {
             var msg = String.format("Call '%s' execution failed: %s", call.getId(), e.getMessage());
             resultBuilder.errorMessage(msg);
+            errorCounters[callTypeIndex].inc();
             log.error(msg, e);
         }
 
+        var executionNanos = System.nanoTime() - startNanos;
+        executionHistograms[callTypeIndex].record(executionNanos);
+        updateAvgExecutionTime(executionNanos);
+
         var result = resultBuilder.build();
         log.debug("setting call result: " + result);
         balanceCallRepo.setCallResult(call.getId(), result);
@@ -119,6 +381,26 @@ public class AccountBalanceManager extends Component {
         return balance.subtract(totalReserved);
     }
 
+    /**
+     * Multi-get: reads the balances of several accounts of the shard by one call
+     *
+     * @return available balances in the order of the account ids (null if the account is not found)
+     */
+    private List<BigDecimal> getAvailableBalances(List<String> accountIds) {
+        var balances = new ArrayList<BigDecimal>(accountIds.size());
+        for (var accountId : accountIds) {
+            if (accountRepo.findAccount(accountId) == null) {
+                balances.add(null);
+                continue;
+            }
+
+            var balance = getAvailableBalance(accountId);
+            replicateSnapshot(accountId, balance);
+            balances.add(balance);
+        }
+        return balances;
+    }
+
     private BigDecimal getAccountBalance(String accountId) {
         var account = accountRepo.findAccount(accountId);
         if (account == null) {
@@ -134,30 +416,90 @@ public class AccountBalanceManager extends Component {
      * @param accountId     ИД счета
      * @param transactionId ИД транзакции, в рамках которой выполнить резервирование
      * @param amount        сумма денег
-     * @return статус резервирования
+     * @param resultBuilder результат вызова: статус резервирования и причина отказа
      */
-    private ReservationStatus reserveAmount(String accountId, String transactionId, BigDecimal amount) {
+    private void reserveAmount(String accountId, String transactionId, BigDecimal amount,
+                               AccountBalanceCallResult.AccountBalanceCallResultBuilder resultBuilder) {
         var reservation = accountRepo.findReservation(accountId, transactionId);
 
         // если ранее уже резервировали, то вернем статус этого резервирования
         if (reservation != null) {
-            return reservation.getStatus();
+            resultBuilder.reservationStatus(reservation.getStatus());
+            return;
         }
 
         // получим сумму на счете с учетом всех ранее зарезервированных денег
         var availableBalance = getAvailableBalance(accountId);
         // если не хватает денег на счете
         if (availableBalance.compareTo(amount) < 0) {
-            return ReservationStatus.DENIED.setReason(
-                    String.format("Available balance %s below required %s", availableBalance, amount));
+            resultBuilder.reservationStatus(ReservationStatus.DENIED)
+                    .reservationReason(getDenialReason(availableBalance, amount));
+            return;
         }
 
         // создаем новое резервирование
         var newReservation = new Reservation(accountId, transactionId, amount);
         newReservation.setStatus(ReservationStatus.OK);
         accountRepo.saveNewReservation(newReservation);
+        updateTotals(BigDecimal.ZERO, amount);
+        replicateChange(accountId, amount.negate());
 
-        return newReservation.getStatus();
+        resultBuilder.reservationStatus(newReservation.getStatus());
+    }
+
+    private static String getDenialReason(BigDecimal availableBalance, BigDecimal amount) {
+        return String.format("Available balance %s below required %s", availableBalance, amount);
+    }
+
+    /**
+     * Reserves the amounts of several transactions of the account in order, against one evaluation
+     * of the available balance: a transaction that does not fit is denied, the next ones are still tried.
+     * A failed reservation does not fail the call, so that the reservations made before it are reported.
+     * The results are put into the reservation statuses (null if the reservation failed)
+     * and the reservation reasons (the denial reason or the error, otherwise null) in the order of the transactions.
+     */
+    private void reserveMany(String accountId, List<String> transactionIds, List<BigDecimal> amounts,
+                             AccountBalanceCallResult.AccountBalanceCallResultBuilder resultBuilder) {
+        var availableBalance = getAvailableBalance(accountId);
+        var statuses = new ArrayList<ReservationStatus>(transactionIds.size());
+        var reasons = new ArrayList<String>(transactionIds.size());
+        for (int i = 0; i < transactionIds.size(); i++) {
+            var transactionId = transactionIds.get(i);
+            var amount = amounts.get(i);
+
+            try {
+                var reservation = accountRepo.findReservation(accountId, transactionId);
+                if (reservation != null) {
+                    statuses.add(reservation.getStatus());
+                    reasons.add(null);
+                    continue;
+                }
+
+                if (availableBalance.compareTo(amount) < 0) {
+                    statuses.add(ReservationStatus.DENIED);
+                    reasons.add(getDenialReason(availableBalance, amount));
+                    continue;
+                }
+
+                var newReservation = new Reservation(accountId, transactionId, amount);
+                newReservation.setStatus(ReservationStatus.OK);
+                accountRepo.saveNewReservation(newReservation);
+                statuses.add(newReservation.getStatus());
+                reasons.add(null);
+
+            } catch (RuntimeException e) {
+                var msg = String.format("Reservation of the transaction '%s' failed: %s", transactionId, e.getMessage());
+                log.error(msg, e);
+                statuses.add(null);
+                reasons.add(msg);
+                continue;
+            }
+
+            availableBalance = availableBalance.subtract(amount);
+            updateTotals(BigDecimal.ZERO, amount);
+            replicateChange(accountId, amount.negate());
+        }
+        resultBuilder.reservationStatuses(statuses).reservationReasons(reasons);
     }
 
     /**
@@ -171,14 +513,19 @@ public class AccountBalanceManager extends Component {
 
         accountRepo.updateAccountBalanceAndReservationStatus(
                 accountId, transactionId, newBalance, ReservationStatus.DEBITED);
+        ledgerRepo.append(accountId, transactionId, reservation.getAmount().negate(), newBalance);
+        updateTotals(reservation.getAmount().negate(), reservation.getAmount().negate());
+        // the available balance does not change: the reserved amount is already subtracted from it
     }
 
     /**
      * отменить ранее созданное резервирование суммы
      */
     private void cancelReservedAmount(String accountId, String transactionId) {
-        getReservationCheckStatusOK(accountId, transactionId);
+        var reservation = getReservationCheckStatusOK(accountId, transactionId);
         accountRepo.updateReservationStatus(accountId, transactionId, ReservationStatus.CANCELED);
+        updateTotals(BigDecimal.ZERO, reservation.getAmount().negate());
+        replicateChange(accountId, reservation.getAmount());
     }
 
     private Reservation getReservationCheckStatusOK(String accountId, String transactionId) {
@@ -203,14 +550,91 @@ public class AccountBalanceManager extends Component {
      * добавить сумму на счет
      */
     private void addAmount(String accountId, String transactionId, BigDecimal amount) {
-        // todo: transactionId не используется, но в будущем можно и пополнение счета фиксировать
-        //  в отдельной таблице с историей изменения баланса счета
-
         // todo: если реализовать функцию блокировки счета, то можно вернуть ошибку.
 
         var balance = getAccountBalance(accountId);
         var newBalance = balance.add(amount);
         accountRepo.updateAccountBalance(accountId, newBalance);
+        ledgerRepo.append(accountId, transactionId, amount, newBalance);
+        // the amount without a transaction is issued (see AccountService.issueMoney): the supply grows with
+        // the balance in one change, so the totals never show the issued money on one side only
+        updateTotals(amount, BigDecimal.ZERO, transactionId == null ? amount : BigDecimal.ZERO);
+        replicateChange(accountId, amount);
+    }
+
+    /**
+     * внести деньги через кассу: перенести сумму с тех. счета кассы на счет.
+     * Деньги "вне системы" не ограничены, поэтому баланс кассы не проверяется.
+     */
+    private void deposit(String accountId, String cashDeskAccountId, String transactionId, BigDecimal amount) {
+        var newBalance = getAccountBalance(accountId).add(amount);
+        var newCashDeskBalance = getAccountBalance(cashDeskAccountId).subtract(amount);
+
+        accountRepo.updateAccountBalances(accountId, newBalance, cashDeskAccountId, newCashDeskBalance);
+        ledgerRepo.append(accountId, transactionId, amount, newBalance);
+        ledgerRepo.append(cashDeskAccountId, transactionId, amount.negate(), newCashDeskBalance);
+        // the shard totals do not change: the money is moved within the shard
+        replicateChange(accountId, amount);
+        replicateChange(cashDeskAccountId, amount.negate());
+    }
+
+    /**
+     * Puts the amount into every account from the cash desk account: the balances are updated at once,
+     * every deposit is a transaction of its own in the ledgers of the account and of the cash desk
+     *
+     * @param transactionIds the deposit transactions of the accounts in the same order
+     */
+    private void depositBatch(
+            List<String> accountIds, String cashDeskAccountId, List<String> transactionIds, BigDecimal amount) {
+        var newBalances = new LinkedHashMap<String, BigDecimal>(accountIds.size() * 2);
+        for (var accountId : accountIds) {
+            if (newBalances.put(accountId, getAccountBalance(accountId).add(amount)) != null) {
+                throw new IllegalStateException("Account is repeated in the batch: " + accountId);
+            }
+        }
+
+        var cashDeskBalance = getAccountBalance(cashDeskAccountId);
+        var total = amount.multiply(BigDecimal.valueOf(newBalances.size()));
+        var allNewBalances = new HashMap<>(newBalances);
+        allNewBalances.put(cashDeskAccountId, cashDeskBalance.subtract(total));
+        accountRepo.updateAccountBalances(allNewBalances);
+
+        for (int i = 0; i < accountIds.size(); i++) {
+            var accountId = accountIds.get(i);
+            ledgerRepo.append(accountId, transactionIds.get(i), amount, newBalances.get(accountId));
+            replicateChange(accountId, amount);
+            cashDeskBalance = cashDeskBalance.subtract(amount);
+            ledgerRepo.append(cashDeskAccountId, transactionIds.get(i), amount.negate(), cashDeskBalance);
+        }
+        // the shard totals do not change: the money is moved within the shard
+        replicateChange(cashDeskAccountId, total.negate());
+    }
+
+    /**
+     * выдать деньги через кассу: зарезервировать и сразу списать сумму со счета на тех. счет кассы
+     *
+     * Статус в результате вызова: DEBITED, если деньги списаны, или DENIED (с причиной), если не хватает денег на счете
+     */
+    private void withdraw(String accountId, String cashDeskAccountId, String transactionId, BigDecimal amount,
+                          AccountBalanceCallResult.AccountBalanceCallResultBuilder resultBuilder) {
+        var availableBalance = getAvailableBalance(accountId);
+        if (availableBalance.compareTo(amount) < 0) {
+            resultBuilder.reservationStatus(ReservationStatus.DENIED)
+                    .reservationReason(getDenialReason(availableBalance, amount));
+            return;
+        }
+
+        var newBalance = getAccountBalance(accountId).subtract(amount);
+        var newCashDeskBalance = getAccountBalance(cashDeskAccountId).add(amount);
+
+        accountRepo.updateAccountBalances(accountId, newBalance, cashDeskAccountId, newCashDeskBalance);
+        ledgerRepo.append(accountId, transactionId, amount.negate(), newBalance);
+        ledgerRepo.append(cashDeskAccountId, transactionId, amount, newCashDeskBalance);
+        // the shard totals do not change: the money is moved within the shard
+        replicateChange(accountId, amount.negate());
+        replicateChange(cashDeskAccountId, amount);
+
+        resultBuilder.reservationStatus(ReservationStatus.DEBITED);
     }
 
     //endregion
@@ -3,19 +3,53 @@ package ru.mt;
 import lombok.extern.log4j.Log4j2;
 import ru.mt.app.Component;
 import ru.mt.app.Configuration;
+import ru.mt.cluster.ClusterConfig;
+import ru.mt.cluster.NodeClient;
+import ru.mt.cluster.NodeRequestHandler;
+import ru.mt.cluster.NodeServer;
 import ru.mt.data.AccountBalanceCallRepository;
 import ru.mt.data.AccountRepository;
+import ru.mt.data.LedgerRepository;
+import ru.mt.data.TransactionRepository;
 import ru.mt.domain.Account;
 import ru.mt.domain.AccountBalanceCall;
 import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.LedgerPage;
+import ru.mt.domain.ReservationStatus;
+import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
 import ru.mt.utils.CountdownTimer;
+import ru.mt.utils.Deadline;
+import ru.mt.utils.Processor;
+import ru.mt.utils.RandomUtils;
 import ru.mt.utils.ShardUtils;
+import ru.mt.utils.TimeUtils;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Сервис, через который выполняются все операции со счетами.
@@ -31,25 +65,99 @@ public class AccountService extends Component {
      * todo: получать значение из параметров или выставлять автоматически = кол-во ядер CPU
      * но пока =1, т.к. требуется более тщательная проверка тестами.
      */
-    private static final int SHARD_COUNT = 16;
+    public static final int SHARD_COUNT = 16;
     private final AccountRepository accountRepo;
     private final AccountBalanceCallRepository balanceCallRepo;
-    private final List<AccountBalanceManager> accountBalanceManagers = new ArrayList<>();
+    private final LedgerRepository ledgerRepo;
+    private final TransactionRepository transactionRepo;
+    /**
+     * Managers of the shards served by this node (null for the shards of the other nodes)
+     */
+    private final AccountBalanceManager[] accountBalanceManagers = new AccountBalanceManager[SHARD_COUNT];
+    private final ClusterConfig cluster;
+    /**
+     * Clients of the other nodes of the cluster (null for this node).
+     * Index: node index
+     */
+    private final NodeClient[] nodeClients;
+    /**
+     * Receives the calls of the other nodes to the shards of this node (null if the node is alone)
+     */
+    private final NodeServer nodeServer;
+
+    /**
+     * Admission control: max count of calls in the shard queue when the shard still accepts new work
+     */
+    private final int shardMaxQueueDepth = Integer.getInteger("mt.admission.shard.maxQueueDepth", 10_000);
+    /**
+     * Admission control: max estimated waiting time of a new call in the shard queue (5 sec by default)
+     */
+    private final long shardMaxEstimatedWaitNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("mt.admission.shard.maxWaitMillis", 5_000));
+    /**
+     * Admission control: how long the answer of the node which serves the shard is reused (100 ms)
+     */
+    private final long remoteAdmissionCacheMillis = Long.getLong("mt.admission.shard.remoteCacheMillis", 100);
+    /**
+     * Last admission answers of the shards served by the other nodes
+     */
+    private final AtomicReferenceArray<RemoteAdmission> remoteAdmissions = new AtomicReferenceArray<>(SHARD_COUNT);
+    /**
+     * How long to retry connecting to another node, e.g. while it is starting (30 sec)
+     */
+    private static final int NODE_CONNECT_TIMEOUT = 30_000;
 
-    public AccountService() {
+    public AccountService() throws IOException {
         accountRepo = Configuration.getComponent(AccountRepository.class);
 
         balanceCallRepo = Configuration.getComponent(AccountBalanceCallRepository.class);
         balanceCallRepo.initShards(SHARD_COUNT);
+        ledgerRepo = Configuration.getComponent(LedgerRepository.class);
+        transactionRepo = Configuration.getComponent(TransactionRepository.class);
 
+        cluster = ClusterConfig.fromSystemProperties(SHARD_COUNT);
         for (int i = 0; i < SHARD_COUNT; i++) {
-            accountBalanceManagers.add(new AccountBalanceManager(i));
+            if (cluster.isLocalShard(i)) {
+                accountBalanceManagers[i] = new AccountBalanceManager(i);
+            }
+        }
+
+        nodeClients = new NodeClient[cluster.getNodeCount()];
+        if (!cluster.isClustered()) {
+            nodeServer = null;
+            borrowProcessor.start();
+            return;
+        }
+
+        log.info("Cluster node {} of {}", cluster.getNodeIndex(), cluster.getNodeCount());
+        for (int i = 0; i < nodeClients.length; i++) {
+            if (i != cluster.getNodeIndex()) {
+                // the remote node waits for the call result itself, so wait for its response a little longer
+                nodeClients[i] = new NodeClient(
+                        i, cluster.getNodeAddress(i), NODE_CONNECT_TIMEOUT, 2 * CALL_RESULT_WAITING_TIMEOUT);
+            }
         }
+        nodeServer = new NodeServer(
+                cluster.getNodeAddress(cluster.getNodeIndex()).getPort(), new LocalNodeRequestHandler());
+        borrowProcessor.start();
     }
 
     @Override
     protected void destroyInternal() {
-        accountBalanceManagers.forEach(AccountBalanceManager::destroy);
+        borrowProcessor.stop();
+        if (nodeServer != null) {
+            nodeServer.destroy();
+        }
+        for (var nodeClient : nodeClients) {
+            if (nodeClient != null) {
+                nodeClient.close();
+            }
+        }
+        for (var manager : accountBalanceManagers) {
+            if (manager != null) {
+                manager.destroy();
+            }
+        }
     }
 
     /**
@@ -58,7 +166,15 @@ public class AccountService extends Component {
      * @return set of account identifiers
      */
     Set<String> getAccounts() {
-        return accountRepo.findAllAccount();
+        var accounts = accountRepo.findAllAccount();
+        for (var nodeClient : nodeClients) {
+            if (nodeClient != null) {
+                accounts.addAll(nodeClient.getAccounts());
+            }
+        }
+        // sub-accounts of the split accounts are internal
+        accounts.removeAll(accountRepo.findAllSubAccounts());
+        return accounts;
     }
 
     /**
@@ -68,11 +184,97 @@ public class AccountService extends Component {
      */
     String createNewAccount() {
         var id = UUID.randomUUID().toString();
-        var account = new Account(id);
-        accountRepo.saveNewAccount(account);
+        saveNewAccount(id);
         return id;
     }
 
+    /**
+     * Creates the accounts in bulk: the ids are generated at once, and the accounts are saved by one batch per shard
+     * (the accounts of the shards of another node are sent to it by one request)
+     *
+     * @return ids of the created accounts by shard (index = shard index)
+     */
+    List<List<String>> createNewAccounts(int count) {
+        var accountIdsByShard = new ArrayList<List<String>>(SHARD_COUNT);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            accountIdsByShard.add(new ArrayList<>());
+        }
+        for (var id : RandomUtils.getRandomUUIDs(count)) {
+            accountIdsByShard.get(getShardIndex(id)).add(id);
+        }
+
+        var accountIdsByNode = new ArrayList<List<String>>(nodeClients.length);
+        for (int i = 0; i < nodeClients.length; i++) {
+            accountIdsByNode.add(new ArrayList<>());
+        }
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            var accountIds = accountIdsByShard.get(i);
+            if (accountIds.isEmpty()) {
+                continue;
+            }
+
+            if (getNodeClient(i) == null) {
+                saveNewAccounts(accountIds);
+            } else {
+                accountIdsByNode.get(cluster.getShardNode(i)).addAll(accountIds);
+            }
+        }
+        for (int i = 0; i < nodeClients.length; i++) {
+            if (!accountIdsByNode.get(i).isEmpty()) {
+                nodeClients[i].createAccounts(accountIdsByNode.get(i));
+            }
+        }
+
+        return accountIdsByShard;
+    }
+
+    private void saveNewAccounts(List<String> accountIds) {
+        accountRepo.saveNewAccounts(accountIds.stream().map(Account::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * Create new account which is served by the shard
+     *
+     * @return the created account id
+     */
+    String createNewAccountOnShard(int shardIndex) {
+        if (shardIndex < 0 || shardIndex >= SHARD_COUNT) {
+            throw new IllegalArgumentException("Invalid shard index: " + shardIndex);
+        }
+
+        // the shard is defined by the id hash, so generate ids until one falls into the shard
+        String id;
+        do {
+            id = UUID.randomUUID().toString();
+        } while (getShardIndex(id) != shardIndex);
+
+        saveNewAccount(id);
+        return id;
+    }
+
+    /**
+     * Saves the account on the node which serves its shard
+     */
+    private void saveNewAccount(String accountId) {
+        var nodeClient = getNodeClient(getShardIndex(accountId));
+        if (nodeClient == null) {
+            accountRepo.saveNewAccount(new Account(accountId));
+        } else {
+            nodeClient.createAccount(accountId);
+        }
+    }
+
+    private boolean accountExists(String accountId) {
+        var nodeClient = getNodeClient(getShardIndex(accountId));
+        return nodeClient == null
+                ? accountRepo.findAccount(accountId) != null
+                : nodeClient.accountExists(accountId);
+    }
+
+    int getShardCount() {
+        return SHARD_COUNT;
+    }
+
     /**
      * Available account balance = current account balance minus all reserved amounts
      *
@@ -80,8 +282,231 @@ public class AccountService extends Component {
      * @return Available account balance
      */
     AccountBalanceCallResult getAccountBalance(String accountId) {
-        var call = AccountBalanceCall.getAvailableBalance(accountId);
-        return executeCall(call);
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            var call = AccountBalanceCall.getAvailableBalance(accountId);
+            return executeCall(call);
+        }
+
+        // balance of the split account is the sum of its sub-balances
+        var total = BigDecimal.ZERO;
+        for (var subAccountId : subAccountIds) {
+            var result = executeCall(AccountBalanceCall.getAvailableBalance(subAccountId));
+            if (result.hasError()) {
+                return result;
+            }
+            total = total.add(result.getAmount());
+        }
+
+        return AccountBalanceCallResult.builder().amount(total).build();
+    }
+
+    /**
+     * Multi-get of the available balances: the accounts (the sub-accounts of the split accounts) are grouped
+     * by shard, and one call per shard is sent to all the shards before waiting for the results
+     *
+     * @return the result with the available balances in the order of the account ids
+     * (null if the account is not found) or the error of a shard call
+     */
+    AccountBalanceCallResult getAccountBalances(List<String> accountIds) {
+        var balanceIdsByAccount = new ArrayList<List<String>>(accountIds.size());
+        var balanceIdsByShard = new HashMap<Integer, Set<String>>();
+        for (var accountId : accountIds) {
+            var subAccountIds = accountRepo.findSubAccounts(accountId);
+            if (subAccountIds == null) {
+                subAccountIds = List.of(accountId);
+            }
+
+            balanceIdsByAccount.add(subAccountIds);
+            for (var subAccountId : subAccountIds) {
+                balanceIdsByShard.computeIfAbsent(getShardIndex(subAccountId), i -> new LinkedHashSet<>())
+                        .add(subAccountId);
+            }
+        }
+
+        var calls = new ArrayList<AccountBalanceCall>(balanceIdsByShard.size());
+        for (var balanceIds : balanceIdsByShard.values()) {
+            calls.add(AccountBalanceCall.getAvailableBalances(new ArrayList<>(balanceIds)));
+        }
+        var results = executeCalls(calls);
+
+        var balances = new HashMap<String, BigDecimal>();
+        for (int i = 0; i < calls.size(); i++) {
+            var result = results.get(i);
+            if (result.hasError()) {
+                return result;
+            }
+
+            var balanceIds = calls.get(i).getAccountIds();
+            for (int j = 0; j < balanceIds.size(); j++) {
+                balances.put(balanceIds.get(j), result.getAmounts().get(j));
+            }
+        }
+
+        // balance of the split account is the sum of its sub-balances
+        var amounts = new ArrayList<BigDecimal>(accountIds.size());
+        for (var balanceIds : balanceIdsByAccount) {
+            var total = BigDecimal.ZERO;
+            for (var balanceId : balanceIds) {
+                var balance = balances.get(balanceId);
+                if (balance == null) {
+                    total = null;
+                    break;
+                }
+                total = total.add(balance);
+            }
+            amounts.add(total);
+        }
+
+        return AccountBalanceCallResult.builder().amounts(amounts).build();
+    }
+
+    /**
+     * Reads the available balance from the follower replicas of the shards without calls to the shards
+     *
+     * @param maxStalenessMillis how long ago the changes which the balance may miss could be committed
+     * @return null if a follower can not serve the read (then the balance must be read from the shard)
+     */
+    BigDecimal findReplicatedBalance(String accountId, long maxStalenessMillis) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            subAccountIds = List.of(accountId);
+        }
+
+        var total = BigDecimal.ZERO;
+        for (var subAccountId : subAccountIds) {
+            // the shards of the other nodes are read through their nodes
+            var manager = accountBalanceManagers[getShardIndex(subAccountId)];
+            var balance = manager == null ? null : manager.findReplicatedBalance(subAccountId, maxStalenessMillis);
+            if (balance == null) {
+                return null;
+            }
+            total = total.add(balance);
+        }
+
+        return total;
+    }
+
+    /**
+     * Reads the ledger of the account from the node which serves its shard.
+     * The ledger of the split account is merged from the ledgers of its sub-balances, see {@link #getMergedLedger}.
+     *
+     * @see LedgerRepository#findEntries
+     */
+    LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        return subAccountIds == null
+                ? getSubLedger(accountId, fromTs, toTs, cursor, limit)
+                : getMergedLedger(subAccountIds, fromTs, toTs, cursor, limit);
+    }
+
+    private LedgerPage getSubLedger(String subAccountId, long fromTs, long toTs, long cursor, int limit) {
+        var nodeClient = getNodeClient(getShardIndex(subAccountId));
+        return nodeClient == null
+                ? ledgerRepo.findEntries(subAccountId, fromTs, toTs, cursor, limit)
+                : nodeClient.getLedger(subAccountId, fromTs, toTs, cursor, limit);
+    }
+
+    /**
+     * Bits of the merged ledger cursor for the count of the entries to skip at the cursor time
+     */
+    private static final int MERGED_CURSOR_SKIP_BITS = 20;
+    /**
+     * Max count of the entries read from the ledger of a sub-balance at once
+     */
+    private static final int MAX_LEDGER_PAGE_SIZE = 1000;
+
+    /**
+     * Merges the ledgers of the sub-balances in the order of (ts, sub-balance index, seq).
+     * The entries keep their seqs in the ledgers of the sub-balances, but their balances are the totals
+     * of all the sub-balances after the change. The cursor is the time of the next entry and the count
+     * of the entries at this time which are already returned, so a page reads only its own time range.
+     */
+    private LedgerPage getMergedLedger(List<String> subAccountIds, long fromTs, long toTs, long cursor, int limit) {
+        var startTs = cursor >= 0 ? cursor >>> MERGED_CURSOR_SKIP_BITS : fromTs;
+        var skip = cursor >= 0 ? (int) (cursor & ((1 << MERGED_CURSOR_SKIP_BITS) - 1)) : 0;
+        var need = skip + limit + 1;
+
+        var balances = new BigDecimal[subAccountIds.size()];
+        var entries = new ArrayList<Map.Entry<Integer, LedgerEntry>>();
+        for (int i = 0; i < subAccountIds.size(); i++) {
+            var subAccountId = subAccountIds.get(i);
+            var balance = findSubBalanceAt(subAccountId, startTs - 1);
+            balances[i] = balance == null ? BigDecimal.ZERO : balance;
+
+            // the first entries of the merged ledger are among the first entries of every sub-balance ledger
+            var count = 0;
+            var subCursor = -1L;
+            do {
+                var page = getSubLedger(subAccountId, startTs, toTs, subCursor,
+                        Math.min(need - count, MAX_LEDGER_PAGE_SIZE));
+                for (var entry : page.getEntries()) {
+                    entries.add(Map.entry(i, entry));
+                }
+                count += page.getEntries().size();
+                subCursor = page.getNextCursor();
+            } while (subCursor >= 0 && count < need);
+        }
+
+        entries.sort(Comparator.<Map.Entry<Integer, LedgerEntry>>comparingLong(entry -> entry.getValue().getTs())
+                .thenComparing(Map.Entry::getKey)
+                .thenComparingLong(entry -> entry.getValue().getSeq()));
+
+        var total = Arrays.stream(balances).reduce(BigDecimal.ZERO, BigDecimal::add);
+        var pageEntries = new ArrayList<LedgerEntry>(limit);
+        for (int position = 0; position < Math.min(entries.size(), skip + limit); position++) {
+            var subIndex = entries.get(position).getKey();
+            var entry = entries.get(position).getValue();
+            total = total.subtract(balances[subIndex]).add(entry.getBalance());
+            balances[subIndex] = entry.getBalance();
+            if (position >= skip) {
+                pageEntries.add(new LedgerEntry(
+                        entry.getSeq(), entry.getTs(), entry.getTransactionId(), entry.getAmount(), total));
+            }
+        }
+
+        if (entries.size() <= skip + limit) {
+            return new LedgerPage(pageEntries, -1);
+        }
+
+        var nextTs = entries.get(skip + limit).getValue().getTs();
+        var nextSkip = 0;
+        for (int position = 0; position < skip + limit; position++) {
+            if (entries.get(position).getValue().getTs() == nextTs) {
+                nextSkip++;
+            }
+        }
+        return new LedgerPage(pageEntries, (nextTs << MERGED_CURSOR_SKIP_BITS) | nextSkip);
+    }
+
+    /**
+     * Reads the account balance at the time from the ledgers of the account (or of its sub-accounts).
+     * It is the booked balance, the reserved amounts are not subtracted.
+     *
+     * @return zero if the balance did not change before the time
+     */
+    BigDecimal getBalanceAt(String accountId, long ts) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            subAccountIds = List.of(accountId);
+        }
+
+        var total = BigDecimal.ZERO;
+        for (var subAccountId : subAccountIds) {
+            var balance = findSubBalanceAt(subAccountId, ts);
+            if (balance != null) {
+                total = total.add(balance);
+            }
+        }
+
+        return total;
+    }
+
+    private BigDecimal findSubBalanceAt(String subAccountId, long ts) {
+        var nodeClient = getNodeClient(getShardIndex(subAccountId));
+        return nodeClient == null
+                ? ledgerRepo.findBalanceAt(subAccountId, ts)
+                : nodeClient.getBalanceAt(subAccountId, ts);
     }
 
     /**
@@ -92,10 +517,19 @@ public class AccountService extends Component {
      * @param amount        amount by which the balance will be increased
      */
     AccountBalanceCallResult addAmount(String accountId, String transactionId, BigDecimal amount) {
-        var call = AccountBalanceCall.addAmount(accountId, transactionId, amount);
+        // credits of the split account are spread over its sub-balances
+        var call = AccountBalanceCall.addAmount(selectSubAccount(accountId, transactionId), transactionId, amount);
         return executeCall(call);
     }
 
+    /**
+     * Brings new money into the account (it is not moved from another account), so it increases the money supply.
+     * The amount is added without a transaction, and the shard adds it to the supply of its totals.
+     */
+    AccountBalanceCallResult issueMoney(String accountId, BigDecimal amount) {
+        return executeCall(AccountBalanceCall.addAmount(accountId, null, amount));
+    }
+
     /**
      * Reserve the amount on the account balance
      *
@@ -104,8 +538,75 @@ public class AccountService extends Component {
      * @param amount        amount to reserve
      */
     AccountBalanceCallResult reserveAmount(String accountId, String transactionId, BigDecimal amount) {
-        var call = AccountBalanceCall.reserveAmount(accountId, transactionId, amount);
-        return executeCall(call);
+        var subAccountId = selectSubAccount(accountId, transactionId);
+        var result = executeCall(AccountBalanceCall.reserveAmount(subAccountId, transactionId, amount));
+
+        // the denied reservation is not saved, so it can be repeated after borrowing
+        if (isDenied(result) && borrowToSubAccount(accountId, subAccountId, amount)) {
+            result = executeCall(AccountBalanceCall.reserveAmount(subAccountId, transactionId, amount));
+        }
+
+        return result;
+    }
+
+    /**
+     * Reserves the amounts of several transactions of the account: the transactions of the same sub-balance
+     * are reserved by one multi-reservation call, the calls of different sub-balances are executed in parallel
+     *
+     * @param amounts amounts of the transactions in the same order
+     * @return results of the reservations in the order of the transactions
+     */
+    List<AccountBalanceCallResult> reserveAmounts(
+            String accountId, List<String> transactionIds, List<BigDecimal> amounts) {
+        var indexesBySubAccount = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < transactionIds.size(); i++) {
+            indexesBySubAccount.computeIfAbsent(selectSubAccount(accountId, transactionIds.get(i)),
+                    subAccountId -> new ArrayList<>()).add(i);
+        }
+
+        var calls = new ArrayList<AccountBalanceCall>(indexesBySubAccount.size());
+        indexesBySubAccount.forEach((subAccountId, indexes) -> {
+            var callTransactionIds = indexes.stream().map(transactionIds::get).collect(Collectors.toList());
+            var callAmounts = indexes.stream().map(amounts::get).collect(Collectors.toList());
+            calls.add(AccountBalanceCall.reserveMany(subAccountId, callTransactionIds, callAmounts));
+        });
+        var callResults = executeCalls(calls);
+
+        var results = new ArrayList<AccountBalanceCallResult>(transactionIds.size());
+        transactionIds.forEach(transactionId -> results.add(null));
+        var groupIndex = 0;
+        for (var entry : indexesBySubAccount.entrySet()) {
+            var subAccountId = entry.getKey();
+            var callResult = callResults.get(groupIndex++);
+            var indexes = entry.getValue();
+            for (int j = 0; j < indexes.size(); j++) {
+                var i = indexes.get(j);
+                var result = callResult.hasError() ? callResult : getReservationResult(callResult, j);
+
+                // the denied reservation is not saved, so it can be repeated after borrowing
+                if (isDenied(result) && borrowToSubAccount(accountId, subAccountId, amounts.get(i))) {
+                    result = executeCall(
+                            AccountBalanceCall.reserveAmount(subAccountId, transactionIds.get(i), amounts.get(i)));
+                }
+                results.set(i, result);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return result of one reservation of the multi-reservation call:
+     * a failed reservation is an error, the other ones carry their status and its reason
+     */
+    private static AccountBalanceCallResult getReservationResult(AccountBalanceCallResult callResult, int index) {
+        var status = callResult.getReservationStatuses().get(index);
+        var reason = callResult.getReservationReasons() == null ? null : callResult.getReservationReasons().get(index);
+        var builder = AccountBalanceCallResult.builder().callId(callResult.getCallId());
+        if (status == null) {
+            return builder.errorMessage(reason).build();
+        }
+        return builder.reservationStatus(status).reservationReason(reason).build();
     }
 
     /**
@@ -115,15 +616,549 @@ public class AccountService extends Component {
      * @param transactionId the transaction in which the operation is performed
      */
     AccountBalanceCallResult debitReservedAmount(String accountId, String transactionId) {
-        var call = AccountBalanceCall.debitReservedAmount(accountId, transactionId);
-        return executeCall(call);
+        return executeReservationCall(accountId, transactionId, AccountBalanceCall::debitReservedAmount);
     }
 
     AccountBalanceCallResult cancelReservedAmount(String accountId, String transactionId) {
-        var call = AccountBalanceCall.cancelReservedAmount(accountId, transactionId);
+        return executeReservationCall(accountId, transactionId, AccountBalanceCall::cancelReservedAmount);
+    }
+
+    /**
+     * Deposit money through the cash desk: move the amount from the cash desk account to the account
+     * by one call. The cash desk account must be in the same shard as the account.
+     *
+     * @param accountId     the account or the sub-account of the split account
+     * @param transactionId the ledger transaction of the operation
+     */
+    AccountBalanceCallResult deposit(String accountId, String cashDeskAccountId, String transactionId, BigDecimal amount) {
+        checkSameShard(accountId, cashDeskAccountId);
+        var call = AccountBalanceCall.deposit(accountId, cashDeskAccountId, transactionId, amount);
         return executeCall(call);
     }
 
+    /**
+     * Deposit the same amount into every account through the cash desk by one call per shard,
+     * the calls of the shards are executed in parallel
+     *
+     * @param accountIdsByShard     the accounts (index = shard index)
+     * @param cashDeskAccountIds    the cash desk accounts (index = shard index)
+     * @param transactionIdsByShard the deposit transactions of the accounts in the same order
+     * @return results of the shards which have accounts
+     */
+    List<AccountBalanceCallResult> depositBatch(List<List<String>> accountIdsByShard, List<String> cashDeskAccountIds,
+                                                List<List<String>> transactionIdsByShard, BigDecimal amount) {
+        var calls = new ArrayList<AccountBalanceCall>();
+        for (int i = 0; i < accountIdsByShard.size(); i++) {
+            var accountIds = accountIdsByShard.get(i);
+            if (!accountIds.isEmpty()) {
+                checkSameShard(accountIds.get(0), cashDeskAccountIds.get(i));
+                calls.add(AccountBalanceCall.depositBatch(
+                        accountIds, cashDeskAccountIds.get(i), transactionIdsByShard.get(i), amount));
+            }
+        }
+
+        return executeCalls(calls);
+    }
+
+    /**
+     * Withdraw money through the cash desk: reserve and debit the amount on the account
+     * and move it to the cash desk account by one call. The cash desk account must be in the same shard as the account.
+     *
+     * @param subAccountId  the sub-account of the split account to withdraw from (the account itself if it is not split)
+     * @param transactionId the ledger transaction of the operation
+     * @return the result with reservation status DEBITED or DENIED (if the available balance is low)
+     */
+    AccountBalanceCallResult withdraw(String accountId, String subAccountId, String cashDeskAccountId,
+                                      String transactionId, BigDecimal amount) {
+        checkSameShard(subAccountId, cashDeskAccountId);
+        var result = executeCall(AccountBalanceCall.withdraw(subAccountId, cashDeskAccountId, transactionId, amount));
+
+        if (isDenied(result) && borrowToSubAccount(accountId, subAccountId, amount)) {
+            result = executeCall(AccountBalanceCall.withdraw(subAccountId, cashDeskAccountId, transactionId, amount));
+        }
+
+        return result;
+    }
+
+    private static void checkSameShard(String accountId1, String accountId2) {
+        if (getShardIndex(accountId1) != getShardIndex(accountId2)) {
+            throw new IllegalArgumentException(String.format(
+                    "Accounts must be in the same shard: %s, %s", accountId1, accountId2));
+        }
+    }
+
+    //region Split accounts
+
+    /**
+     * Splits the account into sub-balances that live on different shards, so the load of a hot account
+     * is spread over several AccountBalanceManagers. The account itself becomes the first sub-balance
+     * and keeps its current balance.
+     *
+     * @param count count of the sub-balances (including the account itself), from 2 to the shard count
+     * @return false if the account does not exist, is already split or is a sub-account
+     */
+    synchronized boolean splitAccount(String accountId, int count) {
+        if (count < 2 || count > SHARD_COUNT) {
+            throw new IllegalArgumentException("Invalid sub-account count: " + count);
+        }
+
+        if (!accountExists(accountId)
+                || accountRepo.findSubAccounts(accountId) != null
+                || accountRepo.findAllSubAccounts().contains(accountId)) {
+            return false;
+        }
+
+        var shardIndex = getShardIndex(accountId);
+        var subAccountIds = new ArrayList<String>(count);
+        subAccountIds.add(accountId);
+        for (int i = 1; i < count; i++) {
+            subAccountIds.add(createNewAccountOnShard((shardIndex + i) % SHARD_COUNT));
+        }
+
+        accountRepo.saveSplitAccount(accountId, subAccountIds);
+        // every node routes the calls of the account to its sub-balances
+        for (var nodeClient : nodeClients) {
+            if (nodeClient != null) {
+                nodeClient.saveSplitAccount(accountId, subAccountIds);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the sub-balance of the split account to execute the transaction on,
+     * it is the same for all calls of the transaction (or the account itself if it is not split)
+     */
+    String selectSubAccount(String accountId, String transactionId) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            return accountId;
+        }
+
+        return subAccountIds.get(Math.floorMod(Objects.hashCode(transactionId), subAccountIds.size()));
+    }
+
+    /**
+     * @return random sub-balance of the split account (or the account itself if it is not split)
+     */
+    String selectAnySubAccount(String accountId) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            return accountId;
+        }
+
+        return subAccountIds.get(ThreadLocalRandom.current().nextInt(subAccountIds.size()));
+    }
+
+    /**
+     * Executes the debit or the cancel of the reservation on the sub-balance where the reservation was made
+     */
+    private AccountBalanceCallResult executeReservationCall(
+            String accountId, String transactionId, BiFunction<String, String, AccountBalanceCall> callFactory) {
+
+        var subAccountId = selectSubAccount(accountId, transactionId);
+        var result = executeCall(callFactory.apply(subAccountId, transactionId));
+
+        if (result.hasError() && !subAccountId.equals(accountId)) {
+            // the reservation may have been made before the account was split
+            var accountResult = executeCall(callFactory.apply(accountId, transactionId));
+            if (!accountResult.hasError()) {
+                return accountResult;
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isDenied(AccountBalanceCallResult result) {
+        return !result.hasError() && result.getReservationStatus() == ReservationStatus.DENIED;
+    }
+
+    /**
+     * Moves money from the sibling sub-balances of the split account to the sub-balance,
+     * so that its available balance covers the amount (as much as possible).
+     *
+     * @return true if some money was moved
+     */
+    private boolean borrowToSubAccount(String accountId, String subAccountId, BigDecimal amount) {
+        var subAccountIds = accountRepo.findSubAccounts(accountId);
+        if (subAccountIds == null) {
+            return false;
+        }
+
+        var balanceResult = executeCall(AccountBalanceCall.getAvailableBalance(subAccountId));
+        if (balanceResult.hasError()) {
+            return false;
+        }
+
+        var shortfall = amount.subtract(balanceResult.getAmount());
+        var borrowed = false;
+
+        for (var siblingId : subAccountIds) {
+            if (shortfall.signum() <= 0) {
+                break;
+            }
+            if (siblingId.equals(subAccountId)) {
+                continue;
+            }
+
+            var siblingResult = executeCall(AccountBalanceCall.getAvailableBalance(siblingId));
+            if (siblingResult.hasError() || siblingResult.getAmount().signum() <= 0) {
+                continue;
+            }
+
+            var borrowAmount = siblingResult.getAmount().min(shortfall);
+            if (moveAmount(siblingId, subAccountId, borrowAmount)) {
+                shortfall = shortfall.subtract(borrowAmount);
+                borrowed = true;
+            }
+        }
+
+        return borrowed;
+    }
+
+    /**
+     * Moves the amount between the sub-balances by the same steps as the money transfer:
+     * reserve on the source, add to the target, debit the source.
+     * The move is a transaction of its own, see {@link #continueBorrow}.
+     *
+     * @return true if the amount was moved
+     */
+    private boolean moveAmount(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+        var transaction = Transaction.restore(BORROW_TRANSACTION_ID_PREFIX + UUID.randomUUID(),
+                TimeUtils.getTimestamp(), accountIdFrom, accountIdTo, amount, TransactionStatus.CREATED);
+        try {
+            transactionRepo.saveOwnTransaction(transaction);
+        } catch (RuntimeException e) {
+            log.error("Borrow not saved: " + transaction, e);
+            return false;
+        }
+
+        return continueBorrow(transaction, false) == TransactionStatus.DONE;
+    }
+
+    //region Borrow saga
+
+    /**
+     * Prefix of the ids of the borrow transactions, it tells them from the transfers in the repository
+     */
+    private static final String BORROW_TRANSACTION_ID_PREFIX = "borrow-";
+    /**
+     * Pause before the next attempt to continue the unfinished borrow
+     */
+    private static final long BORROW_RETRY_PAUSE_MILLIS = 1000;
+    /**
+     * The ledger of the target is searched for the borrowed amount from the borrow time minus this slack
+     * (the ledger entries are timestamped by the node of the shard)
+     */
+    private static final long BORROW_LEDGER_SLACK_MILLIS = 60_000;
+    private static final Set<TransactionStatus> NOT_FINAL_STATUSES = Set.of(TransactionStatus.CREATED,
+            TransactionStatus.RESERVED, TransactionStatus.ADDED, TransactionStatus.CANCELLING);
+
+    /**
+     * Borrows which are not completed because a step or a status saving failed, with the last reached status
+     */
+    private final BlockingQueue<Transaction> unfinishedBorrows = new LinkedBlockingQueue<>();
+    private final Processor borrowProcessor = new Processor("borrow-recovery", this::recoverBorrows);
+    /**
+     * Used only by the borrow processor
+     */
+    private boolean savedBorrowsLoaded = false;
+
+    /**
+     * Continues the borrow from its status until a final status. Every reached status is saved before the next step,
+     * so a borrow interrupted by a failure (or by the stop of the node) is continued from it by the borrow processor,
+     * which retries until the borrow is completed. The processor does not know whether the step after the saved
+     * status has been executed, so it checks it first (see {@link #getNextBorrowStatus}).
+     *
+     * @param recovering true if the borrow is continued by the borrow processor
+     * @return the final status or null if the borrow is left unfinished for the borrow processor
+     */
+    private TransactionStatus continueBorrow(Transaction transaction, boolean recovering) {
+        var status = transaction.getStatus();
+        String reason = null;
+        while (!status.isFinal()) {
+            TransactionStatusUpdate next;
+            try {
+                next = getNextBorrowStatus(transaction, status, reason, recovering);
+            } catch (RuntimeException e) {
+                log.error("Borrow step failed: " + transaction, e);
+                next = null;
+            }
+            if (next == null) {
+                leaveBorrowUnfinished(transaction, status);
+                return null;
+            }
+
+            try {
+                transactionRepo.updateTransactionStatus(transaction.getId(), next.getStatus(), next.getReason());
+            } catch (RuntimeException e) {
+                log.error("Borrow status not saved: " + transaction, e);
+                leaveBorrowUnfinished(transaction, next.getStatus());
+                return null;
+            }
+            status = next.getStatus();
+            reason = next.getReason();
+        }
+
+        if (status != TransactionStatus.DONE) {
+            log.warn("Borrow {} completed with status {}: {}", transaction.getId(), status, reason);
+        }
+        return status;
+    }
+
+    /**
+     * Executes the step of the borrow saga from the status.
+     * The recovering borrow is not needed by anybody any more, so it is cancelled if the amount is not added yet.
+     *
+     * @param reason reason of the status
+     * @return the next status or null if the step failed and has to be retried later
+     */
+    private TransactionStatusUpdate getNextBorrowStatus(
+            Transaction transaction, TransactionStatus status, String reason, boolean recovering) {
+
+        var accountIdFrom = transaction.getAccountIdFrom();
+        var transactionId = transaction.getId();
+        switch (status) {
+            case CREATED: {
+                // the repeated reservation returns the status of the existing one
+                var result = executeCall(
+                        AccountBalanceCall.reserveAmount(accountIdFrom, transactionId, transaction.getAmount()));
+                if (result.hasError()) {
+                    // it is not known whether the amount is reserved
+                    return null;
+                }
+                switch (result.getReservationStatus()) {
+                    case OK:
+                        return recovering
+                                ? new TransactionStatusUpdate(TransactionStatus.CANCELLING, "Borrow interrupted")
+                                : new TransactionStatusUpdate(TransactionStatus.RESERVED, null);
+                    case DEBITED:
+                        // the amount is debited after it is added
+                        return new TransactionStatusUpdate(TransactionStatus.DONE, null);
+                    default:
+                        return new TransactionStatusUpdate(TransactionStatus.DENIED, result.getReservationReason());
+                }
+            }
+
+            case RESERVED:
+                if (recovering) {
+                    return hasLedgerEntry(transaction.getAccountIdTo(), transactionId, transaction.getTs())
+                            ? new TransactionStatusUpdate(TransactionStatus.ADDED, null)
+                            : new TransactionStatusUpdate(TransactionStatus.CANCELLING, "Borrow interrupted");
+                }
+                var addResult = executeCall(
+                        AccountBalanceCall.addAmount(transaction.getAccountIdTo(), transactionId, transaction.getAmount()));
+                return addResult.hasError()
+                        ? new TransactionStatusUpdate(TransactionStatus.CANCELLING, addResult.getErrorMessage())
+                        : new TransactionStatusUpdate(TransactionStatus.ADDED, null);
+
+            case ADDED:
+                if (recovering) {
+                    var reservationStatus = findReservationStatus(transaction);
+                    if (reservationStatus == null) {
+                        return null;
+                    }
+                    if (reservationStatus == ReservationStatus.DEBITED) {
+                        return new TransactionStatusUpdate(TransactionStatus.DONE, null);
+                    }
+                    if (reservationStatus != ReservationStatus.OK) {
+                        return new TransactionStatusUpdate(TransactionStatus.ERROR,
+                                "Unexpected reservation status of the added borrow: " + reservationStatus);
+                    }
+                }
+                var debitResult = executeCall(AccountBalanceCall.debitReservedAmount(accountIdFrom, transactionId));
+                return debitResult.hasError() ? null : new TransactionStatusUpdate(TransactionStatus.DONE, null);
+
+            case CANCELLING:
+                if (recovering) {
+                    var reservationStatus = findReservationStatus(transaction);
+                    if (reservationStatus == null) {
+                        return null;
+                    }
+                    // not reserved at all: the reservation is not made again if the amount is not available
+                    if (reservationStatus == ReservationStatus.CANCELED || reservationStatus == ReservationStatus.DENIED) {
+                        return new TransactionStatusUpdate(TransactionStatus.DENIED, reason);
+                    }
+                    if (reservationStatus != ReservationStatus.OK) {
+                        return new TransactionStatusUpdate(TransactionStatus.ERROR,
+                                "Unexpected reservation status of the cancelled borrow: " + reservationStatus);
+                    }
+                }
+                var cancelResult = executeCall(AccountBalanceCall.cancelReservedAmount(accountIdFrom, transactionId));
+                return cancelResult.hasError() ? null : new TransactionStatusUpdate(TransactionStatus.DENIED, reason);
+
+            default:
+                throw new IllegalStateException("Unexpected borrow status: " + status);
+        }
+    }
+
+    /**
+     * @return status of the reservation of the borrow (the reservation is made if there is none),
+     * null if it is not known
+     */
+    private ReservationStatus findReservationStatus(Transaction transaction) {
+        // the repeated reservation returns the status of the existing one
+        var result = executeCall(AccountBalanceCall.reserveAmount(
+                transaction.getAccountIdFrom(), transaction.getId(), transaction.getAmount()));
+        return result.hasError() ? null : result.getReservationStatus();
+    }
+
+    /**
+     * @return true if the ledger of the account has an entry of the transaction
+     */
+    private boolean hasLedgerEntry(String accountId, String transactionId, long transactionTs) {
+        var cursor = -1L;
+        do {
+            var page = getSubLedger(accountId, transactionTs - BORROW_LEDGER_SLACK_MILLIS, Long.MAX_VALUE,
+                    cursor, MAX_LEDGER_PAGE_SIZE);
+            for (var entry : page.getEntries()) {
+                if (transactionId.equals(entry.getTransactionId())) {
+                    return true;
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (cursor >= 0);
+
+        return false;
+    }
+
+    private void leaveBorrowUnfinished(Transaction transaction, TransactionStatus status) {
+        log.error("Borrow {} is not completed, it stays in the status {} until the retry",
+                transaction.getId(), status);
+        unfinishedBorrows.add(Transaction.restore(transaction.getId(), transaction.getTs(),
+                transaction.getAccountIdFrom(), transaction.getAccountIdTo(), transaction.getAmount(), status));
+    }
+
+    /**
+     * Action of the borrow processor: loads the borrows which were not completed before the start of the node,
+     * then continues the unfinished borrows one by one
+     */
+    private void recoverBorrows() throws InterruptedException {
+        if (!savedBorrowsLoaded) {
+            try {
+                loadUnfinishedBorrows();
+                savedBorrowsLoaded = true;
+            } catch (RuntimeException e) {
+                log.error("Unfinished borrows not loaded", e);
+                TimeUnit.MILLISECONDS.sleep(BORROW_RETRY_PAUSE_MILLIS);
+                return;
+            }
+        }
+
+        var transaction = unfinishedBorrows.poll(1000, TimeUnit.MILLISECONDS);
+        if (transaction == null) {
+            return;
+        }
+
+        log.info("Continuing the borrow {} from the status {}", transaction.getId(), transaction.getStatus());
+        if (continueBorrow(transaction, true) == null) {
+            TimeUnit.MILLISECONDS.sleep(BORROW_RETRY_PAUSE_MILLIS);
+        }
+    }
+
+    private void loadUnfinishedBorrows() {
+        var filter = TransactionFilter.builder().statuses(NOT_FINAL_STATUSES).build();
+        var cursor = -1L;
+        do {
+            var page = transactionRepo.findTransactions(filter, cursor, MAX_LEDGER_PAGE_SIZE);
+            for (var record : page.getRecords()) {
+                var transaction = record.getTransaction();
+                if (transaction.getId().startsWith(BORROW_TRANSACTION_ID_PREFIX)) {
+                    unfinishedBorrows.add(Transaction.restore(transaction.getId(), transaction.getTs(),
+                            transaction.getAccountIdFrom(), transaction.getAccountIdTo(), transaction.getAmount(),
+                            record.getStatus()));
+                }
+            }
+            cursor = page.getNextCursor();
+        } while (cursor >= 0);
+    }
+
+    //endregion
+
+    //endregion
+
+    /**
+     * Admission control: checks whether the shard of the account can accept new work
+     *
+     * @return 0 if the shard is not saturated, otherwise the estimated time (ms)
+     * after which the shard will be able to accept new work
+     */
+    long checkShardAdmission(String accountId) {
+        var shardIndex = getShardIndex(accountId);
+        var manager = accountBalanceManagers[shardIndex];
+        if (manager == null) {
+            return checkRemoteShardAdmission(shardIndex, accountId);
+        }
+
+        var estimatedWaitNanos = manager.getEstimatedWaitNanos();
+
+        if (manager.getQueueSize() < shardMaxQueueDepth && estimatedWaitNanos < shardMaxEstimatedWaitNanos) {
+            return 0;
+        }
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(estimatedWaitNanos));
+    }
+
+    private static class RemoteAdmission {
+        final long checkedAt;
+        final long retryAfterMillis;
+
+        RemoteAdmission(long checkedAt, long retryAfterMillis) {
+            this.checkedAt = checkedAt;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    /**
+     * The shard served by another node is checked by that node; its answer is reused for a short time,
+     * so that the admission control does not add a request to the node for every request of the client
+     */
+    private long checkRemoteShardAdmission(int shardIndex, String accountId) {
+        var now = System.currentTimeMillis();
+        var admission = remoteAdmissions.get(shardIndex);
+        if (admission == null || now - admission.checkedAt >= remoteAdmissionCacheMillis) {
+            admission = new RemoteAdmission(now, getNodeClient(shardIndex).checkShardAdmission(accountId));
+            remoteAdmissions.set(shardIndex, admission);
+        }
+
+        if (admission.retryAfterMillis == 0) {
+            return 0;
+        }
+        return Math.max(1, admission.retryAfterMillis - (now - admission.checkedAt));
+    }
+
+    //region Totals
+
+    /**
+     * @return totals of the accounts of all the shards; the shards are read one by one,
+     * so the totals may include a part of a transfer step
+     */
+    BalanceTotals getTotals() {
+        var totals = getLocalTotals();
+        for (var nodeClient : nodeClients) {
+            if (nodeClient != null) {
+                totals = totals.add(nodeClient.getTotals());
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return totals of the shards served by this node
+     */
+    private BalanceTotals getLocalTotals() {
+        var totals = BalanceTotals.ZERO;
+        for (var manager : accountBalanceManagers) {
+            if (manager != null) {
+                totals = totals.add(manager.getTotals());
+            }
+        }
+        return totals;
+    }
+
+    //endregion
+
     //region Balance calls execution
 
     /**
@@ -131,34 +1166,112 @@ public class AccountService extends Component {
      */
     private AccountBalanceCallResult executeCall(AccountBalanceCall call) {
         log.debug("executing the call: " + call);
-        putNewCall(call);
-        var result = waitForCallResult(call.getId());
+
+        var result = sendCall(call).get();
         log.debug("call executing done. result: " + result);
         return result;
     }
 
-    private void putNewCall(AccountBalanceCall call) {
-        var shardIndex = ShardUtils.getShardIndexById(call.getAccountId(), SHARD_COUNT);
-        balanceCallRepo.putNewCall(call, shardIndex);
+    /**
+     * Executes the calls of different shards in parallel: all of them are sent before waiting for the results
+     *
+     * @return results in the order of the calls
+     */
+    private List<AccountBalanceCallResult> executeCalls(List<AccountBalanceCall> calls) {
+        var results = new ArrayList<Supplier<AccountBalanceCallResult>>(calls.size());
+        for (var call : calls) {
+            results.add(sendCall(call));
+        }
+
+        return results.stream().map(Supplier::get).collect(Collectors.toList());
     }
 
     /**
-     * Max waiting call result timeout (60 sec)
+     * Puts the call into the shard queue (or sends it to the node which serves the shard) without waiting
+     *
+     * @return waiting for the call result
+     */
+    private Supplier<AccountBalanceCallResult> sendCall(AccountBalanceCall call) {
+        var nodeClient = getNodeClient(getShardIndex(call.getAccountId()));
+        if (nodeClient != null) {
+            var result = nodeClient.executeCallAsync(call);
+            return result::join;
+        }
+
+        if (!putNewCall(call)) {
+            var result = AccountBalanceCallResult.builder()
+                    .callId(call.getId())
+                    .errorMessage("Shard queue is full")
+                    .build();
+            return () -> result;
+        }
+
+        return () -> waitForCallResult(call);
+    }
+
+    private boolean putNewCall(AccountBalanceCall call) {
+        var shardIndex = getShardIndex(call.getAccountId());
+        // new work is rejected at once if the queue is full, but the saga continuation waits for a free space
+        var timeoutMillis = call.getCallType().isSagaContinuation() ? CALL_RESULT_WAITING_TIMEOUT : 0;
+
+        try {
+            return balanceCallRepo.putNewCall(call, shardIndex, timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Putting the call into the queue was interrupted: " + call.getId());
+        }
+    }
+
+    static int getShardIndex(String accountId) {
+        return ShardUtils.getShardIndexById(accountId, SHARD_COUNT);
+    }
+
+    /**
+     * @return client of the node which serves the shard or null if the shard is served by this node
+     */
+    private NodeClient getNodeClient(int shardIndex) {
+        return nodeClients[cluster.getShardNode(shardIndex)];
+    }
+
+    /**
+     * Max waiting call result timeout (60 sec). It is longer than the request timeout,
+     * so the call is either executed or dropped as expired before its waiter gives up
      */
     private static final int CALL_RESULT_WAITING_TIMEOUT = 60_000;
+    /**
+     * The call taken by the shard right before its deadline is still executed,
+     * so its result is waited for a little longer than the deadline
+     */
+    private static final int CALL_RESULT_DEADLINE_SLACK = 1000;
 
-    private AccountBalanceCallResult waitForCallResult(String callId) {
+    /**
+     * @return how long to wait for the call result (ms): the new work is waited for until the deadline
+     * of its request at most, since the shard drops it after the deadline; the saga continuation is executed
+     * whatever its deadline is, so it is waited for the full timeout
+     */
+    static int getCallWaitMillis(AccountBalanceCall call) {
+        var deadline = call.getDeadline();
+        if (deadline == Deadline.NONE || call.getCallType().isSagaContinuation()) {
+            return CALL_RESULT_WAITING_TIMEOUT;
+        }
+        var remainingMillis = deadline - TimeUtils.getTimestamp() + CALL_RESULT_DEADLINE_SLACK;
+        return (int) Math.max(0, Math.min(CALL_RESULT_WAITING_TIMEOUT, remainingMillis));
+    }
+
+    private AccountBalanceCallResult waitForCallResult(AccountBalanceCall call) {
         // todo: подумать, как лучше реализовать ожидание, например, через аналог корутин (Quasar, Loom)
         // todo: сделать сервис, который проставляет результат "Ошибка" для вызовов, которые так и не были обработаны.
+        var callId = call.getId();
         log.debug("start waiting result for call: " + callId);
 
-        CountdownTimer timer = new CountdownTimer(CALL_RESULT_WAITING_TIMEOUT);
+        CountdownTimer timer = new CountdownTimer(getCallWaitMillis(call));
 
         while (!Thread.currentThread().isInterrupted() && !isDestroying()) {
             log.debug("checking result for call: " + callId);
 
             try {
-                var result = balanceCallRepo.getCallResult(callId, 1000);
+                var pollMillis = Math.max(1, Math.min(1000, timer.getRemainingMillis()));
+                var result = balanceCallRepo.getCallResult(callId, pollMillis);
                 if (result != null) {
                     return result;
                 }
@@ -178,4 +1291,92 @@ public class AccountService extends Component {
     }
 
     //endregion
+
+    //region Cluster
+
+    /**
+     * Executes the requests of the other nodes on this node
+     */
+    private class LocalNodeRequestHandler implements NodeRequestHandler {
+        @Override
+        public AccountBalanceCallResult executeCall(AccountBalanceCall call) {
+            var shardIndex = getShardIndex(call.getAccountId());
+            if (!cluster.isLocalShard(shardIndex)) {
+                return AccountBalanceCallResult.builder()
+                        .callId(call.getId())
+                        .errorMessage(String.format(
+                                "Shard %d is not served by the node %d", shardIndex, cluster.getNodeIndex()))
+                        .build();
+            }
+
+            return AccountService.this.executeCall(call);
+        }
+
+        @Override
+        public long checkShardAdmission(String accountId) {
+            var shardIndex = getShardIndex(accountId);
+            if (!cluster.isLocalShard(shardIndex)) {
+                throw new IllegalStateException(String.format(
+                        "Shard %d is not served by the node %d", shardIndex, cluster.getNodeIndex()));
+            }
+
+            return AccountService.this.checkShardAdmission(accountId);
+        }
+
+        @Override
+        public void createAccount(String accountId) {
+            var shardIndex = getShardIndex(accountId);
+            if (!cluster.isLocalShard(shardIndex)) {
+                throw new IllegalStateException(String.format(
+                        "Shard %d is not served by the node %d", shardIndex, cluster.getNodeIndex()));
+            }
+
+            accountRepo.saveNewAccount(new Account(accountId));
+        }
+
+        @Override
+        public void createAccounts(List<String> accountIds) {
+            var accountIdsByShard = accountIds.stream().collect(Collectors.groupingBy(AccountService::getShardIndex));
+            accountIdsByShard.forEach((shardIndex, shardAccountIds) -> {
+                if (!cluster.isLocalShard(shardIndex)) {
+                    throw new IllegalStateException(String.format(
+                            "Shard %d is not served by the node %d", shardIndex, cluster.getNodeIndex()));
+                }
+            });
+
+            accountIdsByShard.values().forEach(AccountService.this::saveNewAccounts);
+        }
+
+        @Override
+        public Set<String> getAccounts() {
+            return accountRepo.findAllAccount();
+        }
+
+        @Override
+        public boolean accountExists(String accountId) {
+            return accountRepo.findAccount(accountId) != null;
+        }
+
+        @Override
+        public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+            accountRepo.saveSplitAccount(accountId, subAccountIds);
+        }
+
+        @Override
+        public LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit) {
+            return ledgerRepo.findEntries(accountId, fromTs, toTs, cursor, limit);
+        }
+
+        @Override
+        public BigDecimal getBalanceAt(String accountId, long ts) {
+            return ledgerRepo.findBalanceAt(accountId, ts);
+        }
+
+        @Override
+        public BalanceTotals getTotals() {
+            return getLocalTotals();
+        }
+    }
+
+    //endregion
 }
@@ -0,0 +1,145 @@
+package ru.mt;
+
+import lombok.RequiredArgsConstructor;
+import ru.mt.app.Component;
+import ru.mt.utils.Processor;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follower replica of a shard: applies the changes of the available balances committed by the AccountBalanceManager
+ * on its own thread in the same order, and serves the balance reads which accept bounded staleness,
+ * so that they don't wait in the shard queue behind the transfers.
+ * <p>
+ * The changes are deltas, so the follower knows the balance of an account only after the shard has read it
+ * (the read is streamed as a snapshot of the balance). If the follower lags too far behind and its queue overflows,
+ * the changes are dropped, and then the follower forgets all the balances and starts collecting them again.
+ */
+class BalanceFollower extends Component {
+    private static final int QUEUE_CAPACITY = 100_000;
+
+    @RequiredArgsConstructor
+    private static class Change {
+        /**
+         * null: forget all the balances
+         */
+        final String accountId;
+        final BigDecimal amount;
+        final boolean snapshot;
+        final long committedNanos = System.nanoTime();
+    }
+
+    /**
+     * A change stays in the queue until it is applied, so the oldest change in the queue defines the lag
+     */
+    private final BlockingQueue<Change> changes = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Semaphore changeCount = new Semaphore(0);
+    /**
+     * Written only by the follower thread
+     */
+    private final Map<String, BigDecimal> availableBalances = new ConcurrentHashMap<>();
+    /**
+     * Some changes were dropped, so the balances must be reset. Used only by the shard thread
+     */
+    private boolean overflowed = false;
+    private final Processor changeProcessor;
+
+    BalanceFollower(int shardIndex, int followerIndex) {
+        changeProcessor = new Processor(String.format("abm-%04d-follower-%d", shardIndex, followerIndex),
+                this::applyNextChange);
+        changeProcessor.start();
+    }
+
+    @Override
+    protected void destroyInternal() {
+        changeProcessor.stop();
+    }
+
+    //region Shard side
+
+    /**
+     * Streams the available balance the shard has just read
+     */
+    void publishSnapshot(String accountId, BigDecimal availableBalance) {
+        publish(new Change(accountId, availableBalance, true));
+    }
+
+    /**
+     * Streams the committed change of the available balance
+     */
+    void publishChange(String accountId, BigDecimal delta) {
+        publish(new Change(accountId, delta, false));
+    }
+
+    private void publish(Change change) {
+        if (overflowed) {
+            if (!offer(new Change(null, null, true))) {
+                return;
+            }
+            overflowed = false;
+        }
+
+        if (!offer(change)) {
+            overflowed = true;
+        }
+    }
+
+    private boolean offer(Change change) {
+        if (!changes.offer(change)) {
+            return false;
+        }
+
+        changeCount.release();
+        return true;
+    }
+
+    //endregion
+
+    //region Follower side
+
+    private void applyNextChange() throws InterruptedException {
+        if (!changeCount.tryAcquire(1, TimeUnit.SECONDS)) {
+            return;
+        }
+
+        var change = changes.peek();
+        if (change.accountId == null) {
+            availableBalances.clear();
+        } else if (change.snapshot) {
+            availableBalances.put(change.accountId, change.amount);
+        } else {
+            // the balance is unknown until the shard reads it
+            availableBalances.computeIfPresent(change.accountId, (accountId, balance) -> balance.add(change.amount));
+        }
+        changes.poll();
+    }
+
+    /**
+     * @return time since the oldest change which is not applied yet (0 if the follower is up to date)
+     */
+    long getLagNanos() {
+        var oldestChange = changes.peek();
+        return oldestChange == null ? 0 : System.nanoTime() - oldestChange.committedNanos;
+    }
+
+    /**
+     * @param maxStalenessMillis how long ago the changes which the balance may miss could be committed
+     * @return the available balance or null if the balance is unknown or the follower lags behind too far
+     */
+    BigDecimal findAvailableBalance(String accountId, long maxStalenessMillis) {
+        // the lag is checked first: a balance read after that is at least as fresh
+        if (getLagNanos() > TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis)) {
+            return null;
+        }
+
+        return availableBalances.get(accountId);
+    }
+
+    //endregion
+}
@@ -4,16 +4,38 @@ import lombok.extern.log4j.Log4j2;
 import ru.mt.app.Component;
 import ru.mt.app.Configuration;
 import ru.mt.data.TransactionRepository;
+import ru.mt.data.TransactionStatusWriter;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerPage;
+import ru.mt.domain.ReservationStatus;
 import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionPage;
 import ru.mt.domain.TransactionStatus;
+import ru.mt.errors.MoneyTransferAccountsException;
 import ru.mt.errors.MoneyTransferException;
+import ru.mt.errors.MoneyTransferOverloadException;
 import ru.mt.errors.MoneyTransferTransactionException;
 import ru.mt.errors.MoneyTransferValidationException;
-import ru.mt.utils.CountdownTimer;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.Histogram;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Deadline;
 import ru.mt.utils.Processor;
+import ru.mt.utils.TimeUtils;
+import ru.mt.utils.WaitStrategy;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 /**
  * Обработчик транзакций по переводу денег.
@@ -22,19 +44,23 @@ import java.util.Set;
 public class MoneyTransferService extends Component {
     private final AccountService accountService;
     private final TransactionRepository transactionRepo;
+    private final TransactionStatusWriter transactionStatusWriter;
 
 
     public MoneyTransferService() {
         accountService = Configuration.getComponent(AccountService.class);
         transactionRepo = Configuration.getComponent(TransactionRepository.class);
+        transactionStatusWriter = new TransactionStatusWriter();
 
         initCashDesk();
+        initMetrics();
         startTransactionProcessing();
     }
 
     @Override
     protected void destroyInternal() {
         stopTransactionProcessing();
+        transactionStatusWriter.destroy();
     }
 
     //region cash desk
@@ -44,25 +70,96 @@ public class MoneyTransferService extends Component {
      */
     private static final BigDecimal CASH_DESK_INIT_BALANCE = new BigDecimal(1_000_000_000_000_000L);
     /**
-     * Технический счет для денег, которые приняты в кассе для зачисления на счет
+     * Технические счета для денег, которые приняты в кассе для зачисления на счет.
+     * Касса разбита на под-счета по одному на шарду (index = shard index), чтобы внесение денег на счет
+     * выполнялось в той же шарде, что и счет клиента, и не упиралось в один общий счет кассы.
      */
-    private String cashDeskInAccountId;
+    private final List<String> cashDeskInAccountIds = new ArrayList<>();
     /**
-     * Технический счет для денег, которые выданы в кассе со счета
+     * Технические счета для денег, которые выданы в кассе со счета (index = shard index)
      */
-    private String cashDeskOutAccountId;
-    // todo: сделать API для получения баланса тех. счетов.
+    private final List<String> cashDeskOutAccountIds = new ArrayList<>();
+    /**
+     * Все технические счета кассы
+     */
+    private final Set<String> cashDeskAccountIds = new HashSet<>();
+    /**
+     * Сумма начальных балансов счетов кассы для приема денег
+     */
+    private BigDecimal cashDeskInitBalance = BigDecimal.ZERO;
 
     private void initCashDesk() {
-        cashDeskInAccountId = accountService.createNewAccount();
-        cashDeskOutAccountId = accountService.createNewAccount();
+        var stripeCount = accountService.getShardCount();
+        var stripeInitBalance = CASH_DESK_INIT_BALANCE.divide(BigDecimal.valueOf(stripeCount), 2, RoundingMode.DOWN);
+
+        for (int i = 0; i < stripeCount; i++) {
+            var inAccountId = accountService.createNewAccountOnShard(i);
+            var outAccountId = accountService.createNewAccountOnShard(i);
+            cashDeskInAccountIds.add(inAccountId);
+            cashDeskOutAccountIds.add(outAccountId);
+            cashDeskInitBalance = cashDeskInitBalance.add(stripeInitBalance);
+
+            // счет для денег, которые принимаем в кассе, устанавливаем в макс. значение, т.е.
+            // не ограничиваем кол-во денег "вне системы"
+            var result = accountService.issueMoney(inAccountId, stripeInitBalance);
+            if (result.hasError()) {
+                throw new IllegalStateException("Cash desk accounts initialization error: " + result.getErrorMessage());
+            }
+        }
+
+        cashDeskAccountIds.addAll(cashDeskInAccountIds);
+        cashDeskAccountIds.addAll(cashDeskOutAccountIds);
+    }
+
+    /**
+     * @return the cash desk "in" account in the same shard as the account
+     */
+    private String getCashDeskInAccountId(String accountId) {
+        return cashDeskInAccountIds.get(AccountService.getShardIndex(accountId));
+    }
+
+    /**
+     * @return the cash desk "out" account in the same shard as the account
+     */
+    private String getCashDeskOutAccountId(String accountId) {
+        return cashDeskOutAccountIds.get(AccountService.getShardIndex(accountId));
+    }
 
-        // счет для денег, которые принимаем в кассе, устанавливаем в макс. значение, т.е.
-        // не ограничиваем кол-во денег "вне системы"
-        var result = accountService.addAmount(cashDeskInAccountId, null, CASH_DESK_INIT_BALANCE);
+    /**
+     * Saves the deposit/withdraw transaction into the ledger with the final status got from the call result
+     *
+     * @throws MoneyTransferTransactionException if the transaction is not DONE
+     */
+    private void completeCashDeskTransaction(Transaction transaction, AccountBalanceCallResult result)
+            throws MoneyTransferTransactionException {
+
+        TransactionStatus status;
+        String reason = null;
         if (result.hasError()) {
-            throw new IllegalStateException("Cash desk accounts initialization error: " + result.getErrorMessage());
+            status = TransactionStatus.ERROR;
+            reason = result.getErrorMessage();
+        } else if (result.getReservationStatus() == ReservationStatus.DENIED) {
+            status = TransactionStatus.DENIED;
+            reason = result.getReservationReason();
+        } else {
+            status = TransactionStatus.DONE;
         }
+
+        transactionRepo.saveProcessedTransaction(transaction, status, reason);
+        completedCounters[status.ordinal()].inc();
+
+        if (status != TransactionStatus.DONE) {
+            throw new MoneyTransferTransactionException(transaction.getId(), status.setReason(reason));
+        }
+    }
+
+    private BigDecimal getTotalBalance(List<String> accountIds) throws MoneyTransferException {
+        var total = BigDecimal.ZERO;
+        for (var accountId : accountIds) {
+            total = total.add(getAccountBalance(accountId));
+        }
+
+        return total;
     }
 
     //endregion
@@ -73,8 +170,7 @@ public class MoneyTransferService extends Component {
         var accounts = accountService.getAccounts();
 
         // удалим технические счета
-        accounts.remove(cashDeskInAccountId);
-        accounts.remove(cashDeskOutAccountId);
+        accounts.removeAll(cashDeskAccountIds);
 
         return accounts;
     }
@@ -83,8 +179,76 @@ public class MoneyTransferService extends Component {
         return accountService.createNewAccount();
     }
 
+    /**
+     * Creates the accounts in bulk (e.g. by an onboarding job). The opening balances are put through the cash desk
+     * by one deposit call per shard instead of a deposit per account, but every deposit is a transaction of its own.
+     *
+     * @param balance the opening balance of every account or null
+     * @return ids of the created accounts
+     * @throws MoneyTransferAccountsException if the deposits into some accounts failed, with all the created ids
+     */
+    public List<String> createNewAccounts(int count, BigDecimal balance) throws MoneyTransferException {
+        if (count < 1 || count > NEW_ACCOUNTS_MAX_COUNT) {
+            throw new MoneyTransferValidationException(String.format(
+                    "The count of accounts must be from 1 to %d; count: %d", NEW_ACCOUNTS_MAX_COUNT, count));
+        }
+        if (balance != null) {
+            validateAmount(balance);
+        }
+
+        var accountIdsByShard = accountService.createNewAccounts(count);
+        var accountIds = accountIdsByShard.stream().flatMap(List::stream).collect(Collectors.toList());
+        if (balance == null) {
+            return accountIds;
+        }
+
+        var transactionsByShard = new ArrayList<List<Transaction>>(accountIdsByShard.size());
+        var transactionIdsByShard = new ArrayList<List<String>>(accountIdsByShard.size());
+        for (int i = 0; i < accountIdsByShard.size(); i++) {
+            var transactions = new ArrayList<Transaction>(accountIdsByShard.get(i).size());
+            for (var accountId : accountIdsByShard.get(i)) {
+                transactions.add(new Transaction(
+                        cashDeskInAccountIds.get(i), accountId, balance, TransactionStatus.CREATED));
+            }
+            transactionsByShard.add(transactions);
+            transactionIdsByShard.add(transactions.stream().map(Transaction::getId).collect(Collectors.toList()));
+        }
+
+        var results = accountService.depositBatch(
+                accountIdsByShard, cashDeskInAccountIds, transactionIdsByShard, balance).iterator();
+        var unfundedAccountIds = new ArrayList<String>();
+        String errorMessage = null;
+        for (var transactions : transactionsByShard) {
+            if (transactions.isEmpty()) {
+                continue;
+            }
+
+            var result = results.next();
+            var status = TransactionStatus.DONE;
+            if (result.hasError()) {
+                errorMessage = result.getErrorMessage();
+                status = TransactionStatus.ERROR;
+            }
+            // the transactions of the shard are saved by one batch
+            transactionRepo.saveProcessedTransactions(transactions, status, result.getErrorMessage());
+            completedCounters[status.ordinal()].add(transactions.size());
+            if (status != TransactionStatus.DONE) {
+                for (var transaction : transactions) {
+                    unfundedAccountIds.add(transaction.getAccountIdTo());
+                }
+            }
+        }
+
+        if (!unfundedAccountIds.isEmpty()) {
+            throw new MoneyTransferAccountsException(
+                    "Opening balances deposit error: " + errorMessage, accountIds, unfundedAccountIds);
+        }
+        return accountIds;
+    }
+
     public BigDecimal getAccountBalance(String accountId) throws MoneyTransferException {
         validateAccount(accountId);
+        checkShardAdmission(accountId);
 
         var result = accountService.getAccountBalance(accountId);
         if (result.hasError()) {
@@ -94,20 +258,180 @@ public class MoneyTransferService extends Component {
         return result.getAmount();
     }
 
+    /**
+     * Multi-get of the available balances by one call per shard instead of one call per account
+     *
+     * @return balances in the order of the account ids
+     */
+    public List<BigDecimal> getAccountBalances(List<String> accountIds) throws MoneyTransferException {
+        if (accountIds.isEmpty() || accountIds.size() > BALANCES_MAX_ACCOUNT_COUNT) {
+            throw new MoneyTransferValidationException(String.format(
+                    "The count of accounts must be from 1 to %d; count: %d",
+                    BALANCES_MAX_ACCOUNT_COUNT, accountIds.size()));
+        }
+        for (var accountId : accountIds) {
+            validateAccount(accountId);
+            checkShardAdmission(accountId);
+        }
+
+        var result = accountService.getAccountBalances(accountIds);
+        if (result.hasError()) {
+            throw new MoneyTransferException("Getting account balances error: " + result.getErrorMessage());
+        }
+
+        var balances = result.getAmounts();
+        for (int i = 0; i < balances.size(); i++) {
+            if (balances.get(i) == null) {
+                throw new MoneyTransferException("Getting account balances error: Account not found: "
+                        + accountIds.get(i));
+            }
+        }
+
+        return balances;
+    }
+
+    /**
+     * Reads the balance from a follower replica of the shard if it is up to date within the staleness bound,
+     * otherwise from the shard itself
+     *
+     * @param maxStalenessMillis how long ago the changes which the balance may miss could be committed
+     */
+    public BigDecimal getAccountBalance(String accountId, long maxStalenessMillis) throws MoneyTransferException {
+        validateAccount(accountId);
+        if (maxStalenessMillis < 0) {
+            throw new MoneyTransferValidationException("The max staleness must not be negative: " + maxStalenessMillis);
+        }
+
+        var balance = accountService.findReplicatedBalance(accountId, maxStalenessMillis);
+        return balance != null ? balance : getAccountBalance(accountId);
+    }
+
+    /**
+     * @return totals of all the accounts including the technical ones
+     */
+    public BalanceTotals getTotals() {
+        return accountService.getTotals();
+    }
+
+    /**
+     * @param ts the time (ms)
+     * @return the booked balance of the account at the time (the reservations are not subtracted)
+     */
+    public BigDecimal getAccountBalanceAt(String accountId, long ts) throws MoneyTransferException {
+        validateAccount(accountId);
+        return accountService.getBalanceAt(accountId, ts);
+    }
+
+    /**
+     * Account statement: the balance changes in the time range, page by page.
+     * For the split account these are the changes of all its sub-balances with the total balance after each one.
+     *
+     * @param fromTs the first page starts from the first change at or after this time (ms)
+     * @param toTs   exclusive (ms)
+     * @param cursor the cursor returned with the previous page or -1 for the first page
+     */
+    public LedgerPage getAccountHistory(String accountId, long fromTs, long toTs, long cursor, int limit)
+            throws MoneyTransferException {
+
+        validateAccount(accountId);
+        if (limit < 1 || limit > HISTORY_MAX_PAGE_SIZE) {
+            throw new MoneyTransferValidationException(String.format(
+                    "The page size must be from 1 to %d; size: %d", HISTORY_MAX_PAGE_SIZE, limit));
+        }
+        if (cursor < -1) {
+            throw new MoneyTransferValidationException("Invalid cursor: " + cursor);
+        }
+
+        return accountService.getLedger(accountId, fromTs, toTs, cursor, limit);
+    }
+
+    /**
+     * Transactions registered by this node that match the filter, page by page in the order of registration.
+     * The query is answered by the repository indexes, e.g. the stuck transactions are
+     * the non-final ones created more than a few seconds ago.
+     *
+     * @param cursor the cursor returned with the previous page or -1 for the first page
+     */
+    public TransactionPage findTransactions(TransactionFilter filter, long cursor, int limit)
+            throws MoneyTransferException {
+
+        if (filter.getAccountId() != null) {
+            validateAccount(filter.getAccountId());
+        }
+        if (filter.getStatuses() != null && filter.getStatuses().isEmpty()) {
+            throw new MoneyTransferValidationException("The set of the statuses must not be empty");
+        }
+        if (limit < 1 || limit > HISTORY_MAX_PAGE_SIZE) {
+            throw new MoneyTransferValidationException(String.format(
+                    "The page size must be from 1 to %d; size: %d", HISTORY_MAX_PAGE_SIZE, limit));
+        }
+        if (cursor < -1) {
+            throw new MoneyTransferValidationException("Invalid cursor: " + cursor);
+        }
+
+        return transactionRepo.findTransactions(filter, cursor, limit);
+    }
+
     public void putMoneyIntoAccount(String accountId, BigDecimal amount) throws MoneyTransferException {
         validateAccount(accountId);
         validateAmount(amount);
 
-        var transactionId = registerNewTransaction(cashDeskInAccountId, accountId, amount);
-        waitTransactionCompleted(transactionId);
+        // money from outside of the system can never be short, so the saga is not required
+        var subAccountId = accountService.selectAnySubAccount(accountId);
+        // the call goes to the shard of the sub-balance, the cash desk account is in the same shard
+        checkShardAdmission(subAccountId);
+        var transaction = new Transaction(getCashDeskInAccountId(subAccountId), accountId, amount, TransactionStatus.CREATED);
+        var result = accountService.deposit(subAccountId, transaction.getAccountIdFrom(), transaction.getId(), amount);
+        completeCashDeskTransaction(transaction, result);
     }
 
     public void withdrawMoneyFromAccount(String accountId, BigDecimal amount) throws MoneyTransferException {
         validateAccount(accountId);
         validateAmount(amount);
 
-        var transactionId = registerNewTransaction(accountId, cashDeskOutAccountId, amount);
-        waitTransactionCompleted(transactionId);
+        // both accounts are in the same shard, so the money is reserved and debited by one call
+        var subAccountId = accountService.selectAnySubAccount(accountId);
+        // the call goes to the shard of the sub-balance, the cash desk account is in the same shard
+        checkShardAdmission(subAccountId);
+        var transaction = new Transaction(accountId, getCashDeskOutAccountId(subAccountId), amount, TransactionStatus.CREATED);
+        var result = accountService.withdraw(
+                accountId, subAccountId, transaction.getAccountIdTo(), transaction.getId(), amount);
+        completeCashDeskTransaction(transaction, result);
+    }
+
+    /**
+     * Splits the hot account into sub-balances on different shards, see {@link AccountService#splitAccount}
+     *
+     * @param count count of the sub-balances
+     */
+    public void splitAccount(String accountId, int count) throws MoneyTransferException {
+        validateAccount(accountId);
+        if (count < 2 || count > accountService.getShardCount()) {
+            throw new MoneyTransferValidationException(String.format(
+                    "The sub-account count must be from 2 to %d; count: %d", accountService.getShardCount(), count));
+        }
+        if (cashDeskAccountIds.contains(accountId)) {
+            throw new MoneyTransferValidationException("The technical account cannot be split: " + accountId);
+        }
+
+        if (!accountService.splitAccount(accountId, count)) {
+            throw new MoneyTransferException("The account not found or already split: " + accountId);
+        }
+    }
+
+    /**
+     * @return total amount of money that was put into the accounts through the cash desk
+     * (including the amounts of the transactions in progress)
+     */
+    public BigDecimal getCashDeskDepositedAmount() throws MoneyTransferException {
+        return cashDeskInitBalance.subtract(getTotalBalance(cashDeskInAccountIds));
+    }
+
+    /**
+     * @return total amount of money that was withdrawn from the accounts through the cash desk
+     */
+    public BigDecimal getCashDeskWithdrawnAmount() throws MoneyTransferException {
+        return getTotalBalance(cashDeskOutAccountIds);
     }
 
     public void transferMoney(String accountIdFrom, String accountIdTo, BigDecimal amount) throws MoneyTransferException {
@@ -117,6 +441,7 @@ public class MoneyTransferService extends Component {
             throw new MoneyTransferValidationException("From and To accounts must be different");
         }
         validateAmount(amount);
+        checkShardAdmission(accountIdFrom, accountIdTo);
 
         var transactionId = registerNewTransaction(accountIdFrom, accountIdTo, amount);
         waitTransactionCompleted(transactionId);
@@ -133,6 +458,18 @@ public class MoneyTransferService extends Component {
      * Значение 2 означает, что разрешены суммы вида N, N.M, N.MM, и запрещены вида N.MM...M, где кол-во M > 2
      */
     private static final int AMOUNT_MAX_SCALE = 2;
+    /**
+     * Max count of the entries in a page of the account history (and of the transactions query)
+     */
+    static final int HISTORY_MAX_PAGE_SIZE = 1000;
+    /**
+     * Max count of the accounts in one multi-get of the balances
+     */
+    static final int BALANCES_MAX_ACCOUNT_COUNT = 1000;
+    /**
+     * Max count of the accounts created by one request
+     */
+    static final int NEW_ACCOUNTS_MAX_COUNT = 100_000;
 
 
     private static void validateAccount(String accountId) throws MoneyTransferValidationException {
@@ -165,16 +502,71 @@ public class MoneyTransferService extends Component {
 
     //endregion
 
+    //region Admission control
+
+    /**
+     * Max count of transactions waiting for processing when new transactions are still accepted
+     */
+    private final int transactionMaxQueueDepth = Integer.getInteger("mt.admission.transactions.maxQueueDepth", 10_000);
+    /**
+     * Max estimated waiting time of a new transaction in the queue (5 sec by default)
+     */
+    private final long transactionMaxEstimatedWaitNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("mt.admission.transactions.maxWaitMillis", 5_000));
+
+    private Counter shardRejectedCounter;
+    private Counter transactionRejectedCounter;
+
+    /**
+     * Rejects new work if any of the shards of the accounts is saturated
+     */
+    private void checkShardAdmission(String... accountIds) throws MoneyTransferOverloadException {
+        for (var accountId : accountIds) {
+            var retryAfterMillis = accountService.checkShardAdmission(accountId);
+            if (retryAfterMillis > 0) {
+                shardRejectedCounter.inc();
+                throw new MoneyTransferOverloadException("Account shard is overloaded", retryAfterMillis);
+            }
+        }
+    }
+
+    /**
+     * Rejects new transactions if the transaction queue is saturated
+     */
+    private void checkTransactionAdmission() throws MoneyTransferOverloadException {
+        var queueSize = transactionRepo.getQueueSize();
+        var estimatedWaitNanos = queueSize * avgTransactionNanos;
+
+        if (queueSize >= transactionMaxQueueDepth || estimatedWaitNanos >= transactionMaxEstimatedWaitNanos) {
+            rejectTransaction(estimatedWaitNanos);
+        }
+    }
+
+    private void rejectTransaction(long estimatedWaitNanos) throws MoneyTransferOverloadException {
+        transactionRejectedCounter.inc();
+        throw new MoneyTransferOverloadException("Transaction queue is overloaded",
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(estimatedWaitNanos)));
+    }
+
+    //endregion
+
     //region Transaction registration and waiting completion
 
     /**
-     * Max waiting transaction final status timeout (60 sec)
+     * Max waiting transaction final status timeout (60 sec), the request deadline shortens it
      */
     private static final int TRANSACTION_COMPLETE_TIMEOUT = 60_000;
 
-    private String registerNewTransaction(String accountIdFrom, String accountIdTo, BigDecimal amount) {
+    private String registerNewTransaction(String accountIdFrom, String accountIdTo, BigDecimal amount)
+            throws MoneyTransferOverloadException {
+
+        checkTransactionAdmission();
+
         var transaction = new Transaction(accountIdFrom, accountIdTo, amount, TransactionStatus.CREATED);
-        transactionRepo.saveNewTransaction(transaction);
+        if (!transactionRepo.saveNewTransaction(transaction)) {
+            rejectTransaction(transactionRepo.getQueueSize() * avgTransactionNanos);
+        }
+
         return transaction.getId();
     }
 
@@ -193,36 +585,77 @@ public class MoneyTransferService extends Component {
         }
     }
 
+    /**
+     * @param deadline deadline of the request or Deadline.NONE
+     * @return how long to wait for the transaction final status (ms): not longer than the request waits for it
+     */
+    static long getTransactionWaitMillis(long deadline) {
+        if (deadline == Deadline.NONE) {
+            return TRANSACTION_COMPLETE_TIMEOUT;
+        }
+        return Math.max(0, Math.min(TRANSACTION_COMPLETE_TIMEOUT, deadline - TimeUtils.getTimestamp()));
+    }
+
     private TransactionStatus waitTransactionFinalStatus(String transactionId) {
         log.debug("start waiting for the transaction final status: " + transactionId);
 
-        CountdownTimer timer = new CountdownTimer(TRANSACTION_COMPLETE_TIMEOUT);
-        var currentStatus = TransactionStatus.CREATED;
+        try {
+            var status = transactionRepo.getFinalTransactionStatus(transactionId)
+                    .get(getTransactionWaitMillis(Deadline.current()), TimeUnit.MILLISECONDS);
+            log.debug("Transaction (id={}) completed: {}", transactionId, status);
+            return status;
 
-        while (!Thread.currentThread().isInterrupted() && !isDestroying()) {
-            log.debug("checking transaction status: " + transactionId);
+        } catch (TimeoutException e) {
+            return TransactionStatus.ERROR.setReason("Transaction not completed in an appropriate time");
 
-            try {
-                var newStatus = transactionRepo.waitForNewTransactionStatus(
-                        transactionId, currentStatus, 1000);
-                log.debug("Transaction (id={}) status changed: {}", transactionId, newStatus);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Waiting for transaction final status was interrupted: " + transactionId);
 
-                if (newStatus.isFinal()) {
-                    return newStatus;
-                }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Waiting for transaction final status failed: " + transactionId, e.getCause());
+        }
+    }
 
-                currentStatus = newStatus;
-                // go to the next iteration
-            } catch (InterruptedException e) {
-                break;
-            }
+    //endregion
+
+    //region Metrics
 
-            if (timer.isTimeOver()) {
-                return TransactionStatus.ERROR.setReason("Transaction not completed in an appropriate time");
+    /**
+     * Metrics by transaction status (index = TransactionStatus.ordinal()):
+     * step latency - for the non-final statuses, completed transactions count - for the final ones
+     */
+    private final Histogram[] stepHistograms = new Histogram[TransactionStatus.values().length];
+    private final Counter[] completedCounters = new Counter[TransactionStatus.values().length];
+    private Histogram transactionHistogram;
+    private Counter expiredCounter;
+    private Counter coalescedCounter;
+
+    private void initMetrics() {
+        MetricsRegistry metrics = Configuration.getComponent(MetricsRegistry.class);
+
+        metrics.gauge("mt_transaction_queue_depth", "Count of transactions waiting for processing",
+                transactionRepo::getQueueSize);
+        transactionHistogram = metrics.histogram("mt_transaction_seconds",
+                "Transaction processing time from the first step to the final status");
+        expiredCounter = metrics.counter("mt_transactions_expired_total",
+                "Count of transactions not started because their deadline had passed");
+        coalescedCounter = metrics.counter("mt_coalesced_reservations_total",
+                "Count of transactions reserved by a multi-reservation call together with others of the same account");
+        shardRejectedCounter = metrics.counter("mt_admission_rejected_total",
+                "Count of requests rejected by admission control", "reason", "shard");
+        transactionRejectedCounter = metrics.counter("mt_admission_rejected_total",
+                "Count of requests rejected by admission control", "reason", "transactions");
+
+        for (var status : TransactionStatus.values()) {
+            if (status.isFinal()) {
+                completedCounters[status.ordinal()] = metrics.counter("mt_transactions_total",
+                        "Count of processed transactions by the final status", "status", status.name());
+            } else {
+                stepHistograms[status.ordinal()] = metrics.histogram("mt_saga_step_seconds",
+                        "Saga step execution time by the state the step starts from", "state", status.name());
             }
         }
-
-        throw new RuntimeException("Waiting for transaction final status was interrupted: " + transactionId);
     }
 
     //endregion
@@ -231,6 +664,15 @@ public class MoneyTransferService extends Component {
 
     //todo: пока один процессор, но можно сделать несколько, чтобы каждый обрабатывал свою партицию транзакций
     private Processor transactionProcessor;
+    /**
+     * How the transaction processor waits for the transactions (mt.processor.transactions.waitStrategy)
+     */
+    private final WaitStrategy waitStrategy = WaitStrategy.fromProperty("mt.processor.transactions.waitStrategy");
+    /**
+     * Exponentially weighted moving average of the transaction processing time (ns).
+     * Written only by the transaction processor thread.
+     */
+    private volatile long avgTransactionNanos = 0;
 
     private void startTransactionProcessing() {
         transactionProcessor = new Processor("transactions", this::processTransactions);
@@ -241,26 +683,112 @@ public class MoneyTransferService extends Component {
         transactionProcessor.stop();
     }
 
+    /**
+     * Max count of the queued transactions taken by the processor at once
+     */
+    private static final int TRANSACTION_BATCH_MAX_SIZE = 64;
+
     private void processTransactions() throws InterruptedException {
         log.debug("getting next transaction...");
-        var transaction = transactionRepo.getNextTransaction(1000);
+        var transaction = waitStrategy.poll(transactionRepo::getNextTransaction, 1000);
         if (transaction == null) {
             return;
         }
 
-        log.debug("process transaction: " + transaction);
-        processTransaction(transaction);
+        // the transactions that are already queued are taken without waiting
+        var transactions = new ArrayList<Transaction>();
+        transactions.add(transaction);
+        while (transactions.size() < TRANSACTION_BATCH_MAX_SIZE) {
+            var next = transactionRepo.getNextTransaction(0);
+            if (next == null) {
+                break;
+            }
+            transactions.add(next);
+        }
 
-        transactionRepo.commitTransactionHasBeenProcessed(transaction.getId());
+        var runStart = 0;
+        while (runStart < transactions.size()) {
+            var runEnd = getCoalescedRunEnd(transactions, runStart);
+            var reservations = runEnd - runStart > 1
+                    ? reserveCoalesced(transactions.subList(runStart, runEnd))
+                    : null;
+
+            for (int i = runStart; i < runEnd; i++) {
+                var nextTransaction = transactions.get(i);
+                log.debug("process transaction: " + nextTransaction);
+                // the calls of the transaction carry its deadline
+                Deadline.set(nextTransaction.getDeadline());
+                try {
+                    processTransaction(nextTransaction, reservations == null ? null : reservations.get(i - runStart));
+                } finally {
+                    Deadline.clear();
+                }
+
+                transactionRepo.commitTransactionHasBeenProcessed(nextTransaction.getId());
+            }
+            runStart = runEnd;
+        }
     }
 
-    private void processTransaction(Transaction transaction) {
+    /**
+     * @return end (exclusive) of the run of the new transactions of the same account 'From' that starts at the index,
+     * or the next index if the transaction is not a new one
+     */
+    private static int getCoalescedRunEnd(List<Transaction> transactions, int start) {
+        var first = transactions.get(start);
+        if (!isCoalescable(first)) {
+            return start + 1;
+        }
+
+        var end = start + 1;
+        while (end < transactions.size() && isCoalescable(transactions.get(end))
+                && transactions.get(end).getAccountIdFrom().equals(first.getAccountIdFrom())) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isCoalescable(Transaction transaction) {
+        return transaction.getStatus() == TransactionStatus.CREATED && !Deadline.isExpired(transaction.getDeadline());
+    }
+
+    /**
+     * Reserves the amounts of the consecutive new transactions of the same account 'From' by one call,
+     * so that the hot account is not asked for the available balance by every transaction.
+     * Only the consecutive transactions are coalesced and they are reserved right before they are processed,
+     * so the reservations keep the order of the transactions and are not held while the others are processed.
+     *
+     * @return reservation results in the order of the transactions
+     */
+    private List<AccountBalanceCallResult> reserveCoalesced(List<Transaction> accountTransactions) {
+        var accountId = accountTransactions.get(0).getAccountIdFrom();
+        var transactionIds = accountTransactions.stream().map(Transaction::getId).collect(Collectors.toList());
+        var amounts = accountTransactions.stream().map(Transaction::getAmount).collect(Collectors.toList());
+        // the call is needed while any of the transactions waits for it
+        Deadline.set(accountTransactions.stream().mapToLong(Transaction::getDeadline).max().getAsLong());
+        try {
+            var results = accountService.reserveAmounts(accountId, transactionIds, amounts);
+            coalescedCounter.add(transactionIds.size());
+            return results;
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    /**
+     * @param reservation the result of the reservation made before for the new transaction or null
+     */
+    private void processTransaction(Transaction transaction, AccountBalanceCallResult reservation) {
         var currentStatus = transaction.getStatus();
+        var startNanos = System.nanoTime();
 
         while (true) {
+            var stepStartNanos = System.nanoTime();
+            var stepHistogram = stepHistograms[currentStatus.ordinal()];
+
             switch (currentStatus) {
                 case CREATED: // новая транзакция
-                    currentStatus = processCREATED(transaction);
+                    currentStatus = processCREATED(transaction, reservation);
                     break;
 
                 case RESERVED: // деньги зарезервированы у счета From
@@ -278,20 +806,44 @@ public class MoneyTransferService extends Component {
                 case DONE:
                 case DENIED:
                 case ERROR:
+                    var transactionNanos = System.nanoTime() - startNanos;
+                    transactionHistogram.record(transactionNanos);
+                    // alpha = 1/16
+                    avgTransactionNanos += (transactionNanos - avgTransactionNanos) >> 4;
+                    completedCounters[currentStatus.ordinal()].inc();
                     return;
 
                 default:
                     throw new IllegalStateException("Unexpected transaction status: " + currentStatus);
             }
 
-            transactionRepo.updateTransactionStatus(transaction.getId(), currentStatus);
+            stepHistogram.recordSince(stepStartNanos);
+            // the statuses are written by batches asynchronously
+            transactionStatusWriter.updateTransactionStatus(transaction.getId(), currentStatus);
         }
     }
 
-    private TransactionStatus processCREATED(Transaction transaction) {
+    private TransactionStatus processCREATED(Transaction transaction, AccountBalanceCallResult reservation) {
+        if (reservation != null) {
+            return getReservedStatus(reservation);
+        }
+
+        // nothing is reserved yet, so the expired transaction is completed without any call;
+        // the started saga is continued whatever its deadline is
+        if (Deadline.isExpired(transaction.getDeadline())) {
+            expiredCounter.inc();
+            return TransactionStatus.ERROR.setReason("The deadline has passed before the transaction was started");
+        }
+
         var result = accountService.reserveAmount(
                 transaction.getAccountIdFrom(), transaction.getId(), transaction.getAmount());
+        return getReservedStatus(result);
+    }
 
+    /**
+     * @return the transaction status after the reservation on the account 'From'
+     */
+    private static TransactionStatus getReservedStatus(AccountBalanceCallResult result) {
         if (result.hasError()) {
             return TransactionStatus.ERROR.setReason(result.getErrorMessage());
         }
@@ -303,7 +855,7 @@ public class MoneyTransferService extends Component {
 
             case DENIED:
             case CANCELED:
-                return TransactionStatus.DENIED.setReason(reservationStatus.getReason());
+                return TransactionStatus.DENIED.setReason(result.getReservationReason());
 
             case DEBITED:
                 // какой то сбой: деньги по транзакции уже списаны со счета account_from,
@@ -0,0 +1,89 @@
+package ru.mt;
+
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.app.Configuration;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Processor;
+
+/**
+ * Checks in the background that the money is conserved: the totals of all the accounts (including the cash desk
+ * accounts) must match the money supply. The shards are read one by one, so every check reads the totals twice:
+ * if nothing changed between the reads (the change counts are equal), the totals are a consistent snapshot
+ * and are checked exactly, i.e. with no reservation open the balance must be equal to the supply.
+ * Otherwise a transfer step between the reads of the shards may show a divergence which does not exist,
+ * so the divergence is reported only if the immediate re-read shows it too. The trade-off: the divergence
+ * is reported by the first check which sees it (one check interval) instead of after several checks,
+ * but under load a transfer step may rarely hit both reads and raise a false alert, which is cleared
+ * by the next check.
+ */
+@Log4j2
+public class TotalsMonitor extends Component {
+    private static final int CHECK_INTERVAL = 1000;
+
+    private final AccountService accountService;
+    private final Processor checkProcessor;
+    private Counter divergenceCounter;
+    private volatile boolean moneyConserved = true;
+
+    public TotalsMonitor() {
+        accountService = Configuration.getComponent(AccountService.class);
+
+        initMetrics();
+        checkProcessor = new Processor("totals-monitor", this::checkTotals);
+        checkProcessor.start();
+    }
+
+    @Override
+    protected void destroyInternal() {
+        checkProcessor.stop();
+    }
+
+    private void initMetrics() {
+        MetricsRegistry metrics = Configuration.getComponent(MetricsRegistry.class);
+
+        metrics.gauge("mt_totals_money_conserved", "1 if the account totals match the money supply, otherwise 0",
+                () -> moneyConserved ? 1 : 0);
+        divergenceCounter = metrics.counter("mt_totals_divergence_total",
+                "Count of the detected divergences of the account totals from the money supply");
+    }
+
+    private void checkTotals() throws InterruptedException {
+        Thread.sleep(CHECK_INTERVAL);
+
+        BalanceTotals totals;
+        BalanceTotals rereadTotals;
+        try {
+            totals = accountService.getTotals();
+            rereadTotals = accountService.getTotals();
+        } catch (RuntimeException e) {
+            // e.g. a node of the cluster is not available
+            log.warn("Totals check failed: " + e.getMessage());
+            return;
+        }
+
+        boolean conserved;
+        if (totals.getChangeCount() == rereadTotals.getChangeCount()) {
+            conserved = rereadTotals.isMoneyConservedExactly();
+        } else {
+            conserved = totals.isMoneyConserved() || rereadTotals.isMoneyConserved();
+            totals = rereadTotals;
+        }
+
+        if (conserved) {
+            if (!moneyConserved) {
+                log.info("The account totals match the money supply again: " + totals);
+                moneyConserved = true;
+            }
+            return;
+        }
+
+        if (moneyConserved) {
+            log.error("The account totals diverged from the money supply: " + totals);
+            divergenceCounter.inc();
+            moneyConserved = false;
+        }
+    }
+}
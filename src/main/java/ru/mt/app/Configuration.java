@@ -4,22 +4,57 @@ import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import ru.mt.AccountService;
 import ru.mt.MoneyTransferService;
+import ru.mt.TotalsMonitor;
 import ru.mt.controller.MoneyTransferController;
 import ru.mt.data.AccountBalanceCallRepository;
 import ru.mt.data.AccountRepository;
+import ru.mt.data.LedgerRepository;
 import ru.mt.data.TransactionRepository;
 import ru.mt.data.inmemory.InMemoryAccountBalanceCallRepository;
 import ru.mt.data.inmemory.InMemoryAccountRepository;
+import ru.mt.data.inmemory.InMemoryLedgerRepository;
 import ru.mt.data.inmemory.InMemoryTransactionRepository;
+import ru.mt.data.jdbc.ConnectionPool;
+import ru.mt.data.jdbc.JdbcAccountBalanceCallRepository;
+import ru.mt.data.jdbc.JdbcAccountRepository;
+import ru.mt.data.jdbc.JdbcLedgerRepository;
+import ru.mt.data.jdbc.JdbcTransactionRepository;
+import ru.mt.data.mmap.MappedAccountBalanceCallRepository;
+import ru.mt.domain.CallLane;
 import ru.mt.errors.ConfigurationException;
-
-import java.util.HashMap;
+import ru.mt.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 @Log4j2
 public class Configuration {
-    private static Map<Class, Component> components = new HashMap<>();
+    /**
+     * Repository implementation: inmemory (default) or jdbc
+     */
+    private static final String REPOSITORY_PROPERTY = "mt.repository";
+    private static final String JDBC_DEFAULT_URL = "jdbc:h2:mem:mt;DB_CLOSE_DELAY=-1";
+    /**
+     * Directory of the memory-mapped shard call queues, if not set the call queues of the repository are used
+     */
+    private static final String CALL_QUEUE_DIR_PROPERTY = "mt.callqueue.dir";
+    /**
+     * Size of the call queue files of one shard, it is split equally between the lanes
+     */
+    private static final int CALL_QUEUE_DEFAULT_FILE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Components in the order of initialization
+     */
+    private static Map<Class, Component> components = new LinkedHashMap<>();
 
     static {
         initComponents();
@@ -45,14 +80,16 @@ public class Configuration {
         log.info("Initializing...");
 
         try {
+            // infrastructure
+            components.put(MetricsRegistry.class, new MetricsRegistry());
+
             // repositories
-            components.put(AccountRepository.class, new InMemoryAccountRepository());
-            components.put(AccountBalanceCallRepository.class, new InMemoryAccountBalanceCallRepository());
-            components.put(TransactionRepository.class, new InMemoryTransactionRepository());
+            initRepositories();
 
             // services
             components.put(AccountService.class, new AccountService());
             components.put(MoneyTransferService.class, new MoneyTransferService());
+            components.put(TotalsMonitor.class, new TotalsMonitor());
 
             // controller start-up only if not a testing
             components.put(MoneyTransferController.class, new MoneyTransferController());
@@ -64,10 +101,67 @@ public class Configuration {
         log.info("Initialization complete");
     }
 
+    private static void initRepositories() throws SQLException, IOException {
+        var repository = System.getProperty(REPOSITORY_PROPERTY, "inmemory");
+        log.info("Repository: " + repository);
+
+        switch (repository) {
+            case "inmemory":
+                components.put(AccountRepository.class, new InMemoryAccountRepository());
+                components.put(AccountBalanceCallRepository.class,
+                        createCallRepository(InMemoryAccountBalanceCallRepository::new));
+                components.put(TransactionRepository.class, new InMemoryTransactionRepository());
+                components.put(LedgerRepository.class, new InMemoryLedgerRepository());
+                break;
+
+            case "jdbc":
+                // a connection for each shard thread plus the transaction processor, status writer and requests
+                var pool = new ConnectionPool(
+                        System.getProperty("mt.jdbc.url", JDBC_DEFAULT_URL),
+                        System.getProperty("mt.jdbc.user", "sa"),
+                        System.getProperty("mt.jdbc.password", ""),
+                        Integer.getInteger("mt.jdbc.poolSize", AccountService.SHARD_COUNT + 4));
+                pool.executeScript("/db/schema.sql");
+
+                components.put(ConnectionPool.class, pool);
+                components.put(AccountRepository.class, new JdbcAccountRepository(pool));
+                components.put(AccountBalanceCallRepository.class,
+                        createCallRepository(() -> new JdbcAccountBalanceCallRepository(pool)));
+                components.put(TransactionRepository.class, new JdbcTransactionRepository(pool));
+                components.put(LedgerRepository.class, new JdbcLedgerRepository(pool));
+                break;
+
+            default:
+                throw new ConfigurationException("Unknown repository: " + repository);
+        }
+    }
+
+    private static Component createCallRepository(Supplier<Component> repositoryCallQueue) {
+        var callQueueDir = System.getProperty(CALL_QUEUE_DIR_PROPERTY);
+        if (callQueueDir == null) {
+            return repositoryCallQueue.get();
+        }
+
+        log.info("Call queue directory: " + callQueueDir);
+        var lanes = CallLane.values();
+        var laneFileSize = Integer.getInteger("mt.callqueue.fileSize", CALL_QUEUE_DEFAULT_FILE_SIZE) / lanes.length;
+        var laneFileSizes = new EnumMap<CallLane, Integer>(CallLane.class);
+        for (var lane : lanes) {
+            // e.g. mt.callqueue.fileSize.saga_step
+            laneFileSizes.put(lane,
+                    Integer.getInteger("mt.callqueue.fileSize." + lane.name().toLowerCase(), laneFileSize));
+        }
+        return new MappedAccountBalanceCallRepository(Paths.get(callQueueDir), laneFileSizes);
+    }
+
     private static void destroyComponents() {
         log.info("Destroying...");
 
-        var hasError = components.values()
+        // in the reverse order of initialization, so that components are destroyed before their dependencies
+        var componentList = new ArrayList<>(components.values());
+        Collections.reverse(componentList);
+
+        var hasError = componentList
                 .stream()
                 .map(component -> {
                     try {
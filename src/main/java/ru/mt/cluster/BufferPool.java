@@ -0,0 +1,57 @@
+package ru.mt.cluster;
+
+import ru.mt.codec.CallCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of direct buffers for encoding the frames, every buffer has its own codec.
+ * A buffer grows if a frame does not fit into it; it is shrunk back when it is returned if it became too big.
+ */
+class BufferPool {
+    private static final int BUFFER_SIZE = 4 * 1024;
+    private static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    static class PooledBuffer {
+        private ByteBuffer buffer;
+        final CallCodec codec = new CallCodec();
+
+        private PooledBuffer() {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * Replaces the buffer by the one of the double size, the content is lost
+         */
+        void grow() {
+            buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+        }
+    }
+
+    private final ConcurrentLinkedQueue<PooledBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return the cleared buffer
+     */
+    PooledBuffer acquire() {
+        var pooledBuffer = freeBuffers.poll();
+        if (pooledBuffer == null) {
+            return new PooledBuffer();
+        }
+
+        pooledBuffer.buffer.clear();
+        return pooledBuffer;
+    }
+
+    void release(PooledBuffer pooledBuffer) {
+        if (pooledBuffer.buffer.capacity() > MAX_POOLED_BUFFER_SIZE) {
+            pooledBuffer.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        freeBuffers.add(pooledBuffer);
+    }
+}
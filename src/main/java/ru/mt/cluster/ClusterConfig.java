@@ -0,0 +1,96 @@
+package ru.mt.cluster;
+
+import lombok.Getter;
+import ru.mt.errors.ConfigurationException;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static layout of the cluster: addresses of the nodes, index of this node and the shard map (shard -> node).
+ * It is read from the system properties:
+ * - mt.cluster.nodes: host:port of every node, comma separated
+ * (if it is not set, the node is alone and serves all the shards)
+ * - mt.cluster.nodeIndex: index of this node in the list
+ * - mt.cluster.shardMap: index of the node which serves the shard, for every shard, comma separated
+ * (by default the shard i is served by the node i % node count)
+ * All the nodes must have the same node list and shard map.
+ */
+public class ClusterConfig {
+    @Getter
+    private final List<InetSocketAddress> nodeAddresses;
+    @Getter
+    private final int nodeIndex;
+    private final int[] shardNodes;
+
+    ClusterConfig(List<InetSocketAddress> nodeAddresses, int nodeIndex, int[] shardNodes) {
+        if (nodeIndex < 0 || nodeIndex >= nodeAddresses.size()) {
+            throw new ConfigurationException("Invalid node index: " + nodeIndex);
+        }
+        for (var shardNode : shardNodes) {
+            if (shardNode < 0 || shardNode >= nodeAddresses.size()) {
+                throw new ConfigurationException("Invalid node index in the shard map: " + shardNode);
+            }
+        }
+
+        this.nodeAddresses = List.copyOf(nodeAddresses);
+        this.nodeIndex = nodeIndex;
+        this.shardNodes = shardNodes;
+    }
+
+    public static ClusterConfig fromSystemProperties(int shardCount) {
+        var nodes = System.getProperty("mt.cluster.nodes");
+        if (nodes == null || nodes.isBlank()) {
+            return new ClusterConfig(List.of(new InetSocketAddress(0)), 0, new int[shardCount]);
+        }
+
+        var nodeAddresses = new ArrayList<InetSocketAddress>();
+        for (var node : nodes.split(",")) {
+            var hostPort = node.trim().split(":");
+            if (hostPort.length != 2) {
+                throw new ConfigurationException("Invalid node address (host:port is expected): " + node);
+            }
+            nodeAddresses.add(new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1])));
+        }
+
+        var shardNodes = new int[shardCount];
+        var shardMap = System.getProperty("mt.cluster.shardMap");
+        if (shardMap == null || shardMap.isBlank()) {
+            for (int i = 0; i < shardCount; i++) {
+                shardNodes[i] = i % nodeAddresses.size();
+            }
+        } else {
+            var items = shardMap.split(",");
+            if (items.length != shardCount) {
+                throw new ConfigurationException(String.format(
+                        "The shard map must have %d items: %s", shardCount, shardMap));
+            }
+            for (int i = 0; i < shardCount; i++) {
+                shardNodes[i] = Integer.parseInt(items[i].trim());
+            }
+        }
+
+        return new ClusterConfig(nodeAddresses, Integer.getInteger("mt.cluster.nodeIndex", 0), shardNodes);
+    }
+
+    public boolean isClustered() {
+        return nodeAddresses.size() > 1;
+    }
+
+    public int getNodeCount() {
+        return nodeAddresses.size();
+    }
+
+    public int getShardNode(int shardIndex) {
+        return shardNodes[shardIndex];
+    }
+
+    public boolean isLocalShard(int shardIndex) {
+        return shardNodes[shardIndex] == nodeIndex;
+    }
+
+    public InetSocketAddress getNodeAddress(int nodeIndex) {
+        return nodeAddresses.get(nodeIndex);
+    }
+}
@@ -0,0 +1,143 @@
+package ru.mt.cluster;
+
+import ru.mt.codec.CallCodec;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Length-prefixed frames over a socket channel: [int length][long correlation id][byte type][payload],
+ * where the length is the size of the frame after it.
+ * Any thread can write a frame: it is encoded into a pooled direct buffer and written under the lock,
+ * so the frames of concurrent requests are pipelined through one connection.
+ * Frames are read by one thread into the direct buffer of the channel and decoded in place.
+ */
+class FrameChannel implements Closeable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    interface PayloadWriter {
+        void write(CallCodec codec, ByteBuffer buffer);
+    }
+
+    interface FrameHandler {
+        /**
+         * @param payload the buffer positioned at the payload and limited by its end, valid only during the call
+         */
+        void handle(long correlationId, byte type, CallCodec codec, ByteBuffer payload);
+    }
+
+    private final SocketChannel channel;
+    private final BufferPool bufferPool;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /**
+     * Used only by the reading thread
+     */
+    private final CallCodec readCodec = new CallCodec();
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    FrameChannel(SocketChannel channel, BufferPool bufferPool) {
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the payload can not be encoded (nothing is written then)
+     */
+    void writeFrame(long correlationId, byte type, PayloadWriter payloadWriter) throws IOException {
+        var pooledBuffer = bufferPool.acquire();
+        try {
+            var buffer = encodeFrame(pooledBuffer, correlationId, type, payloadWriter);
+
+            writeLock.lock();
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            bufferPool.release(pooledBuffer);
+        }
+    }
+
+    /**
+     * @return the buffer ready for writing into the channel
+     */
+    private static ByteBuffer encodeFrame(
+            BufferPool.PooledBuffer pooledBuffer, long correlationId, byte type, PayloadWriter payloadWriter) {
+
+        while (true) {
+            var buffer = pooledBuffer.getBuffer();
+            try {
+                buffer.clear().position(Integer.BYTES);
+                buffer.putLong(correlationId);
+                buffer.put(type);
+                payloadWriter.write(pooledBuffer.codec, buffer);
+
+                buffer.flip();
+                buffer.putInt(0, buffer.limit() - Integer.BYTES);
+                return buffer;
+
+            } catch (BufferOverflowException e) {
+                pooledBuffer.grow();
+            }
+        }
+    }
+
+    /**
+     * Reads the frames and passes them to the handler until the channel is closed
+     */
+    void readFrames(FrameHandler handler) throws IOException {
+        while (true) {
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException("Connection is closed");
+            }
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                var frameStart = readBuffer.position();
+                var frameEnd = frameStart + Integer.BYTES + readBuffer.getInt(frameStart);
+                if (frameEnd > readBuffer.limit()) {
+                    // the frame is not read completely
+                    break;
+                }
+
+                var limit = readBuffer.limit();
+                readBuffer.position(frameStart + Integer.BYTES);
+                var correlationId = readBuffer.getLong();
+                var type = readBuffer.get();
+                readBuffer.limit(frameEnd);
+                handler.handle(correlationId, type, readCodec, readBuffer);
+                readBuffer.limit(limit).position(frameEnd);
+            }
+            readBuffer.compact();
+
+            ensureReadBufferFitsFrame();
+        }
+    }
+
+    private void ensureReadBufferFitsFrame() {
+        if (readBuffer.position() < Integer.BYTES) {
+            return;
+        }
+
+        var frameSize = Integer.BYTES + readBuffer.getInt(0);
+        if (frameSize > readBuffer.capacity()) {
+            var newBuffer = ByteBuffer.allocateDirect(frameSize);
+            readBuffer.flip();
+            newBuffer.put(readBuffer);
+            readBuffer = newBuffer;
+        }
+    }
+}
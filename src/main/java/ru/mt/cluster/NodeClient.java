@@ -0,0 +1,402 @@
+package ru.mt.cluster;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import ru.mt.codec.CallCodec;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerPage;
+import ru.mt.utils.CountdownTimer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends requests to one node of the cluster through one connection:
+ * the requests of all the threads are pipelined, the responses are read by the connection thread
+ * and matched with the requests by the correlation id.
+ * If the connection breaks, the waiting requests fail and the next request reconnects.
+ */
+@Log4j2
+public class NodeClient implements Closeable {
+    /**
+     * Timeout of one connection attempt
+     */
+    private static final int CONNECT_ATTEMPT_TIMEOUT = 1000;
+    private static final int CONNECT_RETRY_DELAY = 100;
+
+    private interface ResponseReader<T> {
+        T read(CallCodec codec, ByteBuffer payload);
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingRequest<T> {
+        final ResponseReader<T> responseReader;
+        final CompletableFuture<T> response = new CompletableFuture<>();
+
+        void complete(byte status, CallCodec codec, ByteBuffer payload) {
+            if (status == NodeProtocol.OVERLOADED) {
+                var retryAfterMillis = payload.getLong();
+                response.completeExceptionally(new NodeOverloadedException(
+                        "Node is overloaded, retry after " + retryAfterMillis + " ms", retryAfterMillis));
+                return;
+            }
+            if (status != NodeProtocol.OK) {
+                response.completeExceptionally(new IllegalStateException(codec.getString(payload)));
+                return;
+            }
+
+            try {
+                response.complete(responseReader.read(codec, payload));
+            } catch (RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+        }
+    }
+
+    private class Connection {
+        final FrameChannel channel;
+        /**
+         * Key: correlation id
+         */
+        final Map<Long, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
+        volatile boolean broken = false;
+
+        Connection(SocketChannel socketChannel) {
+            channel = new FrameChannel(socketChannel, bufferPool);
+
+            var thread = new Thread(this::readResponses, "node-client-" + nodeIndex);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void readResponses() {
+            try {
+                channel.readFrames(this::handleResponse);
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    log.warn("Connection to the node {} failed: {}", nodeIndex, e.getMessage());
+                }
+                fail(e);
+            }
+        }
+
+        private void handleResponse(long correlationId, byte status, CallCodec codec, ByteBuffer payload) {
+            var request = pendingRequests.remove(correlationId);
+            // the request may be already timed out
+            if (request != null) {
+                request.complete(status, codec, payload);
+            }
+        }
+
+        void fail(Throwable cause) {
+            broken = true;
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+
+            var error = new IOException("Connection to the node is broken: " + cause.getMessage(), cause);
+            pendingRequests.values().forEach(request -> request.response.completeExceptionally(error));
+            pendingRequests.clear();
+        }
+    }
+
+    private final int nodeIndex;
+    private final InetSocketAddress address;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final BufferPool bufferPool = new BufferPool();
+    private final AtomicLong correlationSequence = new AtomicLong();
+    private final Object connectLock = new Object();
+    private volatile Connection connection;
+    private volatile boolean closed = false;
+
+    /**
+     * @param connectTimeoutMillis how long to retry connecting (e.g. while the node is starting)
+     * @param readTimeoutMillis    max time of waiting for a response
+     */
+    public NodeClient(int nodeIndex, InetSocketAddress address, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.nodeIndex = nodeIndex;
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public void close() {
+        synchronized (connectLock) {
+            closed = true;
+            if (connection != null) {
+                connection.fail(new IOException("Client is closed"));
+            }
+        }
+    }
+
+    /**
+     * @return the call result or the result with an error if the node is not available
+     */
+    public AccountBalanceCallResult executeCall(AccountBalanceCall call) {
+        try {
+            return request(NodeProtocol.EXECUTE_CALL,
+                    (codec, buffer) -> codec.encode(call, buffer),
+                    CallCodec::decodeResult);
+
+        } catch (IOException | RuntimeException e) {
+            return getFailedCallResult(call, e);
+        }
+    }
+
+    /**
+     * Sends the call without waiting for its result, so that the calls to several nodes are executed in parallel
+     *
+     * @return future of the call result, completed with the result with an error if the node is not available
+     */
+    public CompletableFuture<AccountBalanceCallResult> executeCallAsync(AccountBalanceCall call) {
+        try {
+            return send(NodeProtocol.EXECUTE_CALL,
+                    (codec, buffer) -> codec.encode(call, buffer),
+                    CallCodec::decodeResult)
+                    .exceptionally(e -> getFailedCallResult(call, e instanceof CompletionException ? e.getCause() : e));
+
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.completedFuture(getFailedCallResult(call, e));
+        }
+    }
+
+    private AccountBalanceCallResult getFailedCallResult(AccountBalanceCall call, Throwable e) {
+        if (e instanceof TimeoutException) {
+            e = new SocketTimeoutException("Response is not received in " + readTimeoutMillis + " ms");
+        }
+
+        return AccountBalanceCallResult.builder()
+                .callId(call.getId())
+                .errorMessage(String.format("Call execution on the node %d failed: %s", nodeIndex, e.getMessage()))
+                .build();
+    }
+
+    /**
+     * Admission control of the shard served by the node
+     *
+     * @return 0 if the shard accepts new work or the node is not available (then the call fails by itself),
+     * otherwise the estimated time (ms) after which the shard will be able to accept new work
+     */
+    public long checkShardAdmission(String accountId) {
+        try {
+            return request(NodeProtocol.CHECK_ADMISSION,
+                    (codec, buffer) -> codec.putString(buffer, accountId),
+                    (codec, payload) -> payload.getLong());
+
+        } catch (NodeOverloadedException e) {
+            return e.getRetryAfterMillis();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Admission check on the node {} failed: {}", nodeIndex, e.getMessage());
+            return 0;
+        }
+    }
+
+    public void createAccount(String accountId) {
+        requestOrFail(NodeProtocol.CREATE_ACCOUNT,
+                (codec, buffer) -> codec.putString(buffer, accountId),
+                (codec, payload) -> null);
+    }
+
+    public void createAccounts(List<String> accountIds) {
+        requestOrFail(NodeProtocol.CREATE_ACCOUNTS,
+                (codec, buffer) -> codec.putStrings(buffer, accountIds),
+                (codec, payload) -> null);
+    }
+
+    public Set<String> getAccounts() {
+        return requestOrFail(NodeProtocol.GET_ACCOUNTS,
+                (codec, buffer) -> {
+                },
+                (codec, payload) -> new HashSet<>(codec.getStrings(payload)));
+    }
+
+    public boolean accountExists(String accountId) {
+        return requestOrFail(NodeProtocol.ACCOUNT_EXISTS,
+                (codec, buffer) -> codec.putString(buffer, accountId),
+                (codec, payload) -> payload.get() != 0);
+    }
+
+    public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+        requestOrFail(NodeProtocol.SAVE_SPLIT_ACCOUNT,
+                (codec, buffer) -> {
+                    codec.putString(buffer, accountId);
+                    codec.putStrings(buffer, subAccountIds);
+                },
+                (codec, payload) -> null);
+    }
+
+    public LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit) {
+        return requestOrFail(NodeProtocol.GET_LEDGER,
+                (codec, buffer) -> {
+                    codec.putString(buffer, accountId);
+                    buffer.putLong(fromTs);
+                    buffer.putLong(toTs);
+                    buffer.putLong(cursor);
+                    buffer.putInt(limit);
+                },
+                CallCodec::decodeLedgerPage);
+    }
+
+    public BigDecimal getBalanceAt(String accountId, long ts) {
+        return requestOrFail(NodeProtocol.GET_BALANCE_AT,
+                (codec, buffer) -> {
+                    codec.putString(buffer, accountId);
+                    buffer.putLong(ts);
+                },
+                (codec, payload) -> CallCodec.getAmount(payload));
+    }
+
+    public BalanceTotals getTotals() {
+        return requestOrFail(NodeProtocol.GET_TOTALS,
+                (codec, buffer) -> {
+                },
+                (codec, payload) -> new BalanceTotals(new BigDecimal(codec.getString(payload)),
+                        new BigDecimal(codec.getString(payload)), new BigDecimal(codec.getString(payload)),
+                        payload.getLong()));
+    }
+
+    private <T> T requestOrFail(
+            byte operation, FrameChannel.PayloadWriter payloadWriter, ResponseReader<T> responseReader) {
+        try {
+            return request(operation, payloadWriter, responseReader);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    String.format("Node %d is not available: %s", nodeIndex, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the node failed to execute the request
+     */
+    private <T> T request(byte operation, FrameChannel.PayloadWriter payloadWriter, ResponseReader<T> responseReader)
+            throws IOException {
+
+        var response = send(operation, payloadWriter, responseReader);
+        try {
+            return response.get();
+
+        } catch (ExecutionException e) {
+            var cause = e.getCause();
+            if (cause instanceof TimeoutException) {
+                throw new SocketTimeoutException("Response is not received in " + readTimeoutMillis + " ms");
+            }
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+
+        } catch (InterruptedException e) {
+            // the request is forgotten when the response is received or timed out
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the response was interrupted");
+        }
+    }
+
+    /**
+     * Writes the request into the connection
+     *
+     * @return future of the response, completed with TimeoutException if it is not received in the read timeout
+     */
+    private <T> CompletableFuture<T> send(
+            byte operation, FrameChannel.PayloadWriter payloadWriter, ResponseReader<T> responseReader)
+            throws IOException {
+
+        var connection = getConnection();
+        var correlationId = correlationSequence.incrementAndGet();
+        var request = new PendingRequest<>(responseReader);
+        connection.pendingRequests.put(correlationId, request);
+
+        try {
+            // the connection may have failed before the request was registered
+            if (connection.broken) {
+                throw new IOException("Connection to the node is broken");
+            }
+            connection.channel.writeFrame(correlationId, operation, payloadWriter);
+
+        } catch (IOException e) {
+            connection.pendingRequests.remove(correlationId);
+            connection.fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            connection.pendingRequests.remove(correlationId);
+            throw e;
+        }
+
+        return request.response
+                .orTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((response, e) -> connection.pendingRequests.remove(correlationId));
+    }
+
+    private Connection getConnection() throws IOException {
+        var current = connection;
+        if (current != null && !current.broken) {
+            return current;
+        }
+
+        synchronized (connectLock) {
+            if (closed) {
+                throw new IOException("Client is closed");
+            }
+
+            current = connection;
+            if (current == null || current.broken) {
+                current = new Connection(connect());
+                connection = current;
+            }
+            return current;
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        var timer = new CountdownTimer(connectTimeoutMillis);
+
+        while (true) {
+            var channel = SocketChannel.open();
+            try {
+                channel.socket().connect(address, CONNECT_ATTEMPT_TIMEOUT);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                return channel;
+
+            } catch (IOException e) {
+                channel.close();
+                if (timer.isTimeOver()) {
+                    throw e;
+                }
+                log.debug("Node {} is not available, retrying: {}", nodeIndex, e.getMessage());
+            }
+
+            try {
+                Thread.sleep(CONNECT_RETRY_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Connecting to the node was interrupted");
+            }
+        }
+    }
+}
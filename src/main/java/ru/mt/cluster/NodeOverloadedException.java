@@ -0,0 +1,19 @@
+package ru.mt.cluster;
+
+import lombok.Getter;
+
+/**
+ * The node rejected the request because it has no capacity for it
+ */
+@Getter
+public class NodeOverloadedException extends IllegalStateException {
+    /**
+     * Estimated time after which the request can be retried
+     */
+    private final long retryAfterMillis;
+
+    public NodeOverloadedException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mt.cluster;
+
+/**
+ * Requests between the nodes are multiplexed over one connection (see FrameChannel):
+ * the request frame has the type = operation and the payload = its arguments,
+ * the response frame has the correlation id of the request, the type = status
+ * and the payload = the response or the error message.
+ * The values are encoded by CallCodec.
+ */
+final class NodeProtocol {
+    //region operations
+
+    static final byte EXECUTE_CALL = 1;
+    static final byte CREATE_ACCOUNT = 2;
+    static final byte GET_ACCOUNTS = 3;
+    static final byte ACCOUNT_EXISTS = 4;
+    static final byte SAVE_SPLIT_ACCOUNT = 5;
+    static final byte GET_LEDGER = 6;
+    static final byte GET_BALANCE_AT = 7;
+    static final byte GET_TOTALS = 8;
+    static final byte CREATE_ACCOUNTS = 9;
+    static final byte CHECK_ADMISSION = 10;
+
+    //endregion
+
+    //region response statuses
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    /**
+     * The node has no capacity for the request, the payload is the time (ms) after which it can be retried
+     */
+    static final byte OVERLOADED = 2;
+
+    //endregion
+
+    private NodeProtocol() {
+    }
+}
@@ -0,0 +1,62 @@
+package ru.mt.cluster;
+
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerPage;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Executes the requests which the node receives from the other nodes of the cluster
+ */
+public interface NodeRequestHandler {
+    /**
+     * Executes the call on the shard of this node and waits for the result
+     */
+    AccountBalanceCallResult executeCall(AccountBalanceCall call);
+
+    /**
+     * Admission control of the shard of this node (see AccountService.checkShardAdmission)
+     *
+     * @return 0 if the shard accepts new work, otherwise the estimated time (ms) after which it will be able to
+     */
+    long checkShardAdmission(String accountId);
+
+    void createAccount(String accountId);
+
+    /**
+     * Saves the accounts of the shards of this node by one batch per shard
+     */
+    void createAccounts(List<String> accountIds);
+
+    /**
+     * @return ids of the accounts stored on this node
+     */
+    Set<String> getAccounts();
+
+    boolean accountExists(String accountId);
+
+    /**
+     * Saves the split account, so that this node routes the calls of the account to its sub-balances
+     */
+    void saveSplitAccount(String accountId, List<String> subAccountIds);
+
+    /**
+     * Reads the ledger of the account stored on this node (see LedgerRepository.findEntries)
+     */
+    LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit);
+
+    /**
+     * Reads the balance at the time from the ledger of the account stored on this node
+     * (see LedgerRepository.findBalanceAt)
+     */
+    BigDecimal getBalanceAt(String accountId, long ts);
+
+    /**
+     * @return totals of the shards served by this node
+     */
+    BalanceTotals getTotals();
+}
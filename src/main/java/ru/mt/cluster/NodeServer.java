@@ -0,0 +1,288 @@
+package ru.mt.cluster;
+
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.codec.CallCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Receives the requests of the other nodes of the cluster and passes them to the handler.
+ * Every connection has a thread which reads and decodes the requests; they are executed by a thread pool
+ * (the call execution waits for the result), so the responses are written as soon as they are ready,
+ * not in the order of the requests.
+ * The pool and its queue are bounded: when they are full, the new work is answered with OVERLOADED at once,
+ * but the saga continuation is executed by the connection thread, which stops reading the next requests until then.
+ */
+@Log4j2
+public class NodeServer extends Component {
+    private final NodeRequestHandler handler;
+    private final ServerSocketChannel serverChannel;
+    private final BufferPool bufferPool = new BufferPool();
+    private final Set<FrameChannel> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadSequence = new AtomicInteger();
+    /**
+     * Every call waits for its result in a thread of the pool, so the pool size limits the calls in progress
+     */
+    private final ThreadPoolExecutor requestExecutor;
+
+    /**
+     * Time after which the request rejected because of the full pool can be retried
+     */
+    private static final long OVERLOAD_RETRY_AFTER_MILLIS = 1000;
+
+    private interface ResponseWriter<T> {
+        void write(CallCodec codec, ByteBuffer buffer, T response);
+    }
+
+    public NodeServer(int port, NodeRequestHandler handler) throws IOException {
+        this(port, handler, Integer.getInteger("mt.cluster.server.threads", 256),
+                Integer.getInteger("mt.cluster.server.queueSize", 10_000));
+    }
+
+    /**
+     * @param threadCount max count of the requests executed at once
+     * @param queueSize   max count of the requests waiting for a thread
+     */
+    public NodeServer(int port, NodeRequestHandler handler, int threadCount, int queueSize) throws IOException {
+        this.handler = handler;
+        requestExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    var thread = new Thread(runnable, "node-request-" + threadSequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        requestExecutor.allowCoreThreadTimeOut(true);
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(port));
+        log.info("Node server is listening on the port " + port);
+
+        var acceptThread = new Thread(this::acceptConnections, "node-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @Override
+    protected void destroyInternal() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.error("Server channel closing failed", e);
+        }
+
+        for (var connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException ignore) {
+            }
+        }
+        requestExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!isDestroying()) {
+            try {
+                var socketChannel = serverChannel.accept();
+                socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                var connection = new FrameChannel(socketChannel, bufferPool);
+                connections.add(connection);
+
+                var thread = new Thread(() -> serve(connection), "node-connection-" + threadSequence.incrementAndGet());
+                thread.setDaemon(true);
+                thread.start();
+
+            } catch (IOException e) {
+                if (!isDestroying()) {
+                    log.error("Accepting connection failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(FrameChannel connection) {
+        try (connection) {
+            connection.readFrames((correlationId, operation, codec, payload) ->
+                    handleRequest(connection, correlationId, operation, codec, payload));
+
+        } catch (IOException | RuntimeException e) {
+            if (!isDestroying()) {
+                log.warn("Connection failed: " + e.getMessage());
+            }
+        } finally {
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Decodes the request (the payload is valid only during this call) and passes it to the executor
+     */
+    private void handleRequest(
+            FrameChannel connection, long correlationId, byte operation, CallCodec codec, ByteBuffer payload) {
+
+        switch (operation) {
+            case NodeProtocol.EXECUTE_CALL:
+                var call = codec.decode(payload);
+                respond(connection, correlationId, () -> handler.executeCall(call),
+                        (responseCodec, buffer, result) -> responseCodec.encodeResult(result, buffer),
+                        call.getCallType().isSagaContinuation());
+                break;
+
+            case NodeProtocol.CHECK_ADMISSION:
+                var admissionAccountId = codec.getString(payload);
+                respond(connection, correlationId, () -> handler.checkShardAdmission(admissionAccountId),
+                        (responseCodec, buffer, retryAfterMillis) -> buffer.putLong(retryAfterMillis));
+                break;
+
+            case NodeProtocol.CREATE_ACCOUNT:
+                var newAccountId = codec.getString(payload);
+                respond(connection, correlationId, () -> {
+                    handler.createAccount(newAccountId);
+                    return null;
+                }, (responseCodec, buffer, response) -> {
+                });
+                break;
+
+            case NodeProtocol.CREATE_ACCOUNTS:
+                var newAccountIds = codec.getStrings(payload);
+                respond(connection, correlationId, () -> {
+                    handler.createAccounts(newAccountIds);
+                    return null;
+                }, (responseCodec, buffer, response) -> {
+                });
+                break;
+
+            case NodeProtocol.GET_ACCOUNTS:
+                respond(connection, correlationId, handler::getAccounts,
+                        (responseCodec, buffer, accountIds) -> responseCodec.putStrings(buffer, accountIds));
+                break;
+
+            case NodeProtocol.ACCOUNT_EXISTS:
+                var accountId = codec.getString(payload);
+                respond(connection, correlationId, () -> handler.accountExists(accountId),
+                        (responseCodec, buffer, exists) -> buffer.put((byte) (exists ? 1 : 0)));
+                break;
+
+            case NodeProtocol.SAVE_SPLIT_ACCOUNT:
+                var splitAccountId = codec.getString(payload);
+                var subAccountIds = codec.getStrings(payload);
+                respond(connection, correlationId, () -> {
+                    handler.saveSplitAccount(splitAccountId, subAccountIds);
+                    return null;
+                }, (responseCodec, buffer, response) -> {
+                });
+                break;
+
+            case NodeProtocol.GET_LEDGER:
+                var ledgerAccountId = codec.getString(payload);
+                var fromTs = payload.getLong();
+                var toTs = payload.getLong();
+                var cursor = payload.getLong();
+                var limit = payload.getInt();
+                respond(connection, correlationId,
+                        () -> handler.getLedger(ledgerAccountId, fromTs, toTs, cursor, limit),
+                        (responseCodec, buffer, page) -> responseCodec.encodeLedgerPage(page, buffer));
+                break;
+
+            case NodeProtocol.GET_BALANCE_AT:
+                var balanceAccountId = codec.getString(payload);
+                var ts = payload.getLong();
+                respond(connection, correlationId, () -> handler.getBalanceAt(balanceAccountId, ts),
+                        (responseCodec, buffer, balance) -> CallCodec.putAmount(buffer, balance));
+                break;
+
+            case NodeProtocol.GET_TOTALS:
+                // the totals may not fit into the amount encoding, so they are sent as strings
+                respond(connection, correlationId, handler::getTotals, (responseCodec, buffer, totals) -> {
+                    responseCodec.putString(buffer, totals.getBalance().toString());
+                    responseCodec.putString(buffer, totals.getReserved().toString());
+                    responseCodec.putString(buffer, totals.getSupply().toString());
+                    buffer.putLong(totals.getChangeCount());
+                });
+                break;
+
+            default:
+                respond(connection, correlationId, () -> {
+                    throw new IllegalStateException("Unknown operation: " + operation);
+                }, (responseCodec, buffer, response) -> {
+                });
+        }
+    }
+
+    private <T> void respond(
+            FrameChannel connection, long correlationId, Callable<T> action, ResponseWriter<T> responseWriter) {
+        respond(connection, correlationId, action, responseWriter, false);
+    }
+
+    /**
+     * @param mustExecute the request is executed by the current thread if the pool is full
+     */
+    private <T> void respond(FrameChannel connection, long correlationId, Callable<T> action,
+                             ResponseWriter<T> responseWriter, boolean mustExecute) {
+
+        Runnable task = () -> {
+            try {
+                T response;
+                try {
+                    response = action.call();
+                } catch (Exception e) {
+                    log.error("Request handling failed", e);
+                    writeError(connection, correlationId, e);
+                    return;
+                }
+
+                try {
+                    connection.writeFrame(correlationId, NodeProtocol.OK,
+                            (codec, buffer) -> responseWriter.write(codec, buffer, response));
+                } catch (IllegalArgumentException e) {
+                    // the response can not be encoded
+                    writeError(connection, correlationId, e);
+                }
+
+            } catch (IOException e) {
+                if (!isDestroying()) {
+                    log.warn("Response writing failed: " + e.getMessage());
+                }
+            }
+        };
+
+        try {
+            requestExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            if (mustExecute && !isDestroying()) {
+                task.run();
+            } else {
+                writeOverloaded(connection, correlationId);
+            }
+        }
+    }
+
+    private void writeOverloaded(FrameChannel connection, long correlationId) {
+        try {
+            connection.writeFrame(correlationId, NodeProtocol.OVERLOADED,
+                    (codec, buffer) -> buffer.putLong(OVERLOAD_RETRY_AFTER_MILLIS));
+        } catch (IOException e) {
+            if (!isDestroying()) {
+                log.warn("Response writing failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void writeError(FrameChannel connection, long correlationId, Exception error) throws IOException {
+        connection.writeFrame(correlationId, NodeProtocol.ERROR,
+                (codec, buffer) -> codec.putString(buffer, String.valueOf(error.getMessage())));
+    }
+}
@@ -0,0 +1,343 @@
+package ru.mt.codec;
+
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.AccountBalanceCallType;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.LedgerPage;
+import ru.mt.domain.ReservationStatus;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary encoding of calls and their results directly into a buffer (a mapped file, a network buffer),
+ * without building a message first. The values are written from the buffer position by relative puts.
+ * Strings of Latin-1 chars (all the ids) are written by one byte per char via a small scratch array,
+ * so that the buffer is filled by bulk copies; other strings are written as UTF-16 chars.
+ * The amount is written as an unscaled long and a scale.
+ * <p>
+ * Not thread-safe because of the scratch array: every user (a queue, a buffer) has its own codec.
+ */
+public class CallCodec {
+    private static final AccountBalanceCallType[] CALL_TYPES = AccountBalanceCallType.values();
+    private static final ReservationStatus[] RESERVATION_STATUSES = ReservationStatus.values();
+    private static final int NULL_LENGTH = -1;
+    private static final int NULL_SCALE = Integer.MIN_VALUE;
+    private static final byte NULL_STATUS = -1;
+    /**
+     * The length of a UTF-16 string is written as (-length - 2), to distinguish it from null
+     */
+    private static final int UTF16_LENGTH_OFFSET = 2;
+
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Also checks that the call can be encoded, so that it fails before any byte is written
+     */
+    public static int getEncodedLength(AccountBalanceCall call) {
+        checkAmount(call.getAmount());
+        if (call.getAmounts() != null) {
+            call.getAmounts().forEach(CallCodec::checkAmount);
+        }
+
+        return Byte.BYTES // call type
+                + Long.BYTES // ts
+                + Long.BYTES // deadline
+                + Integer.BYTES + Long.BYTES // amount
+                + getEncodedLength(call.getId())
+                + getEncodedLength(call.getAccountId())
+                + getEncodedLength(call.getTransactionId())
+                + getEncodedLength(call.getCounterpartyAccountId())
+                + getEncodedLength(call.getAccountIds())
+                + getEncodedLength(call.getTransactionIds())
+                + Integer.BYTES + (call.getAmounts() == null ? 0 : call.getAmounts().size() * (Integer.BYTES + Long.BYTES));
+    }
+
+    private static int getEncodedLength(List<String> values) {
+        var length = Integer.BYTES;
+        if (values != null) {
+            for (var value : values) {
+                length += getEncodedLength(value);
+            }
+        }
+        return length;
+    }
+
+    private static int getEncodedLength(String value) {
+        if (value == null) {
+            return Integer.BYTES;
+        }
+
+        return Integer.BYTES + (isLatin1(value) ? value.length() : value.length() * Character.BYTES);
+    }
+
+    private static boolean isLatin1(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkAmount(BigDecimal amount) {
+        if (amount != null && amount.unscaledValue().bitLength() >= Long.SIZE) {
+            throw new IllegalArgumentException("Amount is too big: " + amount);
+        }
+    }
+
+    //region calls and results
+
+    public void encode(AccountBalanceCall call, ByteBuffer buffer) {
+        buffer.put((byte) call.getCallType().ordinal());
+        buffer.putLong(call.getTs());
+        buffer.putLong(call.getDeadline());
+        putAmount(buffer, call.getAmount());
+        putString(buffer, call.getId());
+        putString(buffer, call.getAccountId());
+        putString(buffer, call.getTransactionId());
+        putString(buffer, call.getCounterpartyAccountId());
+        putNullableStrings(buffer, call.getAccountIds());
+        putNullableStrings(buffer, call.getTransactionIds());
+        putNullableAmounts(buffer, call.getAmounts());
+    }
+
+    public AccountBalanceCall decode(ByteBuffer buffer) {
+        var callType = CALL_TYPES[buffer.get()];
+        var ts = buffer.getLong();
+        var deadline = buffer.getLong();
+        var amount = getAmount(buffer);
+        var id = getString(buffer);
+        var accountId = getString(buffer);
+        var transactionId = getString(buffer);
+        var counterpartyAccountId = getString(buffer);
+        var accountIds = getNullableStrings(buffer);
+        var transactionIds = getNullableStrings(buffer);
+        var amounts = getNullableAmounts(buffer);
+
+        return AccountBalanceCall.restore(id, ts, deadline, callType, accountId, transactionId, amount,
+                counterpartyAccountId, accountIds, transactionIds, amounts);
+    }
+
+    public void encodeResult(AccountBalanceCallResult result, ByteBuffer buffer) {
+        putString(buffer, result.getCallId());
+        putAmount(buffer, result.getAmount());
+        var status = result.getReservationStatus();
+        buffer.put(status == null ? NULL_STATUS : (byte) status.ordinal());
+        putString(buffer, result.getReservationReason());
+        putString(buffer, result.getErrorMessage());
+        putNullableAmounts(buffer, result.getAmounts());
+
+        var statuses = result.getReservationStatuses();
+        if (statuses == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(statuses.size());
+            for (var reservationStatus : statuses) {
+                buffer.put(reservationStatus == null ? NULL_STATUS : (byte) reservationStatus.ordinal());
+            }
+        }
+        putNullableStrings(buffer, result.getReservationReasons());
+    }
+
+    public AccountBalanceCallResult decodeResult(ByteBuffer buffer) {
+        var callId = getString(buffer);
+        var amount = getAmount(buffer);
+        var status = buffer.get();
+        var reservationReason = getString(buffer);
+        var errorMessage = getString(buffer);
+        var amounts = getNullableAmounts(buffer);
+
+        List<ReservationStatus> statuses = null;
+        var count = buffer.getInt();
+        if (count != NULL_LENGTH) {
+            statuses = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                var reservationStatus = buffer.get();
+                statuses.add(reservationStatus == NULL_STATUS ? null : RESERVATION_STATUSES[reservationStatus]);
+            }
+        }
+        var reasons = getNullableStrings(buffer);
+
+        return AccountBalanceCallResult.builder()
+                .callId(callId)
+                .amount(amount)
+                .reservationStatus(status == NULL_STATUS ? null : RESERVATION_STATUSES[status])
+                .reservationReason(reservationReason)
+                .errorMessage(errorMessage)
+                .amounts(amounts)
+                .reservationStatuses(statuses)
+                .reservationReasons(reasons)
+                .build();
+    }
+
+    //endregion
+
+    //region ledger
+
+    public void encodeLedgerPage(LedgerPage page, ByteBuffer buffer) {
+        buffer.putLong(page.getNextCursor());
+        buffer.putInt(page.getEntries().size());
+        for (var entry : page.getEntries()) {
+            buffer.putLong(entry.getSeq());
+            buffer.putLong(entry.getTs());
+            putString(buffer, entry.getTransactionId());
+            putAmount(buffer, entry.getAmount());
+            putAmount(buffer, entry.getBalance());
+        }
+    }
+
+    public LedgerPage decodeLedgerPage(ByteBuffer buffer) {
+        var nextCursor = buffer.getLong();
+        var count = buffer.getInt();
+        var entries = new ArrayList<LedgerEntry>(count);
+        for (int i = 0; i < count; i++) {
+            var seq = buffer.getLong();
+            var ts = buffer.getLong();
+            var transactionId = getString(buffer);
+            var amount = getAmount(buffer);
+            var balance = getAmount(buffer);
+            entries.add(new LedgerEntry(seq, ts, transactionId, amount, balance));
+        }
+
+        return new LedgerPage(entries, nextCursor);
+    }
+
+    //endregion
+
+    //region values
+
+    /**
+     * @throws IllegalArgumentException if the unscaled amount does not fit into long
+     */
+    public static void putAmount(ByteBuffer buffer, BigDecimal amount) {
+        if (amount == null) {
+            buffer.putInt(NULL_SCALE);
+            buffer.putLong(0);
+        } else {
+            checkAmount(amount);
+            buffer.putInt(amount.scale());
+            buffer.putLong(amount.unscaledValue().longValue());
+        }
+    }
+
+    public static BigDecimal getAmount(ByteBuffer buffer) {
+        var scale = buffer.getInt();
+        var unscaledAmount = buffer.getLong();
+        return scale == NULL_SCALE ? null : BigDecimal.valueOf(unscaledAmount, scale);
+    }
+
+    private static void putNullableAmounts(ByteBuffer buffer, List<BigDecimal> amounts) {
+        if (amounts == null) {
+            buffer.putInt(NULL_LENGTH);
+            return;
+        }
+
+        buffer.putInt(amounts.size());
+        for (var amount : amounts) {
+            putAmount(buffer, amount);
+        }
+    }
+
+    private static List<BigDecimal> getNullableAmounts(ByteBuffer buffer) {
+        var count = buffer.getInt();
+        if (count == NULL_LENGTH) {
+            return null;
+        }
+
+        var amounts = new ArrayList<BigDecimal>(count);
+        for (int i = 0; i < count; i++) {
+            amounts.add(getAmount(buffer));
+        }
+        return amounts;
+    }
+
+    public void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(NULL_LENGTH);
+            return;
+        }
+
+        var length = value.length();
+        if (!isLatin1(value)) {
+            buffer.putInt(-length - UTF16_LENGTH_OFFSET);
+            for (int i = 0; i < length; i++) {
+                buffer.putChar(value.charAt(i));
+            }
+            return;
+        }
+
+        var bytes = getScratch(length);
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        buffer.putInt(length);
+        buffer.put(bytes, 0, length);
+    }
+
+    public String getString(ByteBuffer buffer) {
+        var length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+
+        if (length < 0) {
+            var chars = new char[-length - UTF16_LENGTH_OFFSET];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = buffer.getChar();
+            }
+            return new String(chars);
+        }
+
+        var bytes = getScratch(length);
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    public void putStrings(ByteBuffer buffer, Collection<String> values) {
+        buffer.putInt(values.size());
+        for (var value : values) {
+            putString(buffer, value);
+        }
+    }
+
+    public List<String> getStrings(ByteBuffer buffer) {
+        var count = buffer.getInt();
+        var values = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(getString(buffer));
+        }
+        return values;
+    }
+
+    private void putNullableStrings(ByteBuffer buffer, List<String> values) {
+        if (values == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            putStrings(buffer, values);
+        }
+    }
+
+    private List<String> getNullableStrings(ByteBuffer buffer) {
+        var count = buffer.getInt(buffer.position());
+        if (count == NULL_LENGTH) {
+            buffer.getInt();
+            return null;
+        }
+        return getStrings(buffer);
+    }
+
+    private byte[] getScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        return scratch;
+    }
+
+    //endregion
+}
@@ -7,45 +7,81 @@ import lombok.extern.log4j.Log4j2;
 import ru.mt.MoneyTransferService;
 import ru.mt.app.Component;
 import ru.mt.app.Configuration;
+import ru.mt.controller.accesslog.AccessLog;
 import ru.mt.controller.dto.*;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.errors.MoneyTransferAccountsException;
 import ru.mt.errors.MoneyTransferException;
+import ru.mt.errors.MoneyTransferOverloadException;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.Histogram;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Deadline;
+import ru.mt.utils.TimeUtils;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * Реализует рест-апи и внутри вызывает MoneyTransferService
  */
 @Log4j2
 public class MoneyTransferController extends Component {
+    private static final int HISTORY_DEFAULT_PAGE_SIZE = 100;
+    /**
+     * Max time of the request handling (ms), the client may set a shorter one by the header
+     */
+    private static final long REQUEST_TIMEOUT = Long.getLong("mt.http.requestTimeoutMillis", 30_000);
+    private static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+
     private final MoneyTransferService moneyTransferService;
+    private final MetricsRegistry metrics;
     private final ObjectMapper objectMapper;
+    private final AccessLog accessLog;
+    private final AtomicLong requestIdSequence = new AtomicLong();
     private HttpServer httpServer;
 
 
     public MoneyTransferController() throws IOException {
         moneyTransferService = Configuration.getComponent(MoneyTransferService.class);
+        metrics = Configuration.getComponent(MetricsRegistry.class);
         objectMapper = new ObjectMapper();
+        accessLog = new AccessLog();
         initHttpServer();
     }
 
     @Override
     protected void destroyInternal() {
         httpServer.stop(1);
+        accessLog.destroy();
     }
 
     private void initHttpServer() throws IOException {
-        httpServer = HttpServer.create(new InetSocketAddress(8081), 0);
-
-        httpServer.createContext("/api/list", exg -> handler(exg, this::getAccountsHandler));
-        httpServer.createContext("/api/new", exg -> handler(exg, this::createNewAccountHandler));
-        httpServer.createContext("/api/balance", exg -> handler(exg, this::getAccountBalanceHandler));
-        httpServer.createContext("/api/put", exg -> handler(exg, this::putMoneyIntoAccountHandler));
-        httpServer.createContext("/api/withdraw", exg -> handler(exg, this::withdrawMoneyFromAccountHandler));
-        httpServer.createContext("/api/transfer", exg -> handler(exg, this::transferMoneyHandler));
+        httpServer = HttpServer.create(new InetSocketAddress(Integer.getInteger("mt.http.port", 8081)), 0);
+
+        addEndpoint("/api/list", this::getAccountsHandler);
+        addEndpoint("/api/new", this::createNewAccountHandler);
+        addEndpoint("/api/balance", this::getAccountBalanceHandler);
+        addEndpoint("/api/balances", this::getAccountBalancesHandler);
+        addEndpoint("/api/balanceAt", this::getAccountBalanceAtHandler);
+        addEndpoint("/api/history", this::getAccountHistoryHandler);
+        addEndpoint("/api/transactions", this::findTransactionsHandler);
+        addEndpoint("/api/put", this::putMoneyIntoAccountHandler);
+        addEndpoint("/api/withdraw", this::withdrawMoneyFromAccountHandler);
+        addEndpoint("/api/transfer", this::transferMoneyHandler);
+        addEndpoint("/api/cashdesk", this::getCashDeskHandler);
+        addEndpoint("/api/totals", this::getTotalsHandler);
+        addEndpoint("/api/split", this::splitAccountHandler);
+        httpServer.createContext("/api/metrics", this::metricsHandler);
 
         httpServer.setExecutor(Executors.newCachedThreadPool());
         httpServer.start();
@@ -55,42 +91,138 @@ public class MoneyTransferController extends Component {
         MoneyTransferResponse handle(QueryParams params) throws MoneyTransferException, QueryParamsException;
     }
 
-    private void handler(HttpExchange exchange, RequestHandler requestHandler) throws IOException {
+    private void addEndpoint(String path, RequestHandler requestHandler) {
+        var latency = metrics.histogram("mt_http_request_seconds", "HTTP request handling time", "endpoint", path);
+        var errors = metrics.counter("mt_http_errors_total", "Count of non-OK HTTP responses", "endpoint", path);
+        var endpointId = accessLog.registerEndpoint(path);
+
+        httpServer.createContext(path, exg -> handler(exg, requestHandler, endpointId, latency, errors));
+    }
+
+    private void handler(HttpExchange exchange, RequestHandler requestHandler,
+                         int endpointId, Histogram latency, Counter errors) throws IOException {
+        var startNanos = System.nanoTime();
         var requestURI = exchange.getRequestURI();
+        var respCode = 500;
+        QueryParams queryParams = null;
         try {
             if (!"GET".equals(exchange.getRequestMethod())) {
                 // Method Not Allowed
-                exchange.sendResponseHeaders(405, -1);
+                respCode = 405;
+                exchange.sendResponseHeaders(respCode, -1);
                 return;
             }
 
-            var queryParams = QueryParams.fromRawQuery(requestURI.getRawQuery());
+            queryParams = QueryParams.fromRawQuery(requestURI.getRawQuery());
 
             MoneyTransferResponse response;
-            int respCode;
             try {
+                // the work which is not done by the deadline is dropped from the queues
+                Deadline.set(TimeUtils.getTimestamp() + getRequestTimeout(exchange));
                 response = requestHandler.handle(queryParams);
                 respCode = 200; // OK
             } catch (QueryParamsException e) {
                 response = new ErrorResponse(e.toString());
                 respCode = 400; // Bad Request
+            } catch (MoneyTransferOverloadException e) {
+                response = new ErrorResponse(e.toString());
+                respCode = 429; // Too Many Requests
+                var retryAfterSeconds = (e.getRetryAfterMillis() + 999) / 1000;
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfterSeconds));
+            } catch (MoneyTransferAccountsException e) {
+                // the created accounts are reported, so that the unfunded ones can be funded later
+                response = new AccountIdsErrorResponse(e.toString(), e.getAccountIds(), e.getUnfundedAccountIds());
+                respCode = 500; // Internal Server Error
             } catch (MoneyTransferException e) {
                 response = new ErrorResponse(e.toString());
                 respCode = 404; // Not Found
+            } finally {
+                Deadline.clear();
+            }
+
+            log.debug("{} --> [{}] {}", requestURI, respCode, response);
+
+            if (response instanceof StreamedResponse) {
+                // the length is unknown: the response is sent by chunks while it is serialized
+                exchange.sendResponseHeaders(respCode, 0);
+                objectMapper.writeValue(exchange.getResponseBody(), response);
+            } else {
+                var bytes = objectMapper.writeValueAsBytes(response);
+                exchange.sendResponseHeaders(respCode, bytes.length);
+
+                OutputStream output = exchange.getResponseBody();
+                output.write(bytes);
+                output.flush();
+            }
+
+        } catch (Throwable e) {
+            log.error("Request handling failed: " + requestURI, e);
+            // Server Error
+            respCode = 500;
+            exchange.sendResponseHeaders(respCode, -1);
+
+        } finally {
+            exchange.close();
+
+            var elapsedNanos = System.nanoTime() - startNanos;
+            latency.record(elapsedNanos);
+            if (respCode != 200) {
+                errors.inc();
+            }
+
+            accessLog.record(requestIdSequence.incrementAndGet(), endpointId, respCode, elapsedNanos,
+                    getRequestAccountId(queryParams, "accountId", "accountIdFrom"),
+                    getRequestAccountId(queryParams, "accountIdTo"));
+        }
+    }
+
+    /**
+     * @return the timeout set by the client (ms) but not longer than the max one
+     */
+    private static long getRequestTimeout(HttpExchange exchange) throws QueryParamsException {
+        var value = exchange.getRequestHeaders().getFirst(REQUEST_TIMEOUT_HEADER);
+        if (value == null) {
+            return REQUEST_TIMEOUT;
+        }
+
+        try {
+            var timeout = Long.parseLong(value.trim());
+            if (timeout > 0) {
+                return Math.min(timeout, REQUEST_TIMEOUT);
             }
+        } catch (NumberFormatException ignore) {
+        }
+        throw new QueryParamsException(String.format("Header '%s' has an invalid value '%s'",
+                REQUEST_TIMEOUT_HEADER, value));
+    }
 
-            log.info(String.format("%s --> [%s] %s", requestURI, respCode, response));
+    private static String getRequestAccountId(QueryParams queryParams, String... paramNames) {
+        if (queryParams == null) {
+            return null;
+        }
 
-            var bytes = objectMapper.writeValueAsBytes(response);
-            exchange.sendResponseHeaders(respCode, bytes.length);
+        for (var paramName : paramNames) {
+            var value = queryParams.findParamString(paramName);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    private void metricsHandler(HttpExchange exchange) throws IOException {
+        try {
+            var bytes = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
 
             OutputStream output = exchange.getResponseBody();
             output.write(bytes);
             output.flush();
 
         } catch (Throwable e) {
-            log.error("Request handling failed: " + requestURI, e);
-            // Server Error
+            log.error("Metrics export failed", e);
             exchange.sendResponseHeaders(500, -1);
 
         } finally {
@@ -105,7 +237,18 @@ public class MoneyTransferController extends Component {
         return new AccountIdsResponse(accounts);
     }
 
-    private MoneyTransferResponse createNewAccountHandler(QueryParams params) {
+    /**
+     * Parameters for the bulk creation: count, balance (the opening balance of every account, optional)
+     */
+    private MoneyTransferResponse createNewAccountHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        if (params.findParamString("count") != null) {
+            var balance = params.findParamString("balance") == null ? null : params.getParamBigDecimal("balance");
+            var accountIds = moneyTransferService.createNewAccounts(params.getParamInt("count"), balance);
+            return new AccountIdsResponse(accountIds);
+        }
+
         var accountId = moneyTransferService.createNewAccount();
         return new AccountBalanceResponse(accountId, BigDecimal.ZERO);
     }
@@ -114,11 +257,95 @@ public class MoneyTransferController extends Component {
             throws MoneyTransferException, QueryParamsException {
 
         var accountId = params.getParamString("accountId");
-        var balance = moneyTransferService.getAccountBalance(accountId);
+        // the stale read from a follower replica of the shard is allowed only if it is asked for
+        var balance = params.findParamString("maxStaleness") == null
+                ? moneyTransferService.getAccountBalance(accountId)
+                : moneyTransferService.getAccountBalance(accountId, params.getParamInt("maxStaleness"));
 
         return new AccountBalanceResponse(accountId, balance);
     }
 
+    /**
+     * Parameters: accountId (repeated for every account)
+     */
+    private MoneyTransferResponse getAccountBalancesHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        var accountIds = params.getParamStrings("accountId");
+        var balances = moneyTransferService.getAccountBalances(accountIds);
+
+        return new AccountBalancesResponse(accountIds, balances);
+    }
+
+    private MoneyTransferResponse getAccountBalanceAtHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        var accountId = params.getParamString("accountId");
+        var balance = moneyTransferService.getAccountBalanceAt(accountId, params.getParamLong("ts"));
+
+        return new AccountBalanceResponse(accountId, balance);
+    }
+
+    /**
+     * Parameters: accountId, from and to (ms, optional), cursor (of the next page, optional), limit (optional)
+     */
+    private MoneyTransferResponse getAccountHistoryHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        var accountId = params.getParamString("accountId");
+        var fromTs = params.findParamString("from") == null ? 0 : params.getParamLong("from");
+        var toTs = params.findParamString("to") == null ? Long.MAX_VALUE : params.getParamLong("to");
+        var cursor = params.findParamString("cursor") == null ? -1 : params.getParamLong("cursor");
+        var limit = params.findParamString("limit") == null ? HISTORY_DEFAULT_PAGE_SIZE : params.getParamInt("limit");
+        var page = moneyTransferService.getAccountHistory(accountId, fromTs, toTs, cursor, limit);
+
+        return new AccountHistoryResponse(accountId, page);
+    }
+
+    /**
+     * Parameters (all optional): accountId (from or to), status (several values allowed) or final (true/false),
+     * from and to (creation time, ms) or olderThan (ms before now), cursor (of the next page), limit
+     */
+    private MoneyTransferResponse findTransactionsHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        var filter = TransactionFilter.builder()
+                .accountId(params.findParamString("accountId"));
+
+        if (params.findParamString("status") != null) {
+            var statuses = EnumSet.noneOf(TransactionStatus.class);
+            for (var status : params.getParamStrings("status")) {
+                try {
+                    statuses.add(TransactionStatus.valueOf(status));
+                } catch (IllegalArgumentException e) {
+                    throw new QueryParamsException(String.format("Query parameter 'status' has an invalid value '%s'",
+                            status));
+                }
+            }
+            filter.statuses(statuses);
+        } else if (params.findParamString("final") != null) {
+            var isFinal = Boolean.parseBoolean(params.getParamString("final"));
+            filter.statuses(Arrays.stream(TransactionStatus.values())
+                    .filter(status -> status.isFinal() == isFinal)
+                    .collect(Collectors.toCollection(() -> EnumSet.noneOf(TransactionStatus.class))));
+        }
+
+        if (params.findParamString("from") != null) {
+            filter.fromTs(params.getParamLong("from"));
+        }
+        if (params.findParamString("olderThan") != null) {
+            filter.toTs(TimeUtils.getTimestamp() - params.getParamLong("olderThan"));
+        } else if (params.findParamString("to") != null) {
+            filter.toTs(params.getParamLong("to"));
+        }
+
+        var cursor = params.findParamString("cursor") == null ? -1 : params.getParamLong("cursor");
+        var limit = params.findParamString("limit") == null ? HISTORY_DEFAULT_PAGE_SIZE : params.getParamInt("limit");
+        var page = moneyTransferService.findTransactions(filter.build(), cursor, limit);
+
+        return new TransactionsResponse(page);
+    }
+
     private MoneyTransferResponse putMoneyIntoAccountHandler(QueryParams params)
             throws MoneyTransferException, QueryParamsException {
 
@@ -150,5 +377,26 @@ public class MoneyTransferController extends Component {
         return new OKResponse();
     }
 
+    private MoneyTransferResponse splitAccountHandler(QueryParams params)
+            throws MoneyTransferException, QueryParamsException {
+
+        var accountId = params.getParamString("accountId");
+        var count = params.getParamInt("count");
+        moneyTransferService.splitAccount(accountId, count);
+
+        return new OKResponse();
+    }
+
+    private MoneyTransferResponse getCashDeskHandler(QueryParams params) throws MoneyTransferException {
+        var depositedAmount = moneyTransferService.getCashDeskDepositedAmount();
+        var withdrawnAmount = moneyTransferService.getCashDeskWithdrawnAmount();
+
+        return new CashDeskResponse(depositedAmount, withdrawnAmount);
+    }
+
+    private MoneyTransferResponse getTotalsHandler(QueryParams params) {
+        return new TotalsResponse(moneyTransferService.getTotals());
+    }
+
     //endregion
 }
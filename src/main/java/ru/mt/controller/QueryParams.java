@@ -17,6 +17,14 @@ class QueryParams {
         return new QueryParams(ApiUtils.splitQuery(rawQuery));
     }
 
+    /**
+     * @return the first value of the parameter or null if the parameter is not set
+     */
+    String findParamString(String paramName) {
+        var valueList = paramMap.get(paramName);
+        return valueList == null || valueList.isEmpty() ? null : valueList.get(0);
+    }
+
     String getParamString(String paramName) throws QueryParamsException {
         var valueList = paramMap.get(paramName);
 
@@ -33,6 +41,39 @@ class QueryParams {
         return valueList.get(0);
     }
 
+    /**
+     * @return all the values of the parameter (at least one)
+     */
+    List<String> getParamStrings(String paramName) throws QueryParamsException {
+        var valueList = paramMap.get(paramName);
+
+        if (valueList == null || valueList.size() == 0) {
+            throw new QueryParamsException("Query parameter not found: " + paramName);
+        }
+
+        return valueList;
+    }
+
+    int getParamInt(String paramName) throws QueryParamsException {
+        var value = getParamString(paramName);
+
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw getConvertException(paramName, value, "Integer");
+        }
+    }
+
+    long getParamLong(String paramName) throws QueryParamsException {
+        var value = getParamString(paramName);
+
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw getConvertException(paramName, value, "Long");
+        }
+    }
+
     double getParamDouble(String paramName) throws QueryParamsException {
         var value = getParamString(paramName);
 
@@ -0,0 +1,240 @@
+package ru.mt.controller.accesslog;
+
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.app.Configuration;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Processor;
+import ru.mt.utils.TimeUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Access log of the REST API.
+ * <p>
+ * Request threads only put fixed-size binary entries into the lock-free ring buffer
+ * (without any string formatting and locking). The background writer drains the entries by batches,
+ * formats them and appends to the rolling file. If the writer falls behind and the buffer is full,
+ * the entries are dropped and counted by the metric mt_access_log_dropped_total.
+ */
+@Log4j2
+public class AccessLog extends Component {
+    /**
+     * Ring buffer capacity (entries)
+     */
+    private static final int BUFFER_CAPACITY = 64 * 1024;
+    /**
+     * Max count of entries written to the file at once
+     */
+    private static final int BATCH_SIZE = 1024;
+    /**
+     * Max length of one formatted entry
+     */
+    private static final int MAX_LINE_LENGTH = 256;
+    /**
+     * Pause of the writer when there are no new entries (ms)
+     */
+    private static final int IDLE_PAUSE = 10;
+
+    private final AccessLogRingBuffer buffer = new AccessLogRingBuffer(BUFFER_CAPACITY);
+    private final List<String> endpoints = new CopyOnWriteArrayList<>();
+    private final Counter droppedCounter;
+    private final RollingFileWriter fileWriter;
+    private final Processor writeProcessor;
+
+    private final StringBuilder lineBuilder = new StringBuilder(MAX_LINE_LENGTH);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BATCH_SIZE * MAX_LINE_LENGTH);
+
+    public AccessLog() throws IOException {
+        MetricsRegistry metrics = Configuration.getComponent(MetricsRegistry.class);
+        droppedCounter = metrics.counter("mt_access_log_dropped_total",
+                "Count of access log entries dropped because the buffer was full");
+        metrics.gauge("mt_access_log_buffer_size", "Count of access log entries waiting for writing", buffer::size);
+
+        fileWriter = new RollingFileWriter(
+                Path.of(System.getProperty("mt.accesslog.file", "logs/access.log")),
+                Long.getLong("mt.accesslog.maxFileSize", 64 * 1024 * 1024),
+                Integer.getInteger("mt.accesslog.maxBackups", 10));
+
+        writeProcessor = new Processor("access-log", this::writeEntries);
+        writeProcessor.start();
+    }
+
+    @Override
+    protected void destroyInternal() {
+        writeProcessor.stop();
+
+        try {
+            // write the rest of the entries
+            while (writeBatch() > 0) {
+                // until the buffer is empty
+            }
+            fileWriter.close();
+        } catch (IOException e) {
+            log.error("Access log closing failed", e);
+        }
+    }
+
+    /**
+     * @return the endpoint id to use in {@link #record}
+     */
+    public int registerEndpoint(String path) {
+        endpoints.add(path);
+        return endpoints.size() - 1;
+    }
+
+    /**
+     * Records the request. Does not allocate memory and does not block.
+     *
+     * @param accountId1 first account id of the request (may be null)
+     * @param accountId2 second account id of the request (may be null)
+     */
+    public void record(long requestId, int endpointId, int statusCode, long latencyNanos,
+                       String accountId1, String accountId2) {
+
+        var added = buffer.offer(
+                TimeUtils.getTimestamp(),
+                requestId,
+                ((long) endpointId << 32) | statusCode,
+                latencyNanos,
+                uuidMostSigBits(accountId1),
+                uuidLeastSigBits(accountId1),
+                uuidMostSigBits(accountId2),
+                uuidLeastSigBits(accountId2));
+
+        if (!added) {
+            droppedCounter.inc();
+        }
+    }
+
+    //region writing
+
+    private void writeEntries() throws InterruptedException {
+        try {
+            if (writeBatch() == 0) {
+                Thread.sleep(IDLE_PAUSE);
+            }
+        } catch (IOException e) {
+            log.error("Access log writing failed", e);
+        }
+    }
+
+    private int writeBatch() throws IOException {
+        writeBuffer.clear();
+        var count = buffer.drain(this::formatEntry, BATCH_SIZE);
+        if (count > 0) {
+            writeBuffer.flip();
+            fileWriter.write(writeBuffer);
+        }
+
+        return count;
+    }
+
+    /**
+     * Line format: timestamp request-id endpoint status-code latency-ms account-id-1 account-id-2
+     */
+    private void formatEntry(long[] entries, int offset) {
+        var sb = lineBuilder;
+        sb.setLength(0);
+
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(entries[offset]), sb);
+        sb.append(' ').append(entries[offset + 1]);
+
+        var endpointId = (int) (entries[offset + 2] >>> 32);
+        sb.append(' ').append(endpointId < endpoints.size() ? endpoints.get(endpointId) : "?");
+        sb.append(' ').append((int) entries[offset + 2]);
+
+        var latencyMicros = entries[offset + 3] / 1000;
+        sb.append(' ').append(latencyMicros / 1000).append('.');
+        var fraction = latencyMicros % 1000;
+        if (fraction < 100) sb.append('0');
+        if (fraction < 10) sb.append('0');
+        sb.append(fraction).append(" ms");
+
+        sb.append(' ');
+        appendUuid(sb, entries[offset + 4], entries[offset + 5]);
+        sb.append(' ');
+        appendUuid(sb, entries[offset + 6], entries[offset + 7]);
+        sb.append('\n');
+
+        var length = Math.min(sb.length(), MAX_LINE_LENGTH);
+        for (int i = 0; i < length; i++) {
+            writeBuffer.put((byte) sb.charAt(i));
+        }
+    }
+
+    //endregion
+
+    //region uuid <-> longs without allocations
+
+    private static boolean isUuid(String s) {
+        if (s == null || s.length() != 36) {
+            return false;
+        }
+
+        for (int i = 0; i < 36; i++) {
+            var c = s.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (Character.digit(c, 16) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long uuidMostSigBits(String s) {
+        return isUuid(s) ? parseHex(s, 0, 18) : 0;
+    }
+
+    private static long uuidLeastSigBits(String s) {
+        return isUuid(s) ? parseHex(s, 19, 36) : 0;
+    }
+
+    private static long parseHex(String s, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            var c = s.charAt(i);
+            if (c != '-') {
+                value = (value << 4) | Character.digit(c, 16);
+            }
+        }
+
+        return value;
+    }
+
+    private static void appendUuid(StringBuilder sb, long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            sb.append('-');
+            return;
+        }
+
+        appendHex(sb, msb >>> 32, 8);
+        sb.append('-');
+        appendHex(sb, msb >>> 16, 4);
+        sb.append('-');
+        appendHex(sb, msb, 4);
+        sb.append('-');
+        appendHex(sb, lsb >>> 48, 4);
+        sb.append('-');
+        appendHex(sb, lsb, 12);
+    }
+
+    private static void appendHex(StringBuilder sb, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            sb.append(Character.forDigit((int) (value >>> (i * 4)) & 0xF, 16));
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,102 @@
+package ru.mt.controller.accesslog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded ring buffer of fixed-size binary entries with many producers and one consumer.
+ * Each entry is {@link #ENTRY_SIZE} longs. When the buffer is full a new entry is rejected,
+ * so producers never wait for the consumer.
+ */
+class AccessLogRingBuffer {
+    static final int ENTRY_SIZE = 8;
+
+    interface EntryConsumer {
+        /**
+         * @param entries the array that contains the entry
+         * @param offset  the index of the first long of the entry in the array
+         */
+        void accept(long[] entries, int offset);
+    }
+
+    private final int mask;
+    private final long[] entries;
+    /**
+     * For each slot: sequence number of the published entry plus one (0 - nothing was published)
+     */
+    private final AtomicLongArray published;
+    /**
+     * Next sequence number to claim by producers
+     */
+    private final AtomicLong tail = new AtomicLong();
+    /**
+     * Next sequence number to consume
+     */
+    private volatile long head = 0;
+
+    AccessLogRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two");
+        }
+
+        mask = capacity - 1;
+        entries = new long[capacity * ENTRY_SIZE];
+        published = new AtomicLongArray(capacity);
+    }
+
+    boolean offer(long v0, long v1, long v2, long v3, long v4, long v5, long v6, long v7) {
+        var capacity = mask + 1;
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        var slot = (int) (sequence & mask);
+        var offset = slot * ENTRY_SIZE;
+        entries[offset] = v0;
+        entries[offset + 1] = v1;
+        entries[offset + 2] = v2;
+        entries[offset + 3] = v3;
+        entries[offset + 4] = v4;
+        entries[offset + 5] = v5;
+        entries[offset + 6] = v6;
+        entries[offset + 7] = v7;
+
+        // release store: the entry data becomes visible to the consumer together with the sequence
+        published.lazySet(slot, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Passes up to maxCount published entries to the consumer in the order of their sequence numbers.
+     * Must be called only from one thread.
+     *
+     * @return count of consumed entries
+     */
+    int drain(EntryConsumer consumer, int maxCount) {
+        var sequence = head;
+        int count = 0;
+
+        while (count < maxCount) {
+            var slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence + 1) {
+                break;
+            }
+
+            consumer.accept(entries, slot * ENTRY_SIZE);
+            sequence++;
+            count++;
+        }
+
+        // the slots are released only after their data has been read
+        head = sequence;
+        return count;
+    }
+
+    int size() {
+        return (int) (tail.get() - head);
+    }
+}
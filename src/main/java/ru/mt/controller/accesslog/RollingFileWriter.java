@@ -0,0 +1,73 @@
+package ru.mt.controller.accesslog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends data to the file and rolls it over when the file size exceeds the limit:
+ * name -> name.1 -> name.2 ... -> name.{maxBackupCount} (the oldest is deleted)
+ */
+class RollingFileWriter implements AutoCloseable {
+    private final Path path;
+    private final long maxFileSize;
+    private final int maxBackupCount;
+    private FileChannel channel;
+
+    RollingFileWriter(Path path, long maxFileSize, int maxBackupCount) throws IOException {
+        this.path = path;
+        this.maxFileSize = maxFileSize;
+        this.maxBackupCount = maxBackupCount;
+
+        var dir = path.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    void write(ByteBuffer buffer) throws IOException {
+        if (channel.size() >= maxFileSize) {
+            rollOver();
+        }
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void rollOver() throws IOException {
+        channel.close();
+
+        for (int i = maxBackupCount - 1; i >= 1; i--) {
+            var source = backupPath(i);
+            if (Files.exists(source)) {
+                Files.move(source, backupPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxBackupCount > 0) {
+            Files.move(path, backupPath(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(path);
+        }
+
+        open();
+    }
+
+    private Path backupPath(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
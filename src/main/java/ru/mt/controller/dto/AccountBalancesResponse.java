@@ -0,0 +1,41 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+public class AccountBalancesResponse extends MoneyTransferResponse {
+    private final List<Balance> balances;
+
+    @Getter
+    public static class Balance {
+        private final String accountId;
+        private final String balance;
+
+        Balance(String accountId, BigDecimal balance) {
+            this.accountId = accountId;
+            this.balance = balance.setScale(2, RoundingMode.UP).toString();
+        }
+    }
+
+    /**
+     * @param balances in the order of the account ids
+     */
+    public AccountBalancesResponse(List<String> accountIds, List<BigDecimal> balances) {
+        super(ResponseStatus.OK);
+
+        this.balances = new ArrayList<>(accountIds.size());
+        for (int i = 0; i < accountIds.size(); i++) {
+            this.balances.add(new Balance(accountIds.get(i), balances.get(i)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OK: count %d", balances.size());
+    }
+}
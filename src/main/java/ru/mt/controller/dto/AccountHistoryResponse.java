@@ -0,0 +1,47 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.LedgerPage;
+
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Getter
+public class AccountHistoryResponse extends MoneyTransferResponse {
+    private final String accountId;
+    private final List<Entry> entries;
+    /**
+     * Cursor of the next page or -1 if there are no more entries
+     */
+    private final long nextCursor;
+
+    @Getter
+    public static class Entry {
+        private final long ts;
+        private final String transactionId;
+        private final String amount;
+        private final String balance;
+
+        Entry(LedgerEntry entry) {
+            ts = entry.getTs();
+            transactionId = entry.getTransactionId();
+            amount = entry.getAmount().setScale(2, RoundingMode.UP).toString();
+            balance = entry.getBalance().setScale(2, RoundingMode.UP).toString();
+        }
+    }
+
+    public AccountHistoryResponse(String accountId, LedgerPage page) {
+        super(ResponseStatus.OK);
+
+        this.accountId = accountId;
+        this.entries = page.getEntries().stream().map(Entry::new).collect(Collectors.toList());
+        this.nextCursor = page.getNextCursor();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OK: accountId = %s; count %d; nextCursor = %d", accountId, entries.size(), nextCursor);
+    }
+}
@@ -0,0 +1,27 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * The accounts are created, but some of them are not funded
+ */
+@Getter
+public class AccountIdsErrorResponse extends ErrorResponse implements StreamedResponse {
+    private final Collection<String> accountIds;
+    private final Collection<String> unfundedAccountIds;
+
+    public AccountIdsErrorResponse(String message, Collection<String> accountIds, Collection<String> unfundedAccountIds) {
+        super(message);
+
+        this.accountIds = accountIds;
+        this.unfundedAccountIds = unfundedAccountIds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ERROR: %s; count %d, unfunded %d", getMessage(), accountIds.size(),
+                unfundedAccountIds.size());
+    }
+}
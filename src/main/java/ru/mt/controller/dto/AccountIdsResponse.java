@@ -2,13 +2,13 @@ package ru.mt.controller.dto;
 
 import lombok.Getter;
 
-import java.util.Set;
+import java.util.Collection;
 
 @Getter
-public class AccountIdsResponse extends MoneyTransferResponse {
-    private final Set<String> accountIds;
+public class AccountIdsResponse extends MoneyTransferResponse implements StreamedResponse {
+    private final Collection<String> accountIds;
 
-    public AccountIdsResponse(Set<String> accountIds) {
+    public AccountIdsResponse(Collection<String> accountIds) {
         super(ResponseStatus.OK);
 
         this.accountIds = accountIds;
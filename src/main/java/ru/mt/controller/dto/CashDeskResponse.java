@@ -0,0 +1,24 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+@Getter
+public class CashDeskResponse extends MoneyTransferResponse {
+    private final String depositedAmount;
+    private final String withdrawnAmount;
+
+    public CashDeskResponse(BigDecimal depositedAmount, BigDecimal withdrawnAmount) {
+        super(ResponseStatus.OK);
+
+        this.depositedAmount = depositedAmount.setScale(2, RoundingMode.UP).toString();
+        this.withdrawnAmount = withdrawnAmount.setScale(2, RoundingMode.UP).toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OK: depositedAmount = %s; withdrawnAmount = %s", depositedAmount, withdrawnAmount);
+    }
+}
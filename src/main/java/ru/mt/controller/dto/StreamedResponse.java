@@ -0,0 +1,8 @@
+package ru.mt.controller.dto;
+
+/**
+ * The response may be large (e.g. a list of accounts), so it is written into the connection
+ * while it is serialized instead of being serialized into a buffer first
+ */
+public interface StreamedResponse {
+}
@@ -0,0 +1,30 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+import ru.mt.domain.BalanceTotals;
+
+import java.math.RoundingMode;
+
+@Getter
+public class TotalsResponse extends MoneyTransferResponse {
+    private final String balance;
+    private final String reserved;
+    private final String available;
+    private final String supply;
+    private final boolean moneyConserved;
+
+    public TotalsResponse(BalanceTotals totals) {
+        super(ResponseStatus.OK);
+
+        this.balance = totals.getBalance().setScale(2, RoundingMode.UP).toString();
+        this.reserved = totals.getReserved().setScale(2, RoundingMode.UP).toString();
+        this.available = totals.getAvailable().setScale(2, RoundingMode.UP).toString();
+        this.supply = totals.getSupply().setScale(2, RoundingMode.UP).toString();
+        this.moneyConserved = totals.isMoneyConserved();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OK: balance = %s; reserved = %s; supply = %s", balance, reserved, supply);
+    }
+}
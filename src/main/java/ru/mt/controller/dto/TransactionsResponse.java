@@ -0,0 +1,50 @@
+package ru.mt.controller.dto;
+
+import lombok.Getter;
+import ru.mt.domain.TransactionPage;
+import ru.mt.domain.TransactionRecord;
+
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Getter
+public class TransactionsResponse extends MoneyTransferResponse {
+    private final List<Item> transactions;
+    /**
+     * Cursor of the next page or -1 if there are no more transactions
+     */
+    private final long nextCursor;
+
+    @Getter
+    public static class Item {
+        private final String id;
+        private final long ts;
+        private final String accountIdFrom;
+        private final String accountIdTo;
+        private final String amount;
+        private final String status;
+
+        Item(TransactionRecord record) {
+            var transaction = record.getTransaction();
+            id = transaction.getId();
+            ts = transaction.getTs();
+            accountIdFrom = transaction.getAccountIdFrom();
+            accountIdTo = transaction.getAccountIdTo();
+            amount = transaction.getAmount().setScale(2, RoundingMode.UP).toString();
+            status = record.getStatus().name();
+        }
+    }
+
+    public TransactionsResponse(TransactionPage page) {
+        super(ResponseStatus.OK);
+
+        this.transactions = page.getRecords().stream().map(Item::new).collect(Collectors.toList());
+        this.nextCursor = page.getNextCursor();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OK: count %d; nextCursor = %d", transactions.size(), nextCursor);
+    }
+}
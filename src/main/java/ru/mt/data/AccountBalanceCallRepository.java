@@ -2,6 +2,7 @@ package ru.mt.data;
 
 import ru.mt.domain.AccountBalanceCall;
 import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.CallLane;
 
 /**
  * Repository for AccountBalanceCall entities.
@@ -11,11 +12,29 @@ public interface AccountBalanceCallRepository {
 
     void initShards(int shardCount);
 
-    void putNewCall(AccountBalanceCall call, int shardIndex);
+    /**
+     * Puts the call into the lane of the shard queue by the call type
+     *
+     * @param timeoutMillis how long to wait for a free space if the queue is full
+     * @return false if the lane is full
+     */
+    boolean putNewCall(AccountBalanceCall call, int shardIndex, long timeoutMillis) throws InterruptedException;
 
     AccountBalanceCallResult getCallResult(String callId, long timeoutMillis) throws InterruptedException;
 
-    AccountBalanceCall getNextCall(int shardIndex, long timeoutMillis) throws InterruptedException;
+    /**
+     * Takes the next call of the shard from the first non-empty lane
+     *
+     * @param laneOrder all the lanes in the order of preference (the scheduling is up to the consumer)
+     * @return the call or null if there are no calls to execute after the timeout
+     */
+    AccountBalanceCall getNextCall(int shardIndex, CallLane[] laneOrder, long timeoutMillis)
+            throws InterruptedException;
 
     void setCallResult(String callId, AccountBalanceCallResult result);
+
+    /**
+     * @return count of calls that are waiting for processing in all the lanes of the shard queue
+     */
+    int getQueueSize(int shardIndex);
 }
@@ -5,6 +5,9 @@ import ru.mt.domain.Reservation;
 import ru.mt.domain.ReservationStatus;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -14,10 +17,30 @@ public interface AccountRepository {
 
     void saveNewAccount(Account account);
 
+    /**
+     * Saves many new accounts at once (e.g. the accounts of one shard created in bulk)
+     */
+    void saveNewAccounts(Collection<Account> accounts);
+
     Set<String> findAllAccount();
 
     Account findAccount(String accountId);
 
+    /**
+     * Saves the sub-balances of the split account (the account itself is the first one)
+     */
+    void saveSplitAccount(String accountId, List<String> subAccountIds);
+
+    /**
+     * @return sub-balances of the split account or null if the account is not split
+     */
+    List<String> findSubAccounts(String accountId);
+
+    /**
+     * @return ids of all the sub-balances of the split accounts except the split accounts themselves
+     */
+    Set<String> findAllSubAccounts();
+
     void saveNewReservation(Reservation reservation);
 
     Reservation findReservation(String accountId, String transactionId);
@@ -30,4 +53,16 @@ public interface AccountRepository {
     void updateReservationStatus(String accountId, String transactionId, ReservationStatus status);
 
     void updateAccountBalance(String accountId, BigDecimal balance);
+
+    /**
+     * Updates balances of two accounts at once (e.g. moving money between an account and the cash desk)
+     */
+    void updateAccountBalances(String accountId1, BigDecimal balance1, String accountId2, BigDecimal balance2);
+
+    /**
+     * Updates balances of many accounts at once
+     *
+     * @param balances key: account id, value: new balance
+     */
+    void updateAccountBalances(Map<String, BigDecimal> balances);
 }
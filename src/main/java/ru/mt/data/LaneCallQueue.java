@@ -0,0 +1,70 @@
+package ru.mt.data;
+
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.CallLane;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory call queue of one shard with a FIFO per lane (see {@link CallLane}).
+ * The semaphore counts the calls of all the lanes, so the consumer waits for a call of any lane.
+ * <p>
+ * Any count of producers, one consumer.
+ */
+public class LaneCallQueue {
+    private final LinkedBlockingQueue<AccountBalanceCall>[] lanes;
+    private final Semaphore callCount = new Semaphore(0);
+
+    /**
+     * @param laneCapacity max count of calls in one lane
+     */
+    @SuppressWarnings("unchecked")
+    public LaneCallQueue(int laneCapacity) {
+        lanes = new LinkedBlockingQueue[CallLane.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new LinkedBlockingQueue<>(laneCapacity);
+        }
+    }
+
+    /**
+     * Puts the call into the lane of its type
+     *
+     * @param timeoutMillis how long to wait for a free space if the lane is full
+     * @return false if the lane is full
+     */
+    public boolean offer(AccountBalanceCall call, long timeoutMillis) throws InterruptedException {
+        var lane = lanes[call.getCallType().getLane().ordinal()];
+        if (!lane.offer(call, timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+
+        callCount.release();
+        return true;
+    }
+
+    /**
+     * @param laneOrder all the lanes in the order of preference
+     * @return the call from the first non-empty lane or null if there are no calls after the timeout
+     */
+    public AccountBalanceCall poll(CallLane[] laneOrder, long timeoutMillis) throws InterruptedException {
+        if (!callCount.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+
+        // the permit is released after the call is put, so one of the lanes has the call
+        for (var lane : laneOrder) {
+            var call = lanes[lane.ordinal()].poll();
+            if (call != null) {
+                return call;
+            }
+        }
+
+        throw new IllegalStateException("Call queue is empty while the call count is positive");
+    }
+
+    public int size() {
+        return callCount.availablePermits();
+    }
+}
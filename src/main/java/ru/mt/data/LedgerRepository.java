@@ -0,0 +1,35 @@
+package ru.mt.data;
+
+import ru.mt.domain.LedgerPage;
+
+import java.math.BigDecimal;
+
+/**
+ * Append-only ledgers of the account balance changes
+ */
+public interface LedgerRepository {
+    /**
+     * Appends the entry to the end of the account ledger; its timestamp is not less than the previous one.
+     * Called only by the thread of the account shard.
+     *
+     * @param transactionId null for the technical operations
+     * @param amount        change of the balance
+     * @param balance       the balance after the change
+     */
+    void append(String accountId, String transactionId, BigDecimal amount, BigDecimal balance);
+
+    /**
+     * Finds the entries of the account ledger in the time range in the order they were appended
+     *
+     * @param fromTs the first page starts from the first entry with the timestamp >= fromTs
+     * @param toTs   exclusive
+     * @param cursor the cursor returned with the previous page or -1 for the first page
+     * @param limit  max count of the entries in the page
+     */
+    LedgerPage findEntries(String accountId, long fromTs, long toTs, long cursor, int limit);
+
+    /**
+     * @return the balance after the last change at or before the time or null if there were no changes before it
+     */
+    BigDecimal findBalanceAt(String accountId, long ts);
+}
@@ -1,18 +1,76 @@
 package ru.mt.data;
 
 import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionPage;
 import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface TransactionRepository {
 
-    void saveNewTransaction(Transaction transaction);
+    /**
+     * Saves the transaction and puts it into the processing queue
+     *
+     * @return false if the processing queue is full (the transaction is not saved)
+     */
+    boolean saveNewTransaction(Transaction transaction);
+
+    /**
+     * Saves the transaction which has been already processed without the processing queue
+     * (e.g. deposit or withdraw executed by one balance call)
+     *
+     * @param reason reason of the status (e.g. the denial reason) or null
+     */
+    void saveProcessedTransaction(Transaction transaction, TransactionStatus finalStatus, String reason);
+
+    /**
+     * Saves the transactions processed together (e.g. the deposits of one batch call) with the same status,
+     * see saveProcessedTransaction
+     */
+    void saveProcessedTransactions(List<Transaction> transactions, TransactionStatus finalStatus, String reason);
+
+    /**
+     * Saves the new transaction which is processed by the caller itself without the processing queue
+     * (e.g. a borrow between the sub-balances of a split account), its statuses are set by updateTransactionStatus
+     */
+    void saveOwnTransaction(Transaction transaction);
 
-    TransactionStatus waitForNewTransactionStatus(
-            String transactionId, TransactionStatus previousStatus, long timeoutMillis) throws InterruptedException;
+    /**
+     * @return the future that is completed once, when the transaction reaches a final status
+     */
+    CompletableFuture<TransactionStatus> getFinalTransactionStatus(String transactionId);
 
     Transaction getNextTransaction(long timeoutMillis) throws InterruptedException;
 
     void commitTransactionHasBeenProcessed(String transactionId);
 
-    void updateTransactionStatus(String transactionId, TransactionStatus status);
+    /**
+     * @param reason reason of the status (e.g. the denial reason) or null
+     */
+    void updateTransactionStatus(String transactionId, TransactionStatus status, String reason);
+
+    /**
+     * Updates the statuses of many transactions at once (in the iteration order of the map),
+     * see {@link TransactionStatusWriter}
+     *
+     * @param updates key: transaction id, value: new status with its reason
+     */
+    void updateTransactionStatuses(Map<String, TransactionStatusUpdate> updates);
+
+    /**
+     * Finds the transactions by the indexes (without reading all the transactions), page by page
+     * in the order of saving (it is the order of the creation time up to the concurrent saves)
+     *
+     * @param cursor the cursor returned with the previous page or -1 for the first page
+     */
+    TransactionPage findTransactions(TransactionFilter filter, long cursor, int limit);
+
+    /**
+     * @return count of transactions that are waiting for processing
+     */
+    int getQueueSize();
 }
@@ -0,0 +1,184 @@
+package ru.mt.data;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.app.Configuration;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
+import ru.mt.metrics.Counter;
+import ru.mt.metrics.MetricsRegistry;
+import ru.mt.utils.Processor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batching stage of the transaction status updates (group commit).
+ * <p>
+ * The transaction processor only puts the updates into the queue. The writer thread takes all the queued updates
+ * at once, coalesces the updates of the same transaction (only the last status is written) and writes them
+ * to the repository by one batch. The batch is ordered by the last update of each transaction,
+ * so the waiters of the final statuses are notified in the order the transactions were completed.
+ * <p>
+ * Optionally (system property mt.transactions.elideIntermediateStatuses) the intermediate statuses
+ * are not written at all, only the final ones.
+ * <p>
+ * The reason of the status is captured when the update is queued: the status enum is shared by all the transactions,
+ * so its reason may belong to another transaction by the time the batch is written.
+ * <p>
+ * A failed batch is kept and retried after a growing pause together with the updates queued meanwhile,
+ * so the final statuses are not lost and their waiters are woken up when the repository is back.
+ */
+@Log4j2
+public class TransactionStatusWriter extends Component {
+    /**
+     * Max count of the updates taken from the queue at once
+     */
+    private static final int MAX_BATCH_SIZE = 1024;
+    /**
+     * Pause before the retry of the failed batch: doubled after every failure from the min to the max one
+     */
+    private static final long RETRY_MIN_PAUSE_MILLIS = 10;
+    private static final long RETRY_MAX_PAUSE_MILLIS = 1000;
+    /**
+     * Max count of failed attempts to write the rest of the updates at the destroying
+     */
+    private static final int DESTROY_MAX_FAILURES = 3;
+
+    @RequiredArgsConstructor
+    private static class StatusUpdate {
+        final String transactionId;
+        final TransactionStatusUpdate update;
+    }
+
+    private final TransactionRepository transactionRepo;
+    private final boolean elideIntermediateStatuses;
+    private final BlockingQueue<StatusUpdate> updateQueue = new LinkedBlockingQueue<>();
+    private final Processor writeProcessor;
+
+    // used only by the writer thread
+    private final List<StatusUpdate> updates = new ArrayList<>(MAX_BATCH_SIZE);
+    private final Map<String, TransactionStatusUpdate> batch = new LinkedHashMap<>();
+    private long retryPauseMillis = 0;
+
+    private final Counter writtenCounter;
+    private final Counter coalescedCounter;
+    private final Counter elidedCounter;
+    private final Counter batchCounter;
+    private final Counter failedBatchCounter;
+
+    public TransactionStatusWriter() {
+        this(Configuration.getComponent(TransactionRepository.class),
+                Configuration.getComponent(MetricsRegistry.class),
+                Boolean.getBoolean("mt.transactions.elideIntermediateStatuses"));
+    }
+
+    TransactionStatusWriter(
+            TransactionRepository transactionRepo, MetricsRegistry metrics, boolean elideIntermediateStatuses) {
+        this.transactionRepo = transactionRepo;
+        this.elideIntermediateStatuses = elideIntermediateStatuses;
+
+        var help = "Count of transaction status updates by the result of batching";
+        writtenCounter = metrics.counter("mt_transaction_status_updates_total", help, "result", "written");
+        coalescedCounter = metrics.counter("mt_transaction_status_updates_total", help, "result", "coalesced");
+        elidedCounter = metrics.counter("mt_transaction_status_updates_total", help, "result", "elided");
+        batchCounter = metrics.counter("mt_transaction_status_batches_total",
+                "Count of transaction status batches written to the repository");
+        failedBatchCounter = metrics.counter("mt_transaction_status_batch_failures_total",
+                "Count of failed writings of transaction status batches (the batch is retried)");
+        metrics.gauge("mt_transaction_status_queue_depth", "Count of transaction status updates waiting for writing",
+                updateQueue::size);
+
+        writeProcessor = new Processor("transaction-status-writer", this::writeStatuses);
+        writeProcessor.start();
+    }
+
+    @Override
+    protected void destroyInternal() {
+        writeProcessor.stop();
+
+        // write the rest of the updates, the failed batch is retried a few times
+        var failures = 0;
+        while ((!updateQueue.isEmpty() || !batch.isEmpty()) && failures < DESTROY_MAX_FAILURES) {
+            if (!writeBatch()) {
+                failures++;
+            }
+        }
+        if (!batch.isEmpty() || !updateQueue.isEmpty()) {
+            log.error("Transaction statuses are not written: {}", batch.size() + updateQueue.size());
+        }
+    }
+
+    /**
+     * Puts the status update into the queue for writing (with the current reason of the status). Does not block.
+     */
+    public void updateTransactionStatus(String transactionId, TransactionStatus status) {
+        if (elideIntermediateStatuses && !status.isFinal()) {
+            elidedCounter.inc();
+            return;
+        }
+
+        updateQueue.add(new StatusUpdate(transactionId, new TransactionStatusUpdate(status, status.getReason())));
+    }
+
+    //region writing
+
+    private void writeStatuses() throws InterruptedException {
+        if (retryPauseMillis > 0) {
+            // the failed batch is retried without waiting for new updates
+            Thread.sleep(retryPauseMillis);
+        } else {
+            var first = updateQueue.poll(1000, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return;
+            }
+            updates.add(first);
+        }
+
+        retryPauseMillis = writeBatch()
+                ? 0
+                : Math.min(Math.max(retryPauseMillis * 2, RETRY_MIN_PAUSE_MILLIS), RETRY_MAX_PAUSE_MILLIS);
+    }
+
+    /**
+     * Writes the queued updates together with the previously failed batch
+     *
+     * @return false if the writing failed, then the batch is kept for the retry
+     */
+    private boolean writeBatch() {
+        updateQueue.drainTo(updates, MAX_BATCH_SIZE - updates.size());
+        for (var update : updates) {
+            // re-insert to move the transaction to the position of its last update
+            if (batch.remove(update.transactionId) != null) {
+                coalescedCounter.inc();
+            }
+            batch.put(update.transactionId, update.update);
+        }
+        updates.clear();
+
+        if (batch.isEmpty()) {
+            return true;
+        }
+
+        try {
+            transactionRepo.updateTransactionStatuses(batch);
+        } catch (Throwable e) {
+            failedBatchCounter.inc();
+            log.error("Writing of transaction statuses failed, the batch will be retried: " + batch.size(), e);
+            return false;
+        }
+
+        writtenCounter.add(batch.size());
+        batchCounter.inc();
+        batch.clear();
+        return true;
+    }
+
+    //endregion
+}
@@ -2,40 +2,46 @@ package ru.mt.data.inmemory;
 
 import ru.mt.app.Component;
 import ru.mt.data.AccountBalanceCallRepository;
+import ru.mt.data.LaneCallQueue;
 import ru.mt.domain.AccountBalanceCall;
 import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.CallLane;
 
-import java.lang.reflect.Array;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 
 public class InMemoryAccountBalanceCallRepository extends Component implements AccountBalanceCallRepository {
+    /**
+     * Max count of calls in one lane of the queue of one shard
+     */
+    private static final int SHARD_QUEUE_CAPACITY = 100_000;
 
     private final Map<String, AccountBalanceCallTableRow> callTable = new ConcurrentHashMap<>();
-    private LinkedBlockingQueue<AccountBalanceCall>[] callQueueArray;
+    private LaneCallQueue[] callQueueArray;
 
     @Override
-    @SuppressWarnings("unchecked")
     public void initShards(int shardCount) {
         if (shardCount <= 0) {
             throw new IllegalArgumentException("shard count must be positive");
         }
 
-        callQueueArray = (LinkedBlockingQueue<AccountBalanceCall>[])
-                Array.newInstance(LinkedBlockingQueue.class, shardCount);
-
+        callQueueArray = new LaneCallQueue[shardCount];
         for (int i = 0; i < shardCount; i++) {
-            callQueueArray[i] = new LinkedBlockingQueue<>();
+            callQueueArray[i] = new LaneCallQueue(SHARD_QUEUE_CAPACITY);
         }
     }
 
     @Override
-    public void putNewCall(AccountBalanceCall call, int shardIndex) {
+    public boolean putNewCall(AccountBalanceCall call, int shardIndex, long timeoutMillis) throws InterruptedException {
         callTable.put(call.getId(), new AccountBalanceCallTableRow(call));
-        callQueueArray[shardIndex].add(call);
+
+        if (!callQueueArray[shardIndex].offer(call, timeoutMillis)) {
+            callTable.remove(call.getId());
+            return false;
+        }
+
+        return true;
     }
 
     @Override
@@ -51,8 +57,9 @@ public class InMemoryAccountBalanceCallRepository extends Component implements A
      * @return The next call or null if there is no new calls
      */
     @Override
-    public AccountBalanceCall getNextCall(int shardIndex, long timeoutMillis) throws InterruptedException {
-        return callQueueArray[shardIndex].poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    public AccountBalanceCall getNextCall(int shardIndex, CallLane[] laneOrder, long timeoutMillis)
+            throws InterruptedException {
+        return callQueueArray[shardIndex].poll(laneOrder, timeoutMillis);
     }
 
     @Override
@@ -61,6 +68,11 @@ public class InMemoryAccountBalanceCallRepository extends Component implements A
         row.setResult(result);
     }
 
+    @Override
+    public int getQueueSize(int shardIndex) {
+        return callQueueArray[shardIndex].size();
+    }
+
     private AccountBalanceCallTableRow getCallTableRow(String callId) {
         var row = callTable.get(callId);
         if (row == null) {
@@ -10,8 +10,10 @@ import ru.mt.utils.RandomUtils;
 import ru.mt.utils.TestUtils;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,6 +22,11 @@ import java.util.stream.Collectors;
 public class InMemoryAccountRepository extends Component implements AccountRepository {
 
     private Map<String, AccountTableRow> accountTable = new ConcurrentHashMap<>();
+    /**
+     * Key: split account id
+     * Value: sub-balances of the account
+     */
+    private Map<String, List<String>> splitAccountTable = new ConcurrentHashMap<>();
 
     @RequiredArgsConstructor
     private static class AccountTableRow {
@@ -57,6 +64,21 @@ public class InMemoryAccountRepository extends Component implements AccountRepos
         accountTable.put(id, row);
     }
 
+    @Override
+    public void saveNewAccounts(Collection<Account> accounts) {
+        for (var account : accounts) {
+            if (accountTable.containsKey(account.getId())) {
+                throw new IllegalStateException("Account with the same id already exists: " + account.getId());
+            }
+        }
+
+        var rows = new HashMap<String, AccountTableRow>(accounts.size() * 2);
+        for (var account : accounts) {
+            rows.put(account.getId(), new AccountTableRow(account));
+        }
+        accountTable.putAll(rows);
+    }
+
     @Override
     public Set<String> findAllAccount() {
         // makes a copy to prevent reflection of the accounts map's changes in this set of keys
@@ -69,6 +91,26 @@ public class InMemoryAccountRepository extends Component implements AccountRepos
         return row != null ? row.account : null;
     }
 
+    @Override
+    public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+        if (splitAccountTable.putIfAbsent(accountId, List.copyOf(subAccountIds)) != null) {
+            throw new IllegalStateException("Account is already split: " + accountId);
+        }
+    }
+
+    @Override
+    public List<String> findSubAccounts(String accountId) {
+        return splitAccountTable.get(accountId);
+    }
+
+    @Override
+    public Set<String> findAllSubAccounts() {
+        return splitAccountTable.values()
+                .stream()
+                .flatMap(subAccountIds -> subAccountIds.stream().skip(1))
+                .collect(Collectors.toSet());
+    }
+
     //endregion
 
     //region reservations
@@ -129,6 +171,23 @@ public class InMemoryAccountRepository extends Component implements AccountRepos
         row.account.setBalance(balance);
     }
 
+    @Override
+    public void updateAccountBalances(
+            String accountId1, BigDecimal balance1, String accountId2, BigDecimal balance2) {
+        var row1 = getAccountTableRow(accountId1);
+        var row2 = getAccountTableRow(accountId2);
+        row1.account.setBalance(balance1);
+        row2.account.setBalance(balance2);
+    }
+
+    @Override
+    public void updateAccountBalances(Map<String, BigDecimal> balances) {
+        // all the accounts are checked before any change
+        var rows = new HashMap<AccountTableRow, BigDecimal>(balances.size() * 2);
+        balances.forEach((accountId, balance) -> rows.put(getAccountTableRow(accountId), balance));
+        rows.forEach((row, balance) -> row.account.setBalance(balance));
+    }
+
     private Reservation getReservation(AccountTableRow row, String transactionId) {
         var reservation = row.reservations.get(transactionId);
         if (reservation == null) {
@@ -0,0 +1,137 @@
+package ru.mt.data.inmemory;
+
+import ru.mt.app.Component;
+import ru.mt.data.LedgerRepository;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.LedgerPage;
+import ru.mt.utils.TimeUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ledger of an account is stored in chunks of parallel arrays (no entry objects), the chunks are
+ * never moved or copied. The entry position is the ledger cursor, and since the timestamps grow with the positions,
+ * the time range is found by a binary search over the positions. Every entry keeps the resulting balance,
+ * so the balance at a time is read from the last entry before it.
+ * <p>
+ * The ledger has one writer (the shard thread) and is read without locks: the entry is written into its chunk
+ * before the ledger size is increased, and readers see only the entries below the size.
+ */
+public class InMemoryLedgerRepository extends Component implements LedgerRepository {
+    private static final int CHUNK_SIZE = 256;
+
+    private static class Chunk {
+        final long[] timestamps = new long[CHUNK_SIZE];
+        final String[] transactionIds = new String[CHUNK_SIZE];
+        final BigDecimal[] amounts = new BigDecimal[CHUNK_SIZE];
+        final BigDecimal[] balances = new BigDecimal[CHUNK_SIZE];
+    }
+
+    private static class AccountLedger {
+        /**
+         * Replaced by a longer copy when a chunk is added
+         */
+        volatile Chunk[] chunks = new Chunk[0];
+        volatile long size = 0;
+    }
+
+    /**
+     * Key: account id
+     */
+    private final Map<String, AccountLedger> ledgers = new ConcurrentHashMap<>();
+
+    @Override
+    public void append(String accountId, String transactionId, BigDecimal amount, BigDecimal balance) {
+        var ledger = ledgers.computeIfAbsent(accountId, id -> new AccountLedger());
+        var position = ledger.size;
+        var chunks = ledger.chunks;
+
+        var chunkIndex = (int) (position / CHUNK_SIZE);
+        if (chunkIndex == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunkIndex] = new Chunk();
+            ledger.chunks = chunks;
+        }
+
+        var i = (int) (position % CHUNK_SIZE);
+        var chunk = chunks[chunkIndex];
+        // the clock may go back, but the timestamps must not decrease
+        var ts = TimeUtils.getTimestamp();
+        chunk.timestamps[i] = position == 0 ? ts : Math.max(ts, getTs(chunks, position - 1));
+        chunk.transactionIds[i] = transactionId;
+        chunk.amounts[i] = amount;
+        chunk.balances[i] = balance;
+
+        // publishes the entry
+        ledger.size = position + 1;
+    }
+
+    @Override
+    public LedgerPage findEntries(String accountId, long fromTs, long toTs, long cursor, int limit) {
+        var ledger = ledgers.get(accountId);
+        if (ledger == null) {
+            return new LedgerPage(new ArrayList<>(), -1);
+        }
+
+        // the size is read first, so that the chunks of all the entries below it are visible
+        var size = ledger.size;
+        var chunks = ledger.chunks;
+
+        var position = cursor >= 0 ? cursor : findFirstPosition(chunks, size, fromTs);
+        var entries = new ArrayList<LedgerEntry>(Math.min(limit, 64));
+
+        for (; position < size && getTs(chunks, position) < toTs; position++) {
+            if (entries.size() == limit) {
+                return new LedgerPage(entries, position);
+            }
+            entries.add(getEntry(chunks, position));
+        }
+
+        return new LedgerPage(entries, -1);
+    }
+
+    @Override
+    public BigDecimal findBalanceAt(String accountId, long ts) {
+        var ledger = ledgers.get(accountId);
+        if (ledger == null) {
+            return null;
+        }
+
+        var size = ledger.size;
+        var chunks = ledger.chunks;
+        var position = (ts == Long.MAX_VALUE ? size : findFirstPosition(chunks, size, ts + 1)) - 1;
+        return position < 0 ? null : chunks[(int) (position / CHUNK_SIZE)].balances[(int) (position % CHUNK_SIZE)];
+    }
+
+    /**
+     * @return position of the first entry with the timestamp >= ts (or the size if there is no such entry)
+     */
+    private static long findFirstPosition(Chunk[] chunks, long size, long ts) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (getTs(chunks, middle) < ts) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long getTs(Chunk[] chunks, long position) {
+        return chunks[(int) (position / CHUNK_SIZE)].timestamps[(int) (position % CHUNK_SIZE)];
+    }
+
+    private static LedgerEntry getEntry(Chunk[] chunks, long position) {
+        var chunk = chunks[(int) (position / CHUNK_SIZE)];
+        var i = (int) (position % CHUNK_SIZE);
+        return new LedgerEntry(position, chunk.timestamps[i], chunk.transactionIds[i],
+                chunk.amounts[i], chunk.balances[i]);
+    }
+}
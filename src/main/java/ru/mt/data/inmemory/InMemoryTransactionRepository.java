@@ -3,29 +3,121 @@ package ru.mt.data.inmemory;
 import ru.mt.app.Component;
 import ru.mt.data.TransactionRepository;
 import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionPage;
+import ru.mt.domain.TransactionRecord;
 import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The transactions are indexed by seq (the order of saving), and the secondary indexes by account, by status
+ * and by time bucket keep the seqs, so a query walks the most selective index in the seq order
+ * and checks the other conditions only on the rows it meets.
+ * The indexes are maintained on every save and status change.
+ */
 public class InMemoryTransactionRepository extends Component implements TransactionRepository {
+    /**
+     * Max count of transactions waiting for processing
+     */
+    private static final int QUEUE_CAPACITY = 100_000;
+    private static final long TIME_BUCKET_MILLIS = 1000;
 
     private final Map<String, TransactionTableRow> transactionTable = new ConcurrentHashMap<>();
-    private final LinkedBlockingQueue<Transaction> transactionQueue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Transaction> transactionQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong seqSequence = new AtomicLong();
+
+    //region Indexes
+
+    private final ConcurrentSkipListMap<Long, TransactionTableRow> seqIndex = new ConcurrentSkipListMap<>();
+    /**
+     * Key: account id (from and to)
+     */
+    private final Map<String, NavigableSet<Long>> accountIndex = new ConcurrentHashMap<>();
+    /**
+     * Not modified after the construction. The status is changed without a lock, so the set of a status may keep
+     * the seq of a row which has already left the status: the queries check the current status of the row,
+     * and the removal of the row clears its seq from the sets of all the statuses
+     */
+    private final Map<TransactionStatus, NavigableSet<Long>> statusIndex = new EnumMap<>(TransactionStatus.class);
+    /**
+     * Key: time bucket, value: seq of the first transaction saved in the bucket.
+     * The transactions are saved right after they are created, so the seqs follow the time up to a bucket
+     */
+    private final ConcurrentSkipListMap<Long, Long> timeIndex = new ConcurrentSkipListMap<>();
+
+    //endregion
+
+    public InMemoryTransactionRepository() {
+        for (var status : TransactionStatus.values()) {
+            statusIndex.put(status, new ConcurrentSkipListSet<>());
+        }
+    }
 
     @Override
-    public void saveNewTransaction(Transaction transaction) {
-        transactionTable.put(transaction.getId(), new TransactionTableRow(transaction));
-        transactionQueue.add(transaction);
+    protected void destroyInternal() {
+        // wake up those who are still waiting for transactions completion
+        var error = new IllegalStateException("Transaction repository destroyed");
+        transactionTable.values().forEach(row -> row.getFinalStatus().completeExceptionally(error));
     }
 
     @Override
-    public TransactionStatus waitForNewTransactionStatus(
-            String transactionId, TransactionStatus previousStatus, long timeoutMillis) throws InterruptedException {
-        var row = getTransactionTableRow(transactionId);
-        return row.waitForNewStatus(previousStatus, timeoutMillis);
+    public boolean saveNewTransaction(Transaction transaction) {
+        var row = new TransactionTableRow(seqSequence.getAndIncrement(), transaction);
+        transactionTable.put(transaction.getId(), row);
+        addToIndexes(row);
+
+        if (!transactionQueue.offer(transaction)) {
+            transactionTable.remove(transaction.getId());
+            removeFromIndexes(row);
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void saveProcessedTransaction(Transaction transaction, TransactionStatus finalStatus, String reason) {
+        if (!finalStatus.isFinal()) {
+            throw new IllegalArgumentException("The transaction status is not final: " + finalStatus);
+        }
+
+        var row = new TransactionTableRow(seqSequence.getAndIncrement(), transaction);
+        row.setStatus(finalStatus);
+        transactionTable.put(transaction.getId(), row);
+        addToIndexes(row);
+    }
+
+    @Override
+    public void saveProcessedTransactions(List<Transaction> transactions, TransactionStatus finalStatus, String reason) {
+        for (var transaction : transactions) {
+            saveProcessedTransaction(transaction, finalStatus, reason);
+        }
+    }
+
+    @Override
+    public void saveOwnTransaction(Transaction transaction) {
+        var row = new TransactionTableRow(seqSequence.getAndIncrement(), transaction);
+        row.setStatus(transaction.getStatus());
+        transactionTable.put(transaction.getId(), row);
+        addToIndexes(row);
+    }
+
+    @Override
+    public CompletableFuture<TransactionStatus> getFinalTransactionStatus(String transactionId) {
+        return getTransactionTableRow(transactionId).getFinalStatus();
     }
 
     @Override
@@ -43,9 +135,65 @@ public class InMemoryTransactionRepository extends Component implements Transact
     }
 
     @Override
-    public void updateTransactionStatus(String transactionId, TransactionStatus status) {
+    public void updateTransactionStatus(String transactionId, TransactionStatus status, String reason) {
         var row = getTransactionTableRow(transactionId);
+        var oldStatus = row.getStatus();
+        // indexed before the status is set, so that the queries by the new status don't miss the transaction
+        statusIndex.get(status).add(row.getSeq());
         row.setStatus(status);
+        if (status != oldStatus) {
+            statusIndex.get(oldStatus).remove(row.getSeq());
+        }
+    }
+
+    @Override
+    public void updateTransactionStatuses(Map<String, TransactionStatusUpdate> updates) {
+        updates.forEach((transactionId, update) ->
+                updateTransactionStatus(transactionId, update.getStatus(), update.getReason()));
+    }
+
+    @Override
+    public TransactionPage findTransactions(TransactionFilter filter, long cursor, int limit) {
+        var fromSeq = Math.max(cursor, findFirstSeq(filter.getFromTs()));
+        var toSeq = findEndSeq(filter.getToTs());
+
+        // the most selective index drives the search
+        List<NavigableSet<Long>> indexes;
+        if (filter.getAccountId() != null) {
+            var accountSeqs = accountIndex.get(filter.getAccountId());
+            indexes = accountSeqs == null ? List.of() : List.of(accountSeqs);
+        } else if (filter.getStatuses() != null) {
+            indexes = new ArrayList<>(filter.getStatuses().size());
+            for (var status : filter.getStatuses()) {
+                indexes.add(statusIndex.get(status));
+            }
+        } else {
+            indexes = List.of(seqIndex.keySet());
+        }
+
+        var records = new ArrayList<TransactionRecord>(Math.min(limit, 64));
+        for (var seq = findNextSeq(indexes, fromSeq); seq >= 0 && seq < toSeq; seq = findNextSeq(indexes, seq + 1)) {
+            var row = seqIndex.get(seq);
+            if (row == null) {
+                continue;
+            }
+
+            var status = row.getStatus();
+            if (!filter.matches(row.getTransaction(), status)) {
+                continue;
+            }
+            if (records.size() == limit) {
+                return new TransactionPage(records, seq);
+            }
+            records.add(new TransactionRecord(seq, row.getTransaction(), status));
+        }
+
+        return new TransactionPage(records, -1);
+    }
+
+    @Override
+    public int getQueueSize() {
+        return transactionQueue.size();
     }
 
     private TransactionTableRow getTransactionTableRow(String transactionId) {
@@ -56,4 +204,88 @@ public class InMemoryTransactionRepository extends Component implements Transact
 
         return row;
     }
+
+    //region Indexes
+
+    private void addToIndexes(TransactionTableRow row) {
+        var seq = row.getSeq();
+        var transaction = row.getTransaction();
+
+        seqIndex.put(seq, row);
+        addToAccountIndex(transaction.getAccountIdFrom(), seq);
+        addToAccountIndex(transaction.getAccountIdTo(), seq);
+        statusIndex.get(row.getStatus()).add(seq);
+        timeIndex.putIfAbsent(transaction.getTs() / TIME_BUCKET_MILLIS, seq);
+    }
+
+    private void addToAccountIndex(String accountId, long seq) {
+        if (accountId != null) {
+            accountIndex.computeIfAbsent(accountId, id -> new ConcurrentSkipListSet<>()).add(seq);
+        }
+    }
+
+    /**
+     * The time index keeps the bucket: it only points where to start the search
+     */
+    private void removeFromIndexes(TransactionTableRow row) {
+        var seq = row.getSeq();
+        var transaction = row.getTransaction();
+
+        seqIndex.remove(seq);
+        removeFromAccountIndex(transaction.getAccountIdFrom(), seq);
+        removeFromAccountIndex(transaction.getAccountIdTo(), seq);
+        for (var seqs : statusIndex.values()) {
+            seqs.remove(seq);
+        }
+    }
+
+    private void removeFromAccountIndex(String accountId, long seq) {
+        if (accountId != null) {
+            var seqs = accountIndex.get(accountId);
+            if (seqs != null) {
+                seqs.remove(seq);
+            }
+        }
+    }
+
+    /**
+     * @return seq from which the transactions created at fromTs and later are saved
+     * (with a bucket of slack for the concurrent saves)
+     */
+    private long findFirstSeq(long fromTs) {
+        if (fromTs <= 0) {
+            return 0;
+        }
+
+        var bucket = timeIndex.ceilingEntry(fromTs / TIME_BUCKET_MILLIS - 1);
+        return bucket == null ? Long.MAX_VALUE : bucket.getValue();
+    }
+
+    /**
+     * @return seq before which all the transactions created before toTs are saved
+     */
+    private long findEndSeq(long toTs) {
+        if (toTs == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+
+        var bucket = timeIndex.ceilingEntry(toTs / TIME_BUCKET_MILLIS + 2);
+        return bucket == null ? Long.MAX_VALUE : bucket.getValue();
+    }
+
+    /**
+     * @return the least seq >= fromSeq in any of the indexes or -1 if there is no such seq
+     */
+    private static long findNextSeq(List<NavigableSet<Long>> indexes, long fromSeq) {
+        long nextSeq = -1;
+        for (var index : indexes) {
+            var seq = index.ceiling(fromSeq);
+            if (seq != null && (nextSeq < 0 || seq < nextSeq)) {
+                nextSeq = seq;
+            }
+        }
+        return nextSeq;
+    }
+
+    //endregion
 }
@@ -5,9 +5,15 @@ import lombok.RequiredArgsConstructor;
 import ru.mt.domain.Transaction;
 import ru.mt.domain.TransactionStatus;
 
+import java.util.concurrent.CompletableFuture;
+
 @RequiredArgsConstructor
 class TransactionTableRow {
-    private final Object signal = new Object();
+    /**
+     * Position of the transaction in the order of saving, the key of the indexes
+     */
+    @Getter
+    private final long seq;
     @Getter
     private final Transaction transaction;
     /**
@@ -15,27 +21,16 @@ class TransactionTableRow {
      */
     @Getter
     private volatile TransactionStatus status = TransactionStatus.CREATED;
+    /**
+     * Completed when the transaction reaches a final status, so waiters are woken exactly once
+     */
+    @Getter
+    private final CompletableFuture<TransactionStatus> finalStatus = new CompletableFuture<>();
 
     void setStatus(TransactionStatus status) {
-        synchronized (signal) {
-            this.status = status;
-            signal.notifyAll();
-        }
-    }
-
-    TransactionStatus waitForNewStatus(TransactionStatus previousStatus, long timeoutMillis) throws InterruptedException {
-        if (previousStatus.isFinal()) {
-            throw new IllegalArgumentException("The previous status does not have to be final");
-        }
-
-        synchronized (signal) {
-            // if status already changed
-            if (!status.equals(previousStatus)) {
-                return status;
-            }
-
-            signal.wait(timeoutMillis);
-            return status;
+        this.status = status;
+        if (status.isFinal()) {
+            finalStatus.complete(status);
         }
     }
 }
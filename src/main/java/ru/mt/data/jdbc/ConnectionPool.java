@@ -0,0 +1,139 @@
+package ru.mt.data.jdbc;
+
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed-size pool of JDBC connections.
+ * All the connections are opened at once, a caller borrows a connection for one repository operation.
+ * The pool is sized by the count of threads that work with the repositories concurrently,
+ * i.e. the shard threads plus a few service threads.
+ */
+@Log4j2
+public class ConnectionPool extends Component {
+    /**
+     * Max waiting time for a free connection (10 sec)
+     */
+    private static final int BORROW_TIMEOUT = 10_000;
+
+    private final List<Connection> connections = new ArrayList<>();
+    private final BlockingQueue<Connection> freeConnections;
+
+    public interface SqlFunction<T> {
+        T apply(Connection connection) throws SQLException;
+    }
+
+    public ConnectionPool(String url, String user, String password, int size) throws SQLException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("pool size must be positive");
+        }
+
+        freeConnections = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            var connection = DriverManager.getConnection(url, user, password);
+            connections.add(connection);
+            freeConnections.add(connection);
+        }
+
+        log.info("Connection pool opened: {} connections to {}", size, url);
+    }
+
+    @Override
+    protected void destroyInternal() {
+        for (var connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error("Connection closing failed", e);
+            }
+        }
+    }
+
+    /**
+     * Executes the function on a connection in auto-commit mode
+     */
+    public <T> T execute(SqlFunction<T> function) {
+        var connection = borrow();
+        try {
+            return function.apply(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL execution failed: " + e.getMessage(), e);
+        } finally {
+            freeConnections.add(connection);
+        }
+    }
+
+    /**
+     * Executes the function in one DB transaction: commits if the function completes normally,
+     * otherwise rolls back
+     */
+    public <T> T executeInTransaction(SqlFunction<T> function) {
+        var connection = borrow();
+        try {
+            connection.setAutoCommit(false);
+            try {
+                var result = function.apply(connection);
+                connection.commit();
+                return result;
+            } catch (Throwable e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("SQL transaction failed: " + e.getMessage(), e);
+        } finally {
+            freeConnections.add(connection);
+        }
+    }
+
+    /**
+     * Executes the SQL script from the class path resource (statements are separated by ';')
+     */
+    public void executeScript(String resourceName) throws IOException {
+        String script;
+        try (InputStream input = ConnectionPool.class.getResourceAsStream(resourceName)) {
+            if (input == null) {
+                throw new IOException("Resource not found: " + resourceName);
+            }
+            script = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        execute(connection -> {
+            try (var statement = connection.createStatement()) {
+                for (var sql : script.split(";")) {
+                    if (!sql.isBlank()) {
+                        statement.execute(sql);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private Connection borrow() {
+        try {
+            var connection = freeConnections.poll(BORROW_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (connection == null) {
+                throw new IllegalStateException("No free connection in the pool");
+            }
+            return connection;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Waiting for a free connection was interrupted");
+        }
+    }
+}
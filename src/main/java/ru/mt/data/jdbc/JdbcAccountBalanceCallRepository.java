@@ -0,0 +1,188 @@
+package ru.mt.data.jdbc;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.data.AccountBalanceCallRepository;
+import ru.mt.data.LaneCallQueue;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.CallLane;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Calls and their results are logged in the DB (the list values by the rows of balance_call_item),
+ * but the shard queues and the waiters of the results are kept in the process memory
+ * (the DB is used as a storage, not as a message broker).
+ */
+@Log4j2
+public class JdbcAccountBalanceCallRepository extends Component implements AccountBalanceCallRepository {
+    /**
+     * Max count of calls in one lane of the queue of one shard
+     */
+    private static final int SHARD_QUEUE_CAPACITY = 100_000;
+
+    @RequiredArgsConstructor
+    private static class PendingCall {
+        final AccountBalanceCall call;
+        final int shardIndex;
+        final CompletableFuture<AccountBalanceCallResult> result = new CompletableFuture<>();
+    }
+
+    private final ConnectionPool pool;
+    private LaneCallQueue[] callQueueArray;
+    /**
+     * Calls which results are not received yet.
+     * Key: call id
+     */
+    private final Map<String, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+
+    public JdbcAccountBalanceCallRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void initShards(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+
+        callQueueArray = new LaneCallQueue[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            callQueueArray[i] = new LaneCallQueue(SHARD_QUEUE_CAPACITY);
+        }
+    }
+
+    @Override
+    public boolean putNewCall(AccountBalanceCall call, int shardIndex, long timeoutMillis) throws InterruptedException {
+        pendingCalls.put(call.getId(), new PendingCall(call, shardIndex));
+
+        if (!callQueueArray[shardIndex].offer(call, timeoutMillis)) {
+            pendingCalls.remove(call.getId());
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public AccountBalanceCallResult getCallResult(String callId, long timeoutMillis) throws InterruptedException {
+        var pendingCall = getPendingCall(callId);
+
+        try {
+            var result = pendingCall.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            pendingCalls.remove(callId);
+            return result;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Call result failed: " + callId, e.getCause());
+        }
+    }
+
+    @Override
+    public AccountBalanceCall getNextCall(int shardIndex, CallLane[] laneOrder, long timeoutMillis)
+            throws InterruptedException {
+        return callQueueArray[shardIndex].poll(laneOrder, timeoutMillis);
+    }
+
+    /**
+     * Writes the call together with its result by one DB transaction (i.e. one DB write per call),
+     * then passes the result to the waiter
+     */
+    @Override
+    public void setCallResult(String callId, AccountBalanceCallResult result) {
+        var pendingCall = getPendingCall(callId);
+        try {
+            insertCall(pendingCall.call, pendingCall.shardIndex, result);
+        } catch (Throwable e) {
+            // the call has been already executed, so its result must be delivered anyway
+            log.error("Call logging failed: " + callId, e);
+        }
+        pendingCall.result.complete(result);
+    }
+
+    @Override
+    public int getQueueSize(int shardIndex) {
+        return callQueueArray[shardIndex].size();
+    }
+
+    private PendingCall getPendingCall(String callId) {
+        var pendingCall = pendingCalls.get(callId);
+        if (pendingCall == null) {
+            throw new IllegalStateException("Call not found: " + callId);
+        }
+
+        return pendingCall;
+    }
+
+    /**
+     * The call row and the rows of its list values are inserted in one DB transaction
+     */
+    private void insertCall(AccountBalanceCall call, int shardIndex, AccountBalanceCallResult result) {
+        pool.executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "INSERT INTO balance_call (id, ts, deadline, shard, call_type, account_id, transaction_id, amount, " +
+                            "counterparty_account_id, result_ts, result_amount, result_reservation, result_error) " +
+                            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+
+                statement.setString(1, call.getId());
+                statement.setLong(2, call.getTs());
+                statement.setLong(3, call.getDeadline());
+                statement.setInt(4, shardIndex);
+                statement.setString(5, call.getCallType().name());
+                statement.setString(6, call.getAccountId());
+                statement.setString(7, call.getTransactionId());
+                statement.setBigDecimal(8, call.getAmount());
+                statement.setString(9, call.getCounterpartyAccountId());
+                statement.setLong(10, result.getTs());
+                statement.setBigDecimal(11, result.getAmount());
+                statement.setString(12, result.getReservationStatus() != null
+                        ? result.getReservationStatus().name() : null);
+                statement.setString(13, result.getErrorMessage());
+                statement.executeUpdate();
+            }
+
+            var itemCount = Math.max(
+                    Math.max(sizeOf(call.getAccountIds()), sizeOf(call.getTransactionIds())),
+                    Math.max(sizeOf(call.getAmounts()), sizeOf(result.getReservationStatuses())));
+            if (itemCount == 0) {
+                return null;
+            }
+
+            try (var statement = connection.prepareStatement(
+                    "INSERT INTO balance_call_item (call_id, idx, account_id, transaction_id, amount, " +
+                            "result_amount, result_reservation) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+
+                for (int i = 0; i < itemCount; i++) {
+                    var reservationStatus = getItem(result.getReservationStatuses(), i);
+                    statement.setString(1, call.getId());
+                    statement.setInt(2, i);
+                    statement.setString(3, getItem(call.getAccountIds(), i));
+                    statement.setString(4, getItem(call.getTransactionIds(), i));
+                    statement.setBigDecimal(5, getItem(call.getAmounts(), i));
+                    statement.setBigDecimal(6, getItem(result.getAmounts(), i));
+                    statement.setString(7, reservationStatus != null ? reservationStatus.name() : null);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    private static int sizeOf(List<?> values) {
+        return values == null ? 0 : values.size();
+    }
+
+    private static <T> T getItem(List<T> values, int index) {
+        return values == null || index >= values.size() ? null : values.get(index);
+    }
+}
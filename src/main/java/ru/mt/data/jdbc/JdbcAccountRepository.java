@@ -0,0 +1,338 @@
+package ru.mt.data.jdbc;
+
+import ru.mt.app.Component;
+import ru.mt.data.AccountRepository;
+import ru.mt.domain.Account;
+import ru.mt.domain.Reservation;
+import ru.mt.domain.ReservationStatus;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+public class JdbcAccountRepository extends Component implements AccountRepository {
+    private final ConnectionPool pool;
+    /**
+     * Split accounts are read on every balance call, but they are few and never change after saving,
+     * so they are cached.
+     * Key: split account id
+     * Value: sub-balances of the account
+     */
+    private final Map<String, List<String>> splitAccountCache = new ConcurrentHashMap<>();
+
+    public JdbcAccountRepository(ConnectionPool pool) {
+        this.pool = pool;
+        loadSplitAccounts();
+    }
+
+    //region accounts
+
+    @Override
+    public void saveNewAccount(Account account) {
+        pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("INSERT INTO account (id, balance) VALUES (?, ?)")) {
+                statement.setString(1, account.getId());
+                statement.setBigDecimal(2, account.getBalance());
+                statement.executeUpdate();
+            } catch (SQLIntegrityConstraintViolationException e) {
+                throw new IllegalStateException("Account with the same id already exists: " + account.getId());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The accounts are inserted by one statement batch in one DB transaction
+     */
+    @Override
+    public void saveNewAccounts(Collection<Account> accounts) {
+        pool.executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement("INSERT INTO account (id, balance) VALUES (?, ?)")) {
+                for (var account : accounts) {
+                    statement.setString(1, account.getId());
+                    statement.setBigDecimal(2, account.getBalance());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Set<String> findAllAccount() {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("SELECT id FROM account");
+                 var resultSet = statement.executeQuery()) {
+
+                var ids = new HashSet<String>();
+                while (resultSet.next()) {
+                    ids.add(resultSet.getString(1));
+                }
+                return ids;
+            }
+        });
+    }
+
+    @Override
+    public Account findAccount(String accountId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("SELECT balance FROM account WHERE id = ?")) {
+                statement.setString(1, accountId);
+
+                try (var resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+
+                    var account = new Account(accountId);
+                    account.setBalance(resultSet.getBigDecimal(1));
+                    return account;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+        if (splitAccountCache.containsKey(accountId)) {
+            throw new IllegalStateException("Account is already split: " + accountId);
+        }
+
+        pool.executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "INSERT INTO split_account (account_id, idx, sub_account_id) VALUES (?, ?, ?)")) {
+
+                for (int i = 0; i < subAccountIds.size(); i++) {
+                    statement.setString(1, accountId);
+                    statement.setInt(2, i);
+                    statement.setString(3, subAccountIds.get(i));
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+
+        splitAccountCache.put(accountId, List.copyOf(subAccountIds));
+    }
+
+    @Override
+    public List<String> findSubAccounts(String accountId) {
+        return splitAccountCache.get(accountId);
+    }
+
+    @Override
+    public Set<String> findAllSubAccounts() {
+        return splitAccountCache.values()
+                .stream()
+                .flatMap(subAccountIds -> subAccountIds.stream().skip(1))
+                .collect(Collectors.toSet());
+    }
+
+    private void loadSplitAccounts() {
+        pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT account_id, sub_account_id FROM split_account ORDER BY account_id, idx");
+                 var resultSet = statement.executeQuery()) {
+
+                var splitAccounts = new HashMap<String, List<String>>();
+                while (resultSet.next()) {
+                    splitAccounts.computeIfAbsent(resultSet.getString(1), key -> new ArrayList<>())
+                            .add(resultSet.getString(2));
+                }
+                splitAccounts.forEach((accountId, subAccountIds) ->
+                        splitAccountCache.put(accountId, List.copyOf(subAccountIds)));
+            }
+            return null;
+        });
+    }
+
+    //endregion
+
+    //region reservations
+
+    @Override
+    public void saveNewReservation(Reservation reservation) {
+        pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "INSERT INTO reservation (account_id, transaction_id, ts, amount, status) VALUES (?, ?, ?, ?, ?)")) {
+
+                statement.setString(1, reservation.getAccountId());
+                statement.setString(2, reservation.getTransactionId());
+                statement.setLong(3, reservation.getTs());
+                statement.setBigDecimal(4, reservation.getAmount());
+                statement.setString(5, reservation.getStatus().name());
+                statement.executeUpdate();
+
+            } catch (SQLIntegrityConstraintViolationException e) {
+                throw new IllegalStateException(
+                        "Reservation with the same transaction id already exists: " + reservation.getTransactionId());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Reservation findReservation(String accountId, String transactionId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT amount, status FROM reservation WHERE account_id = ? AND transaction_id = ?")) {
+
+                statement.setString(1, accountId);
+                statement.setString(2, transactionId);
+
+                try (var resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+
+                    var reservation = new Reservation(accountId, transactionId, resultSet.getBigDecimal(1));
+                    reservation.setStatus(ReservationStatus.valueOf(resultSet.getString(2)));
+                    return reservation;
+                }
+            }
+        });
+    }
+
+    @Override
+    public Set<Reservation> getAllReservationWhereStatusOK(String accountId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT transaction_id, amount FROM reservation WHERE account_id = ? AND status = ?")) {
+
+                statement.setString(1, accountId);
+                statement.setString(2, ReservationStatus.OK.name());
+
+                try (var resultSet = statement.executeQuery()) {
+                    var reservations = new HashSet<Reservation>();
+                    while (resultSet.next()) {
+                        var reservation = new Reservation(accountId, resultSet.getString(1), resultSet.getBigDecimal(2));
+                        reservation.setStatus(ReservationStatus.OK);
+                        reservations.add(reservation);
+                    }
+                    return reservations;
+                }
+            }
+        });
+    }
+
+    /**
+     * Both changes are made in one DB transaction
+     */
+    @Override
+    public void updateAccountBalanceAndReservationStatus(
+            String accountId, String transactionId, BigDecimal balance, ReservationStatus status) {
+
+        pool.executeInTransaction(connection -> {
+            updateReservationStatus(connection, accountId, transactionId, status);
+            updateAccountBalance(connection, accountId, balance);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateReservationStatus(String accountId, String transactionId, ReservationStatus status) {
+        pool.execute(connection -> {
+            updateReservationStatus(connection, accountId, transactionId, status);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateAccountBalance(String accountId, BigDecimal balance) {
+        pool.execute(connection -> {
+            updateAccountBalance(connection, accountId, balance);
+            return null;
+        });
+    }
+
+    /**
+     * Both balances are updated by one statement batch in one DB transaction
+     */
+    @Override
+    public void updateAccountBalances(
+            String accountId1, BigDecimal balance1, String accountId2, BigDecimal balance2) {
+
+        pool.executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?")) {
+                statement.setBigDecimal(1, balance1);
+                statement.setString(2, accountId1);
+                statement.addBatch();
+                statement.setBigDecimal(1, balance2);
+                statement.setString(2, accountId2);
+                statement.addBatch();
+
+                var counts = statement.executeBatch();
+                checkUpdated(counts[0], "Account not found: " + accountId1);
+                checkUpdated(counts[1], "Account not found: " + accountId2);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * The balances are updated by one statement batch in one DB transaction
+     */
+    @Override
+    public void updateAccountBalances(Map<String, BigDecimal> balances) {
+        pool.executeInTransaction(connection -> {
+            try (var statement = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?")) {
+                var accountIds = new ArrayList<String>(balances.size());
+                for (var entry : balances.entrySet()) {
+                    accountIds.add(entry.getKey());
+                    statement.setBigDecimal(1, entry.getValue());
+                    statement.setString(2, entry.getKey());
+                    statement.addBatch();
+                }
+
+                var counts = statement.executeBatch();
+                for (int i = 0; i < counts.length; i++) {
+                    checkUpdated(counts[i], "Account not found: " + accountIds.get(i));
+                }
+            }
+            return null;
+        });
+    }
+
+    private static void updateReservationStatus(
+            Connection connection, String accountId, String transactionId, ReservationStatus status) throws SQLException {
+
+        try (var statement = connection.prepareStatement(
+                "UPDATE reservation SET status = ? WHERE account_id = ? AND transaction_id = ?")) {
+
+            statement.setString(1, status.name());
+            statement.setString(2, accountId);
+            statement.setString(3, transactionId);
+            checkUpdated(statement.executeUpdate(), "Reservation not found: " + transactionId);
+        }
+    }
+
+    private static void updateAccountBalance(
+            Connection connection, String accountId, BigDecimal balance) throws SQLException {
+
+        try (var statement = connection.prepareStatement("UPDATE account SET balance = ? WHERE id = ?")) {
+            statement.setBigDecimal(1, balance);
+            statement.setString(2, accountId);
+            checkUpdated(statement.executeUpdate(), "Account not found: " + accountId);
+        }
+    }
+
+    private static void checkUpdated(int updateCount, String errorMessage) {
+        if (updateCount != 1) {
+            throw new IllegalStateException(errorMessage);
+        }
+    }
+
+    //endregion
+}
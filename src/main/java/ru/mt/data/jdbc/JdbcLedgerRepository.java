@@ -0,0 +1,122 @@
+package ru.mt.data.jdbc;
+
+import ru.mt.app.Component;
+import ru.mt.data.LedgerRepository;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.LedgerPage;
+import ru.mt.utils.TimeUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The entry position (seq) is the ledger cursor. The time range is found by the index on (account id, ts),
+ * the pages after the first one - by the primary key (account id, seq).
+ * The balance at a time is read from the last entry before it, found by the same index.
+ */
+public class JdbcLedgerRepository extends Component implements LedgerRepository {
+    private final ConnectionPool pool;
+    /**
+     * Seq and timestamp of the last entry of the account ledger, so that the writer does not read them.
+     * Key: account id
+     */
+    private final Map<String, long[]> lastEntries = new ConcurrentHashMap<>();
+
+    public JdbcLedgerRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void append(String accountId, String transactionId, BigDecimal amount, BigDecimal balance) {
+        var lastEntry = lastEntries.computeIfAbsent(accountId, this::findLastEntry);
+        var seq = lastEntry[0] + 1;
+        // the clock may go back, but the timestamps must not decrease
+        var ts = Math.max(TimeUtils.getTimestamp(), lastEntry[1]);
+
+        pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("INSERT INTO ledger_entry "
+                    + "(account_id, seq, ts, transaction_id, amount, balance) VALUES (?, ?, ?, ?, ?, ?)")) {
+
+                statement.setString(1, accountId);
+                statement.setLong(2, seq);
+                statement.setLong(3, ts);
+                statement.setString(4, transactionId);
+                statement.setBigDecimal(5, amount);
+                statement.setBigDecimal(6, balance);
+                statement.executeUpdate();
+            }
+            return null;
+        });
+
+        lastEntry[0] = seq;
+        lastEntry[1] = ts;
+    }
+
+    /**
+     * @return [seq, ts] of the last entry or [-1, 0] if the ledger is empty
+     */
+    private long[] findLastEntry(String accountId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT seq, ts FROM ledger_entry WHERE account_id = ? ORDER BY seq DESC LIMIT 1")) {
+                statement.setString(1, accountId);
+
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next()
+                            ? new long[]{resultSet.getLong(1), resultSet.getLong(2)}
+                            : new long[]{-1, 0};
+                }
+            }
+        });
+    }
+
+    @Override
+    public LedgerPage findEntries(String accountId, long fromTs, long toTs, long cursor, int limit) {
+        var sql = "SELECT seq, ts, transaction_id, amount, balance FROM ledger_entry WHERE account_id = ? "
+                + (cursor >= 0 ? "AND seq >= ? " : "AND ts >= ? ")
+                + "AND ts < ? ORDER BY seq LIMIT ?";
+
+        var entries = pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(sql)) {
+                statement.setString(1, accountId);
+                statement.setLong(2, cursor >= 0 ? cursor : fromTs);
+                statement.setLong(3, toTs);
+                // one more entry shows whether there is the next page
+                statement.setInt(4, limit + 1);
+
+                try (var resultSet = statement.executeQuery()) {
+                    var result = new ArrayList<LedgerEntry>();
+                    while (resultSet.next()) {
+                        result.add(new LedgerEntry(resultSet.getLong(1), resultSet.getLong(2),
+                                resultSet.getString(3), resultSet.getBigDecimal(4), resultSet.getBigDecimal(5)));
+                    }
+                    return result;
+                }
+            }
+        });
+
+        if (entries.size() <= limit) {
+            return new LedgerPage(entries, -1);
+        }
+
+        var nextEntry = entries.remove(limit);
+        return new LedgerPage(entries, nextEntry.getSeq());
+    }
+
+    @Override
+    public BigDecimal findBalanceAt(String accountId, long ts) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("SELECT balance FROM ledger_entry "
+                    + "WHERE account_id = ? AND ts <= ? ORDER BY ts DESC, seq DESC LIMIT 1")) {
+                statement.setString(1, accountId);
+                statement.setLong(2, ts);
+
+                try (var resultSet = statement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getBigDecimal(1) : null;
+                }
+            }
+        });
+    }
+}
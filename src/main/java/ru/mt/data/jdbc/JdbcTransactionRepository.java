@@ -0,0 +1,304 @@
+package ru.mt.data.jdbc;
+
+import ru.mt.app.Component;
+import ru.mt.data.TransactionRepository;
+import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionPage;
+import ru.mt.domain.TransactionRecord;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactions are stored in the DB, but the processing queue and the waiters of the final statuses
+ * are kept in the process memory (the DB is used as a storage, not as a message broker).
+ */
+public class JdbcTransactionRepository extends Component implements TransactionRepository {
+    /**
+     * Max count of transactions waiting for processing
+     */
+    private static final int QUEUE_CAPACITY = 100_000;
+
+    private final ConnectionPool pool;
+    private final LinkedBlockingQueue<Transaction> transactionQueue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    /**
+     * Futures of the transactions which are not completed yet.
+     * Key: transaction id
+     */
+    private final Map<String, CompletableFuture<TransactionStatus>> finalStatuses = new ConcurrentHashMap<>();
+
+    public JdbcTransactionRepository(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    protected void destroyInternal() {
+        // wake up those who are still waiting for transactions completion
+        var error = new IllegalStateException("Transaction repository destroyed");
+        finalStatuses.values().forEach(future -> future.completeExceptionally(error));
+    }
+
+    @Override
+    public boolean saveNewTransaction(Transaction transaction) {
+        if (transactionQueue.remainingCapacity() == 0) {
+            return false;
+        }
+
+        insertTransaction(transaction, TransactionStatus.CREATED, null);
+        finalStatuses.put(transaction.getId(), new CompletableFuture<>());
+
+        if (!transactionQueue.offer(transaction)) {
+            finalStatuses.remove(transaction.getId());
+            pool.execute(connection -> {
+                try (var statement = connection.prepareStatement("DELETE FROM money_transaction WHERE id = ?")) {
+                    statement.setString(1, transaction.getId());
+                    statement.executeUpdate();
+                }
+                return null;
+            });
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void saveProcessedTransaction(Transaction transaction, TransactionStatus finalStatus, String reason) {
+        if (!finalStatus.isFinal()) {
+            throw new IllegalArgumentException("The transaction status is not final: " + finalStatus);
+        }
+
+        insertTransaction(transaction, finalStatus, reason);
+    }
+
+    /**
+     * All the transactions are written by one statement batch in one DB transaction
+     */
+    @Override
+    public void saveProcessedTransactions(List<Transaction> transactions, TransactionStatus finalStatus, String reason) {
+        if (!finalStatus.isFinal()) {
+            throw new IllegalArgumentException("The transaction status is not final: " + finalStatus);
+        }
+
+        pool.executeInTransaction(connection -> {
+            try (var statement = prepareInsert(connection)) {
+                for (var transaction : transactions) {
+                    setInsertParams(statement, transaction, finalStatus, reason);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public void saveOwnTransaction(Transaction transaction) {
+        insertTransaction(transaction, transaction.getStatus(), null);
+    }
+
+    @Override
+    public CompletableFuture<TransactionStatus> getFinalTransactionStatus(String transactionId) {
+        var future = finalStatuses.get(transactionId);
+        if (future != null) {
+            return future;
+        }
+
+        // the transaction has been already completed
+        var status = findTransactionStatus(transactionId);
+        if (status == null) {
+            throw new IllegalStateException("Transaction not found: " + transactionId);
+        }
+        if (!status.isFinal()) {
+            throw new IllegalStateException("Transaction is not processed by this instance: " + transactionId);
+        }
+
+        return CompletableFuture.completedFuture(status);
+    }
+
+    @Override
+    public Transaction getNextTransaction(long timeoutMillis) throws InterruptedException {
+        return transactionQueue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void commitTransactionHasBeenProcessed(String transactionId) {
+        // the transaction is removed from the in-process queue by getNextTransaction
+    }
+
+    @Override
+    public void updateTransactionStatus(String transactionId, TransactionStatus status, String reason) {
+        pool.execute(connection -> {
+            try (var statement = prepareUpdateStatus(connection)) {
+                setUpdateStatusParams(statement, transactionId, status, reason);
+                if (statement.executeUpdate() != 1) {
+                    throw new IllegalStateException("Transaction not found: " + transactionId);
+                }
+            }
+            return null;
+        });
+
+        notifyWaiters(transactionId, status);
+    }
+
+    /**
+     * All the statuses are written by one statement batch in one DB transaction
+     */
+    @Override
+    public void updateTransactionStatuses(Map<String, TransactionStatusUpdate> updates) {
+        pool.executeInTransaction(connection -> {
+            try (var statement = prepareUpdateStatus(connection)) {
+                for (var entry : updates.entrySet()) {
+                    var update = entry.getValue();
+                    setUpdateStatusParams(statement, entry.getKey(), update.getStatus(), update.getReason());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            return null;
+        });
+
+        updates.forEach((transactionId, update) -> notifyWaiters(transactionId, update.getStatus()));
+    }
+
+    /**
+     * The transactions are ordered by the auto-increment seq column, the conditions are served by the indexes
+     * on (account_id_from, seq), (account_id_to, seq), (status, seq) and ts
+     */
+    @Override
+    public TransactionPage findTransactions(TransactionFilter filter, long cursor, int limit) {
+        var sql = new StringBuilder("SELECT seq, id, ts, account_id_from, account_id_to, amount, status "
+                + "FROM money_transaction WHERE seq >= ? AND ts >= ? AND ts < ? ");
+        if (filter.getAccountId() != null) {
+            sql.append("AND (account_id_from = ? OR account_id_to = ?) ");
+        }
+        if (filter.getStatuses() != null) {
+            sql.append("AND status IN (")
+                    .append(String.join(", ", Collections.nCopies(filter.getStatuses().size(), "?")))
+                    .append(") ");
+        }
+        sql.append("ORDER BY seq LIMIT ?");
+
+        var records = pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(sql.toString())) {
+                var i = 0;
+                statement.setLong(++i, Math.max(cursor, 0));
+                statement.setLong(++i, filter.getFromTs());
+                statement.setLong(++i, filter.getToTs());
+                if (filter.getAccountId() != null) {
+                    statement.setString(++i, filter.getAccountId());
+                    statement.setString(++i, filter.getAccountId());
+                }
+                if (filter.getStatuses() != null) {
+                    for (var status : filter.getStatuses()) {
+                        statement.setString(++i, status.name());
+                    }
+                }
+                // one more transaction shows whether there is the next page
+                statement.setInt(++i, limit + 1);
+
+                try (var resultSet = statement.executeQuery()) {
+                    var result = new ArrayList<TransactionRecord>();
+                    while (resultSet.next()) {
+                        var status = TransactionStatus.valueOf(resultSet.getString(7));
+                        var transaction = Transaction.restore(resultSet.getString(2), resultSet.getLong(3),
+                                resultSet.getString(4), resultSet.getString(5), resultSet.getBigDecimal(6), status);
+                        result.add(new TransactionRecord(resultSet.getLong(1), transaction, status));
+                    }
+                    return result;
+                }
+            }
+        });
+
+        if (records.size() <= limit) {
+            return new TransactionPage(records, -1);
+        }
+
+        var nextRecord = records.remove(limit);
+        return new TransactionPage(records, nextRecord.getSeq());
+    }
+
+    @Override
+    public int getQueueSize() {
+        return transactionQueue.size();
+    }
+
+    private void insertTransaction(Transaction transaction, TransactionStatus status, String reason) {
+        pool.execute(connection -> {
+            try (var statement = prepareInsert(connection)) {
+                setInsertParams(statement, transaction, status, reason);
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    private static PreparedStatement prepareInsert(Connection connection) throws SQLException {
+        return connection.prepareStatement(
+                "INSERT INTO money_transaction (id, ts, account_id_from, account_id_to, amount, status, reason) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    private static void setInsertParams(
+            PreparedStatement statement, Transaction transaction, TransactionStatus status, String reason)
+            throws SQLException {
+
+        statement.setString(1, transaction.getId());
+        statement.setLong(2, transaction.getTs());
+        statement.setString(3, transaction.getAccountIdFrom());
+        statement.setString(4, transaction.getAccountIdTo());
+        statement.setBigDecimal(5, transaction.getAmount());
+        statement.setString(6, status.name());
+        statement.setString(7, reason);
+    }
+
+    private TransactionStatus findTransactionStatus(String transactionId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT status, reason FROM money_transaction WHERE id = ?")) {
+
+                statement.setString(1, transactionId);
+                try (var resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+
+                    return TransactionStatus.valueOf(resultSet.getString(1)).setReason(resultSet.getString(2));
+                }
+            }
+        });
+    }
+
+    private static PreparedStatement prepareUpdateStatus(Connection connection) throws SQLException {
+        return connection.prepareStatement("UPDATE money_transaction SET status = ?, reason = ? WHERE id = ?");
+    }
+
+    private static void setUpdateStatusParams(PreparedStatement statement, String transactionId,
+                                              TransactionStatus status, String reason) throws SQLException {
+
+        statement.setString(1, status.name());
+        statement.setString(2, reason);
+        statement.setString(3, transactionId);
+    }
+
+    private void notifyWaiters(String transactionId, TransactionStatus status) {
+        if (status.isFinal()) {
+            var future = finalStatuses.remove(transactionId);
+            if (future != null) {
+                future.complete(status);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ru.mt.data.mmap;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import ru.mt.app.Component;
+import ru.mt.data.AccountBalanceCallRepository;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.AccountBalanceCallType;
+import ru.mt.domain.CallLane;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The shard queues are kept in memory-mapped files (see MappedCallQueue), so the calls which are not processed
+ * survive a restart of the process.
+ * Every lane of a shard has its own file (the first lane keeps the former file name of the shard queue),
+ * the consumer offset of a lane is moved when the result of the call is set.
+ * The waiters of the results are kept in the process memory, nobody waits for the results of the replayed calls.
+ * <p>
+ * A call can be executed before the crash but not committed, so only the calls which the shard applies
+ * at most once are replayed (see REPLAYED_CALL_TYPES); the others are committed without execution.
+ */
+@Log4j2
+public class MappedAccountBalanceCallRepository extends Component implements AccountBalanceCallRepository {
+    /**
+     * The debit and the cancel of a reservation are applied only while the reservation has status OK,
+     * so their repeated execution fails without changing the balance, and they complete the money
+     * reserved before the crash. The other calls are not replayed: the credits and the cash desk operations
+     * are not deduplicated, the transactions of the reservations and the credits are not resumed after a restart
+     * (so the reservation would lock the money and the credit would create it), and nobody waits for the reads.
+     */
+    private static final Set<AccountBalanceCallType> REPLAYED_CALL_TYPES = EnumSet.of(
+            AccountBalanceCallType.DEBIT_RESERVED_AMOUNT, AccountBalanceCallType.CANCEL_RESERVED_AMOUNT);
+
+    @RequiredArgsConstructor
+    private static class PendingCall {
+        final int shardIndex;
+        final CallLane lane;
+        /**
+         * The call has been put into the queue before the restart
+         */
+        final boolean replayed;
+        final CompletableFuture<AccountBalanceCallResult> result = new CompletableFuture<>();
+    }
+
+    private final Path directory;
+    private final Map<CallLane, Integer> laneFileSizes;
+    /**
+     * Index: shard, lane
+     */
+    private MappedCallQueue[][] queues;
+    /**
+     * Count of the calls of all the lanes of a shard, the consumer waits for it
+     */
+    private Semaphore[] callCounts;
+    /**
+     * Calls which results are not received yet.
+     * Key: call id
+     */
+    private final Map<String, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+
+    /**
+     * @param queueFileSize size of the queue files of one shard, it is split equally between the lanes
+     */
+    public MappedAccountBalanceCallRepository(Path directory, int queueFileSize) {
+        this(directory, splitFileSize(queueFileSize));
+    }
+
+    /**
+     * @param laneFileSizes size of the queue file of every lane of a shard
+     */
+    public MappedAccountBalanceCallRepository(Path directory, Map<CallLane, Integer> laneFileSizes) {
+        this.directory = directory;
+        this.laneFileSizes = new EnumMap<>(laneFileSizes);
+    }
+
+    private static Map<CallLane, Integer> splitFileSize(int queueFileSize) {
+        var lanes = CallLane.values();
+        var laneFileSizes = new EnumMap<CallLane, Integer>(CallLane.class);
+        for (var lane : lanes) {
+            laneFileSizes.put(lane, queueFileSize / lanes.length);
+        }
+        return laneFileSizes;
+    }
+
+    @Override
+    protected void destroyInternal() {
+        if (queues == null) {
+            return;
+        }
+
+        for (var shardQueues : queues) {
+            for (var queue : shardQueues) {
+                try {
+                    queue.close();
+                } catch (IOException e) {
+                    log.error("Call queue closing failed", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void initShards(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+
+        var lanes = CallLane.values();
+        queues = new MappedCallQueue[shardCount][lanes.length];
+        callCounts = new Semaphore[shardCount];
+        try {
+            Files.createDirectories(directory);
+            for (int i = 0; i < shardCount; i++) {
+                var size = 0;
+                for (var lane : lanes) {
+                    var name = lane.ordinal() == 0
+                            ? String.format("shard-%04d", i)
+                            : String.format("shard-%04d-%s", i, lane.name().toLowerCase());
+                    var queue = new MappedCallQueue(directory.resolve(name + ".queue"),
+                            directory.resolve(name + ".offset"), laneFileSizes.get(lane));
+                    queues[i][lane.ordinal()] = queue;
+                    size += queue.size();
+                }
+
+                callCounts[i] = new Semaphore(size);
+                if (size > 0) {
+                    log.info(String.format("Shard %d: %d calls to replay", i, size));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Call queue opening failed: " + directory, e);
+        }
+    }
+
+    @Override
+    public boolean putNewCall(AccountBalanceCall call, int shardIndex, long timeoutMillis) throws InterruptedException {
+        var lane = call.getCallType().getLane();
+        pendingCalls.put(call.getId(), new PendingCall(shardIndex, lane, false));
+
+        if (!queues[shardIndex][lane.ordinal()].append(call, timeoutMillis)) {
+            pendingCalls.remove(call.getId());
+            return false;
+        }
+
+        callCounts[shardIndex].release();
+        return true;
+    }
+
+    @Override
+    public AccountBalanceCallResult getCallResult(String callId, long timeoutMillis) throws InterruptedException {
+        var pendingCall = getPendingCall(callId);
+
+        try {
+            var result = pendingCall.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            pendingCalls.remove(callId);
+            return result;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Call result failed: " + callId, e.getCause());
+        }
+    }
+
+    @Override
+    public AccountBalanceCall getNextCall(int shardIndex, CallLane[] laneOrder, long timeoutMillis)
+            throws InterruptedException {
+        if (!callCounts[shardIndex].tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+
+        // the permit is released after the call is appended, so one of the lanes has the call
+        for (var lane : laneOrder) {
+            var queue = queues[shardIndex][lane.ordinal()];
+            var call = queue.poll(0);
+            if (call == null) {
+                continue;
+            }
+
+            var pendingCall = pendingCalls.computeIfAbsent(
+                    call.getId(), id -> new PendingCall(shardIndex, lane, true));
+            if (pendingCall.replayed && !REPLAYED_CALL_TYPES.contains(call.getCallType())) {
+                // the previous call is already committed, so only this one is
+                queue.commit();
+                pendingCalls.remove(call.getId());
+                log.warn("Replayed call skipped: " + call);
+                return null;
+            }
+            return call;
+        }
+
+        throw new IllegalStateException("Call queue is empty while the call count is positive");
+    }
+
+    /**
+     * Commits the call in the lane queue (the manager processes the calls of its shard one by one),
+     * then passes the result to the waiter
+     */
+    @Override
+    public void setCallResult(String callId, AccountBalanceCallResult result) {
+        var pendingCall = getPendingCall(callId);
+        queues[pendingCall.shardIndex][pendingCall.lane.ordinal()].commit();
+
+        if (pendingCall.replayed) {
+            pendingCalls.remove(callId);
+            log.info("Replayed call executed: " + result);
+        } else {
+            pendingCall.result.complete(result);
+        }
+    }
+
+    @Override
+    public int getQueueSize(int shardIndex) {
+        return callCounts[shardIndex].availablePermits();
+    }
+
+    private PendingCall getPendingCall(String callId) {
+        var pendingCall = pendingCalls.get(callId);
+        if (pendingCall == null) {
+            throw new IllegalStateException("Call not found: " + callId);
+        }
+
+        return pendingCall;
+    }
+}
@@ -0,0 +1,241 @@
+package ru.mt.data.mmap;
+
+import ru.mt.codec.CallCodec;
+import ru.mt.domain.AccountBalanceCall;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Call queue of one shard: a ring of records in a memory-mapped file.
+ * The record is [int length][encoded call], the zero length marks the end of the written records
+ * and WRAP_MARKER means that the next record is at the beginning of the file.
+ * The length is written after the call, so a record which is written partially (the process died) is not visible.
+ * <p>
+ * The consumer offset (the first record which is not processed yet) is kept in a separate mapped file,
+ * the queue is replayed from it after a restart. The space of a record is reused only after it is committed.
+ * The data survive a crash of the process (the OS flushes the page cache), but not a crash of the OS.
+ * The files are written in the native byte order, i.e. they are not portable between platforms.
+ * <p>
+ * Any count of producers, one consumer.
+ */
+class MappedCallQueue implements Closeable {
+    private static final int WRAP_MARKER = -1;
+    private static final int LENGTH_SIZE = Integer.BYTES;
+
+    private final FileChannel queueChannel;
+    private final FileChannel offsetChannel;
+    private final MappedByteBuffer buffer;
+    /**
+     * View of the buffer for relative reads and writes of the calls (only under the lock)
+     */
+    private final ByteBuffer callBuffer;
+    private final CallCodec codec = new CallCodec();
+    private final MappedByteBuffer offsetBuffer;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Where the next record will be written
+     */
+    private int writePosition;
+    /**
+     * The next record to pass to the consumer
+     */
+    private int readPosition;
+    /**
+     * The first record which is not processed by the consumer
+     */
+    private int committedPosition;
+    /**
+     * Count of records between readPosition and writePosition
+     */
+    private int size;
+
+    /**
+     * @param capacity size of the queue file, is ignored if the file already exists
+     */
+    MappedCallQueue(Path queueFile, Path offsetFile, int capacity) throws IOException {
+        queueChannel = FileChannel.open(queueFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        offsetChannel = FileChannel.open(offsetFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        var fileSize = queueChannel.size();
+        this.capacity = fileSize > 0 ? (int) fileSize : capacity;
+        // the pages are not pre-faulted: they are faulted in by the first pass of the appends through the file,
+        // so that every lane of every shard does not take its whole file of memory at the start
+        buffer = queueChannel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        buffer.order(ByteOrder.nativeOrder());
+        callBuffer = buffer.duplicate().order(ByteOrder.nativeOrder());
+        offsetBuffer = offsetChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+
+        var offset = offsetBuffer.getLong(0);
+        if (offset < 0 || offset > this.capacity - LENGTH_SIZE) {
+            throw new IllegalStateException("Invalid consumer offset " + offset + " in " + offsetFile);
+        }
+        committedPosition = (int) offset;
+        readPosition = committedPosition;
+        recover();
+    }
+
+    /**
+     * Finds the end of the written records, all of them since the consumer offset will be replayed
+     */
+    private void recover() {
+        var position = readPosition;
+        while (true) {
+            var length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length == WRAP_MARKER) {
+                position = 0;
+                continue;
+            }
+            position += LENGTH_SIZE + length;
+            size++;
+        }
+        writePosition = position;
+    }
+
+    /**
+     * @param timeoutMillis how long to wait for a free space if the queue is full
+     * @return false if the queue is full
+     */
+    boolean append(AccountBalanceCall call, long timeoutMillis) throws InterruptedException {
+        var length = CallCodec.getEncodedLength(call);
+        var recordSize = LENGTH_SIZE + length;
+        if (recordSize + LENGTH_SIZE > capacity) {
+            throw new IllegalArgumentException("Call is too big: " + call.getId());
+        }
+
+        var nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lockInterruptibly();
+        try {
+            int position;
+            while ((position = findFreeSpace(recordSize)) < 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+
+            callBuffer.position(position + LENGTH_SIZE);
+            codec.encode(call, callBuffer);
+            buffer.putInt(position + recordSize, 0);
+            buffer.putInt(position, length);
+            if (position != writePosition) {
+                // the record has been written at the beginning
+                buffer.putInt(writePosition, WRAP_MARKER);
+            }
+
+            writePosition = position + recordSize;
+            size++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The record must be followed by the end mark, which must not overwrite a record that is not committed
+     *
+     * @return position of the record or -1 if the queue is full
+     */
+    private int findFreeSpace(int recordSize) {
+        if (writePosition < committedPosition) {
+            return writePosition + recordSize + LENGTH_SIZE <= committedPosition ? writePosition : -1;
+        }
+        if (writePosition + recordSize + LENGTH_SIZE <= capacity) {
+            return writePosition;
+        }
+        return recordSize + LENGTH_SIZE <= committedPosition ? 0 : -1;
+    }
+
+    /**
+     * @return the next call or null if there is no call during the timeout
+     */
+    AccountBalanceCall poll(long timeoutMillis) throws InterruptedException {
+        var nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+
+            var length = buffer.getInt(readPosition);
+            if (length == WRAP_MARKER) {
+                readPosition = 0;
+                length = buffer.getInt(readPosition);
+            }
+
+            callBuffer.position(readPosition + LENGTH_SIZE);
+            var call = codec.decode(callBuffer);
+            readPosition += LENGTH_SIZE + length;
+            size--;
+            return call;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks all the polled calls as processed, i.e. moves the consumer offset
+     */
+    void commit() {
+        lock.lock();
+        try {
+            if (committedPosition == readPosition) {
+                return;
+            }
+
+            committedPosition = readPosition;
+            offsetBuffer.putLong(0, committedPosition);
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return count of calls which are not polled yet
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (queueChannel; offsetChannel) {
+            lock.lock();
+            try {
+                buffer.force();
+                offsetBuffer.force();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -2,21 +2,48 @@ package ru.mt.domain;
 
 import lombok.Getter;
 import lombok.ToString;
+import ru.mt.utils.Deadline;
 import ru.mt.utils.TimeUtils;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
 
 @Getter
 @ToString
 public class AccountBalanceCall {
-    private final String id = UUID.randomUUID().toString();
-    private final long ts = TimeUtils.getTimestamp();
+    private final String id;
+    private final long ts;
+    /**
+     * Monotonic creation time (System.nanoTime) for measuring the time the call spent in the queue
+     */
+    @ToString.Exclude
+    private final long createdNanos = System.nanoTime();
+    /**
+     * Deadline of the request the call is made for (epoch ms, {@link Deadline#NONE} if not limited):
+     * after it nobody waits for the result, so the new work is not executed
+     */
+    private final long deadline;
 
     private final AccountBalanceCallType callType;
     private final String accountId;
     private final String transactionId;
     private final BigDecimal amount;
+    /**
+     * Second account of the call (the cash desk account for deposit and withdraw),
+     * must be in the same shard as the account
+     */
+    private final String counterpartyAccountId;
+    /**
+     * Accounts of the multi-account call (all of them in the same shard), the account id is the first of them
+     */
+    private final List<String> accountIds;
+    /**
+     * Transactions of the multi-reservation call and their amounts (in the same order),
+     * the transaction id is the first of them
+     */
+    private final List<String> transactionIds;
+    private final List<BigDecimal> amounts;
 
     //region constructors
 
@@ -25,10 +52,33 @@ public class AccountBalanceCall {
             String accountId,
             String transactionId,
             BigDecimal amount) {
+        this(UUID.randomUUID().toString(), TimeUtils.getTimestamp(), Deadline.current(),
+                callType, accountId, transactionId, amount, null, null, null, null);
+    }
+
+    private AccountBalanceCall(
+            String id,
+            long ts,
+            long deadline,
+            AccountBalanceCallType callType,
+            String accountId,
+            String transactionId,
+            BigDecimal amount,
+            String counterpartyAccountId,
+            List<String> accountIds,
+            List<String> transactionIds,
+            List<BigDecimal> amounts) {
+        this.id = id;
+        this.ts = ts;
+        this.deadline = deadline;
         this.callType = callType;
         this.accountId = accountId;
         this.transactionId = transactionId;
         this.amount = amount;
+        this.counterpartyAccountId = counterpartyAccountId;
+        this.accountIds = accountIds;
+        this.transactionIds = transactionIds;
+        this.amounts = amounts;
     }
 
     public static AccountBalanceCall getAvailableBalance(String accountId) {
@@ -39,6 +89,24 @@ public class AccountBalanceCall {
                 null);
     }
 
+    /**
+     * @param accountIds accounts of the same shard
+     */
+    public static AccountBalanceCall getAvailableBalances(List<String> accountIds) {
+        return new AccountBalanceCall(
+                UUID.randomUUID().toString(),
+                TimeUtils.getTimestamp(),
+                Deadline.current(),
+                AccountBalanceCallType.GET_AVAILABLE_BALANCES,
+                accountIds.get(0),
+                null,
+                null,
+                null,
+                List.copyOf(accountIds),
+                null,
+                null);
+    }
+
     public static AccountBalanceCall reserveAmount(String accountId, String transactionId, BigDecimal amount) {
         return new AccountBalanceCall(
                 AccountBalanceCallType.RESERVE_AMOUNT,
@@ -71,5 +139,91 @@ public class AccountBalanceCall {
                 amount);
     }
 
+    /**
+     * Restores the call which has been stored (e.g. in a persistent queue)
+     */
+    public static AccountBalanceCall restore(
+            String id, long ts, long deadline, AccountBalanceCallType callType, String accountId,
+            String transactionId, BigDecimal amount, String counterpartyAccountId, List<String> accountIds,
+            List<String> transactionIds, List<BigDecimal> amounts) {
+        return new AccountBalanceCall(id, ts, deadline, callType, accountId, transactionId, amount,
+                counterpartyAccountId, accountIds, transactionIds, amounts);
+    }
+
+    public static AccountBalanceCall deposit(
+            String accountId, String cashDeskAccountId, String transactionId, BigDecimal amount) {
+        return new AccountBalanceCall(
+                UUID.randomUUID().toString(),
+                TimeUtils.getTimestamp(),
+                Deadline.current(),
+                AccountBalanceCallType.DEPOSIT,
+                accountId,
+                transactionId,
+                amount,
+                cashDeskAccountId,
+                null,
+                null,
+                null);
+    }
+
+    public static AccountBalanceCall withdraw(
+            String accountId, String cashDeskAccountId, String transactionId, BigDecimal amount) {
+        return new AccountBalanceCall(
+                UUID.randomUUID().toString(),
+                TimeUtils.getTimestamp(),
+                Deadline.current(),
+                AccountBalanceCallType.WITHDRAW,
+                accountId,
+                transactionId,
+                amount,
+                cashDeskAccountId,
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * Puts the same amount into every account from the cash desk account by one call
+     *
+     * @param accountIds     accounts of the same shard as the cash desk account
+     * @param transactionIds the deposit transactions of the accounts in the same order
+     */
+    public static AccountBalanceCall depositBatch(
+            List<String> accountIds, String cashDeskAccountId, List<String> transactionIds, BigDecimal amount) {
+        return new AccountBalanceCall(
+                UUID.randomUUID().toString(),
+                TimeUtils.getTimestamp(),
+                Deadline.current(),
+                AccountBalanceCallType.DEPOSIT_BATCH,
+                accountIds.get(0),
+                transactionIds.get(0),
+                amount,
+                cashDeskAccountId,
+                List.copyOf(accountIds),
+                List.copyOf(transactionIds),
+                null);
+    }
+
+    /**
+     * Reserves the amounts of several transactions on one account by one call
+     *
+     * @param amounts amounts of the transactions in the same order
+     */
+    public static AccountBalanceCall reserveMany(
+            String accountId, List<String> transactionIds, List<BigDecimal> amounts) {
+        return new AccountBalanceCall(
+                UUID.randomUUID().toString(),
+                TimeUtils.getTimestamp(),
+                Deadline.current(),
+                AccountBalanceCallType.RESERVE_MANY,
+                accountId,
+                transactionIds.get(0),
+                null,
+                null,
+                null,
+                List.copyOf(transactionIds),
+                List.copyOf(amounts));
+    }
+
     //endregion
 }
@@ -6,6 +6,7 @@ import lombok.ToString;
 import ru.mt.utils.TimeUtils;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @Builder
 @Getter
@@ -15,7 +16,23 @@ public class AccountBalanceCallResult {
 
     private final String callId;
     private final BigDecimal amount;
+    /**
+     * Available balances of the multi-get call in the order of its account ids (null if the account is not found)
+     */
+    private final List<BigDecimal> amounts;
     private final ReservationStatus reservationStatus;
+    /**
+     * Reason of the denied reservation
+     */
+    private final String reservationReason;
+    /**
+     * Statuses of the multi-reservation call in the order of its transactions (null if the reservation failed)
+     */
+    private final List<ReservationStatus> reservationStatuses;
+    /**
+     * Denial reasons or error messages of the multi-reservation call in the order of its transactions
+     */
+    private final List<String> reservationReasons;
     private final String errorMessage;
 
     public boolean hasError() {
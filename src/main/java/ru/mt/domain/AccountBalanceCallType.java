@@ -1,9 +1,34 @@
 package ru.mt.domain;
 
+import lombok.Getter;
+
 public enum AccountBalanceCallType {
-    GET_AVAILABLE_BALANCE,
-    RESERVE_AMOUNT,
-    DEBIT_RESERVED_AMOUNT,
-    CANCEL_RESERVED_AMOUNT,
-    ADD_AMOUNT
+    GET_AVAILABLE_BALANCE(CallLane.READ),
+    RESERVE_AMOUNT(CallLane.NEW_WORK),
+    DEBIT_RESERVED_AMOUNT(CallLane.SAGA_STEP),
+    CANCEL_RESERVED_AMOUNT(CallLane.SAGA_STEP),
+    ADD_AMOUNT(CallLane.SAGA_STEP),
+    DEPOSIT(CallLane.NEW_WORK),
+    WITHDRAW(CallLane.NEW_WORK),
+    GET_AVAILABLE_BALANCES(CallLane.READ),
+    DEPOSIT_BATCH(CallLane.NEW_WORK),
+    RESERVE_MANY(CallLane.NEW_WORK);
+
+    /**
+     * Lane of the shard queue the calls are put into
+     */
+    @Getter
+    private final CallLane lane;
+
+    AccountBalanceCallType(CallLane lane) {
+        this.lane = lane;
+    }
+
+    /**
+     * The call continues an already started transaction, so it has to be executed even under overload,
+     * otherwise the reserved money would stay locked
+     */
+    public boolean isSagaContinuation() {
+        return lane == CallLane.SAGA_STEP;
+    }
 }
@@ -0,0 +1,65 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+
+/**
+ * Totals of the account balances (of a shard, a node or the whole system)
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class BalanceTotals {
+    public static final BalanceTotals ZERO = new BalanceTotals(BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO, 0);
+
+    private final BigDecimal balance;
+    private final BigDecimal reserved;
+    /**
+     * Money which has been brought into the accounts: the balances at the start plus the issued money.
+     * The transfers only move money between the accounts, so the total balance must be equal to the supply.
+     */
+    private final BigDecimal supply;
+    /**
+     * Count of the changes of the totals: if two reads have the same count, nothing changed between them,
+     * so the totals read are a consistent snapshot
+     */
+    private final long changeCount;
+
+    public BigDecimal getAvailable() {
+        return balance.subtract(reserved);
+    }
+
+    public BalanceTotals add(BalanceTotals totals) {
+        return new BalanceTotals(balance.add(totals.balance), reserved.add(totals.reserved),
+                supply.add(totals.supply), changeCount + totals.changeCount);
+    }
+
+    /**
+     * @return the totals after one change
+     */
+    public BalanceTotals add(BigDecimal balanceDelta, BigDecimal reservedDelta, BigDecimal supplyDelta) {
+        return new BalanceTotals(balance.add(balanceDelta), reserved.add(reservedDelta), supply.add(supplyDelta),
+                changeCount + 1);
+    }
+
+    /**
+     * The money of a transfer in progress is reserved on one account and may be already added to another one,
+     * so the money is conserved if available <= supply <= balance
+     */
+    public boolean isMoneyConserved() {
+        return getAvailable().compareTo(supply) <= 0 && supply.compareTo(balance) <= 0;
+    }
+
+    /**
+     * The check of a consistent snapshot of the totals: if no reservation is open, no transfer is in progress,
+     * so the balance must be equal to the supply. Unlike isMoneyConserved it sees the money created
+     * while a reservation was open, e.g. the amount added to the target of a transfer whose reservation
+     * was then cancelled instead of debited.
+     */
+    public boolean isMoneyConservedExactly() {
+        return reserved.signum() == 0 ? supply.compareTo(balance) == 0 : isMoneyConserved();
+    }
+}
@@ -0,0 +1,28 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+
+/**
+ * Priority lane of the shard queue, in the order of priority.
+ * The weight is the share of the calls taken from the lane when all the lanes are busy,
+ * so the lower lanes are slowed down but never starved.
+ */
+public enum CallLane {
+    /**
+     * Steps which complete the started transactions: the sooner they are executed,
+     * the shorter the reserved money is held
+     */
+    SAGA_STEP(4),
+    READ(2),
+    /**
+     * New reservations and other new work
+     */
+    NEW_WORK(1);
+
+    @Getter
+    private final int weight;
+
+    CallLane(int weight) {
+        this.weight = weight;
+    }
+}
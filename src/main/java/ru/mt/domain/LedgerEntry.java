@@ -0,0 +1,30 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+
+/**
+ * Change of the account balance in the account ledger
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class LedgerEntry {
+    /**
+     * Position of the entry in the account ledger
+     */
+    private final long seq;
+    private final long ts;
+    /**
+     * null for the technical operations (e.g. the cash desk initialization)
+     */
+    private final String transactionId;
+    private final BigDecimal amount;
+    /**
+     * The balance after the change
+     */
+    private final BigDecimal balance;
+}
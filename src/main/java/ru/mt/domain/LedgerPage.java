@@ -0,0 +1,21 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Part of the account ledger in the time range
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class LedgerPage {
+    private final List<LedgerEntry> entries;
+    /**
+     * Cursor of the next page or -1 if there are no more entries in the time range
+     */
+    private final long nextCursor;
+}
@@ -1,7 +1,5 @@
 package ru.mt.domain;
 
-import lombok.Getter;
-
 /**
  * Статус резервирования денег на счете
  */
@@ -21,13 +19,5 @@ public enum ReservationStatus {
     /**
      * В резервировании отказано
      */
-    DENIED;
-
-    @Getter
-    private String reason;
-
-    public ReservationStatus setReason(String reason) {
-        this.reason = reason;
-        return this;
-    }
+    DENIED
 }
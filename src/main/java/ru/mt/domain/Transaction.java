@@ -1,6 +1,7 @@
 package ru.mt.domain;
 
 import lombok.*;
+import ru.mt.utils.Deadline;
 import ru.mt.utils.TimeUtils;
 
 import java.math.BigDecimal;
@@ -12,18 +13,40 @@ import java.util.UUID;
 @Getter
 @ToString
 public class Transaction {
-    private final String id = UUID.randomUUID().toString();
-    private final long ts = TimeUtils.getTimestamp();
+    private final String id;
+    private final long ts;
 
     private final String accountIdFrom;
     private final String accountIdTo;
     private final BigDecimal amount;
     private final TransactionStatus status;
+    /**
+     * Deadline of the request which has created the transaction (epoch ms, {@link Deadline#NONE} if not limited):
+     * the transaction is not started after it
+     */
+    private final long deadline;
 
     public Transaction(String accountIdFrom, String accountIdTo, BigDecimal amount, TransactionStatus status) {
+        this(UUID.randomUUID().toString(), TimeUtils.getTimestamp(), Deadline.current(),
+                accountIdFrom, accountIdTo, amount, status);
+    }
+
+    private Transaction(String id, long ts, long deadline, String accountIdFrom, String accountIdTo,
+                        BigDecimal amount, TransactionStatus status) {
+        this.id = id;
+        this.ts = ts;
+        this.deadline = deadline;
         this.accountIdFrom = accountIdFrom;
         this.accountIdTo = accountIdTo;
         this.amount = amount;
         this.status = status;
     }
+
+    /**
+     * Restores the transaction which has been stored (e.g. in the DB)
+     */
+    public static Transaction restore(String id, long ts, String accountIdFrom, String accountIdTo, BigDecimal amount,
+                                      TransactionStatus status) {
+        return new Transaction(id, ts, Deadline.NONE, accountIdFrom, accountIdTo, amount, status);
+    }
 }
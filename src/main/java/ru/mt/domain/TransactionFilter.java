@@ -0,0 +1,38 @@
+package ru.mt.domain;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Set;
+
+/**
+ * Conditions of the transactions query, all the set conditions must be met
+ */
+@Builder
+@Getter
+@ToString
+public class TransactionFilter {
+    /**
+     * The account from which or to which the money is transferred (null: any account)
+     */
+    private final String accountId;
+    /**
+     * null: any status
+     */
+    private final Set<TransactionStatus> statuses;
+    /**
+     * Creation time range (ms): fromTs is inclusive, toTs is exclusive
+     */
+    @Builder.Default
+    private final long fromTs = 0;
+    @Builder.Default
+    private final long toTs = Long.MAX_VALUE;
+
+    public boolean matches(Transaction transaction, TransactionStatus status) {
+        return (accountId == null
+                || accountId.equals(transaction.getAccountIdFrom()) || accountId.equals(transaction.getAccountIdTo()))
+                && (statuses == null || statuses.contains(status))
+                && transaction.getTs() >= fromTs && transaction.getTs() < toTs;
+    }
+}
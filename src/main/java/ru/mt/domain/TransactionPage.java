@@ -0,0 +1,21 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Part of the transactions found by the filter, in the order of saving
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class TransactionPage {
+    private final List<TransactionRecord> records;
+    /**
+     * Cursor of the next page or -1 if there are no more transactions
+     */
+    private final long nextCursor;
+}
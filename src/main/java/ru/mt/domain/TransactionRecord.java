@@ -0,0 +1,20 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Stored transaction with its current status
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class TransactionRecord {
+    /**
+     * Position of the transaction in the order of saving
+     */
+    private final long seq;
+    private final Transaction transaction;
+    private final TransactionStatus status;
+}
@@ -0,0 +1,17 @@
+package ru.mt.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.ToString;
+
+/**
+ * New status of the transaction with its reason, captured when the status is set
+ * (the reason of the status enum is shared by all the transactions, so it can't be read later)
+ */
+@Getter
+@ToString
+@RequiredArgsConstructor
+public class TransactionStatusUpdate {
+    private final TransactionStatus status;
+    private final String reason;
+}
@@ -0,0 +1,26 @@
+package ru.mt.errors;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The accounts are created, but the opening deposits into some of them failed
+ */
+@Getter
+public class MoneyTransferAccountsException extends MoneyTransferException {
+    /**
+     * All the created accounts
+     */
+    private final List<String> accountIds;
+    /**
+     * The created accounts without the opening balance
+     */
+    private final List<String> unfundedAccountIds;
+
+    public MoneyTransferAccountsException(String message, List<String> accountIds, List<String> unfundedAccountIds) {
+        super(message);
+        this.accountIds = accountIds;
+        this.unfundedAccountIds = unfundedAccountIds;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.mt.errors;
+
+import lombok.Getter;
+
+/**
+ * The request is rejected because the system is overloaded and cannot accept new work now
+ */
+@Getter
+public class MoneyTransferOverloadException extends MoneyTransferException {
+    /**
+     * Estimated time after which the request can be retried
+     */
+    private final long retryAfterMillis;
+
+    public MoneyTransferOverloadException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+}
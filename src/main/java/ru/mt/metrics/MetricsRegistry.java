@@ -0,0 +1,169 @@
+package ru.mt.metrics;
+
+import lombok.RequiredArgsConstructor;
+import ru.mt.app.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the application metrics.
+ * Metrics are registered once (usually at the component construction) and then are updated
+ * through the returned objects without any lookups, so recording does not allocate.
+ * The registry is rendered in Prometheus text exposition format.
+ */
+public class MetricsRegistry extends Component {
+    /**
+     * Histogram bucket bounds (in seconds) used for the Prometheus export
+     */
+    private static final double[] EXPORT_BOUNDS_SECONDS = {
+            0.00001, 0.00005, 0.0001, 0.00025, 0.0005,
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+    private static final double NANOS_IN_SECOND = 1_000_000_000.0;
+
+    private enum Type {
+        counter,
+        gauge,
+        histogram
+    }
+
+    @RequiredArgsConstructor
+    private static class Family {
+        final String name;
+        final String help;
+        final Type type;
+        /**
+         * Key: rendered labels, value: the metric
+         */
+        final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+    }
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers (or returns already registered) counter
+     *
+     * @param labels label names and values by pairs: name1, value1, name2, value2...
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(name, help, Type.counter, labels, Counter::new);
+    }
+
+    /**
+     * Registers (or returns already registered) histogram.
+     * The histogram values are expected to be in nanoseconds, they are exported in seconds.
+     *
+     * @param labels label names and values by pairs: name1, value1, name2, value2...
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return register(name, help, Type.histogram, labels, Histogram::new);
+    }
+
+    /**
+     * Registers the gauge which value is got from the supplier at the export time
+     *
+     * @param labels label names and values by pairs: name1, value1, name2, value2...
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        var family = getFamily(name, help, Type.gauge);
+        family.metrics.put(renderLabels(labels), supplier);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T register(String name, String help, Type type, String[] labels, Supplier<T> factory) {
+        var family = getFamily(name, help, type);
+        return (T) family.metrics.computeIfAbsent(renderLabels(labels), key -> factory.get());
+    }
+
+    private Family getFamily(String name, String help, Type type) {
+        var family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException(String.format(
+                    "Metric '%s' already registered with type %s", name, family.type));
+        }
+
+        return family;
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be set by name-value pairs");
+        }
+
+        var sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            sb.append(i == 0 ? "" : ",")
+                    .append(labels[i])
+                    .append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append('"');
+        }
+
+        return sb.toString();
+    }
+
+    //region Prometheus export
+
+    /**
+     * @return all the metrics in Prometheus text exposition format (version 0.0.4)
+     */
+    public String toPrometheusText() {
+        var sb = new StringBuilder(16 * 1024);
+
+        for (var family : families.values()) {
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+
+            for (var entry : family.metrics.entrySet()) {
+                var labels = entry.getKey();
+                var metric = entry.getValue();
+
+                switch (family.type) {
+                    case counter:
+                        appendSample(sb, family.name, labels, ((Counter) metric).get());
+                        break;
+
+                    case gauge:
+                        appendSample(sb, family.name, labels, ((LongSupplier) metric).getAsLong());
+                        break;
+
+                    case histogram:
+                        appendHistogram(sb, family.name, labels, (Histogram) metric);
+                        break;
+
+                    default:
+                        throw new IllegalStateException("Unexpected metric type: " + family.type);
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendHistogram(StringBuilder sb, String name, String labels, Histogram histogram) {
+        var bucketLabelsPrefix = labels.isEmpty() ? "" : labels + ",";
+
+        for (var bound : EXPORT_BOUNDS_SECONDS) {
+            var count = histogram.getCountAtOrBelow((long) (bound * NANOS_IN_SECOND));
+            appendSample(sb, name + "_bucket", bucketLabelsPrefix + "le=\"" + bound + "\"", count);
+        }
+
+        appendSample(sb, name + "_bucket", bucketLabelsPrefix + "le=\"+Inf\"", histogram.getCount());
+        appendSample(sb, name + "_sum", labels, histogram.getSum() / NANOS_IN_SECOND);
+        appendSample(sb, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void appendSample(StringBuilder sb, String name, String labels, Object value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    //endregion
+}
@@ -17,4 +17,8 @@ public class CountdownTimer {
     public boolean isTimeOver() {
         return (System.nanoTime() - startTime > timeoutNanos);
     }
+
+    public long getRemainingMillis() {
+        return Math.max(0, (timeoutNanos - (System.nanoTime() - startTime)) / 1_000_000L);
+    }
 }
@@ -0,0 +1,34 @@
+package ru.mt.utils;
+
+/**
+ * Absolute deadline (epoch ms) of the work the current thread does on behalf of a request.
+ * It is set by the HTTP handler (and by the transaction processor for the transaction it executes)
+ * and is captured by the calls and the transactions when they are created, so that it travels with them
+ * through the queues and to the other nodes. The wall clock is used because the deadline crosses the nodes.
+ */
+public final class Deadline {
+    public static final long NONE = Long.MAX_VALUE;
+
+    private static final ThreadLocal<Long> current = ThreadLocal.withInitial(() -> NONE);
+
+    private Deadline() {}
+
+    /**
+     * @return deadline of the current request or NONE
+     */
+    public static long current() {
+        return current.get();
+    }
+
+    public static void set(long deadline) {
+        current.set(deadline);
+    }
+
+    public static void clear() {
+        current.remove();
+    }
+
+    public static boolean isExpired(long deadline) {
+        return deadline != NONE && TimeUtils.getTimestamp() >= deadline;
+    }
+}
@@ -1,9 +1,15 @@
 package ru.mt.utils;
 
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.UUID;
 
 public final class RandomUtils {
     private static final Random RANDOM = new Random();
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
 
     private RandomUtils() {
     }
@@ -16,4 +22,24 @@ public final class RandomUtils {
         return from + RANDOM.nextFloat() * (to - from);
     }
 
+    /**
+     * Generates random (version 4) UUIDs as UUID.randomUUID() does,
+     * but the random bytes of all of them are taken from the secure random by one call
+     */
+    public static List<String> getRandomUUIDs(int count) {
+        var bytes = new byte[count * 2 * Long.BYTES];
+        SECURE_RANDOM.nextBytes(bytes);
+
+        var buffer = ByteBuffer.wrap(bytes);
+        var ids = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            // version 4
+            var mostSigBits = (buffer.getLong() & ~0xF000L) | 0x4000L;
+            // IETF variant
+            var leastSigBits = (buffer.getLong() & ~0xC000_0000_0000_0000L) | 0x8000_0000_0000_0000L;
+            ids.add(new UUID(mostSigBits, leastSigBits).toString());
+        }
+        return ids;
+    }
+
 }
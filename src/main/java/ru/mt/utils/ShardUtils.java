@@ -9,9 +9,10 @@ public final class ShardUtils {
     private ShardUtils() {}
 
     /**
-     * Algorithm for getting md5-hash from strings
+     * Algorithm for getting md5-hash from strings.
+     * MessageDigest is not thread-safe, so each thread uses its own instance.
      */
-    private static MessageDigest md5 = getMd5();
+    private static final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(ShardUtils::getMd5);
 
     @SneakyThrows
     private static MessageDigest getMd5() {
@@ -19,7 +20,7 @@ public final class ShardUtils {
     }
 
     public static int getShardIndexById(String id, int shardCount) {
-        byte[] digest = md5.digest(id.getBytes());
+        byte[] digest = md5.get().digest(id.getBytes());
         int intValue = ByteBuffer.wrap(digest).getInt();
         int positiveIntValue = intValue & 0x0fffffff;
         return positiveIntValue % shardCount;
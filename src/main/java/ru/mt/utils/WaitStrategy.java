@@ -0,0 +1,99 @@
+package ru.mt.utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How a processor thread waits for the next item of its queue: trades CPU for the wake-up latency.
+ * The queue is polled by a timed poll, where the zero timeout means a non-blocking attempt.
+ */
+public enum WaitStrategy {
+    /**
+     * Parks the thread in the queue until an item arrives: no CPU is spent while idle,
+     * but every wake-up costs a signal from the producer and a context switch
+     */
+    BLOCKING {
+        @Override
+        public <T> T poll(TimedPoll<T> poll, long timeoutMillis) throws InterruptedException {
+            return poll.poll(timeoutMillis);
+        }
+    },
+    /**
+     * Spins for a while, then yields the CPU for a while, then parks as BLOCKING:
+     * a busy processor reacts at once, an idle one does not burn the CPU
+     */
+    PHASED {
+        @Override
+        public <T> T poll(TimedPoll<T> poll, long timeoutMillis) throws InterruptedException {
+            var startNanos = System.nanoTime();
+            for (int i = 0; i < SPIN_TRIES + YIELD_TRIES; i++) {
+                var item = poll.poll(0);
+                if (item != null) {
+                    return item;
+                }
+                checkInterrupted();
+
+                if (i < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+
+            var remainingMillis = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            return poll.poll(Math.max(0, remainingMillis));
+        }
+    },
+    /**
+     * Never leaves the CPU: the lowest wake-up latency, but every processor occupies a core all the time
+     */
+    BUSY_SPIN {
+        @Override
+        public <T> T poll(TimedPoll<T> poll, long timeoutMillis) throws InterruptedException {
+            var deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            do {
+                var item = poll.poll(0);
+                if (item != null) {
+                    return item;
+                }
+                checkInterrupted();
+                Thread.onSpinWait();
+            } while (System.nanoTime() - deadlineNanos < 0);
+
+            return null;
+        }
+    };
+
+    private static final int SPIN_TRIES = 10_000;
+    private static final int YIELD_TRIES = 100;
+
+    public interface TimedPoll<T> {
+        /**
+         * @return the next item or null if there is no item after the timeout (0: do not wait)
+         */
+        T poll(long timeoutMillis) throws InterruptedException;
+    }
+
+    /**
+     * @return the next item or null if there is no item after the timeout
+     */
+    public abstract <T> T poll(TimedPoll<T> poll, long timeoutMillis) throws InterruptedException;
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * @param propertyName system property with the strategy name (blocking, phased, busy_spin), blocking by default
+     */
+    public static WaitStrategy fromProperty(String propertyName) {
+        var name = System.getProperty(propertyName, BLOCKING.name());
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException(String.format("Unknown wait strategy %s=%s", propertyName, name), e);
+        }
+    }
+}
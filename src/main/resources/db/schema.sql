@@ -0,0 +1,79 @@
+CREATE TABLE IF NOT EXISTS account (
+    id      VARCHAR(64)    NOT NULL PRIMARY KEY,
+    balance DECIMAL(24, 2) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS split_account (
+    account_id     VARCHAR(64) NOT NULL,
+    idx            INT         NOT NULL,
+    sub_account_id VARCHAR(64) NOT NULL,
+    PRIMARY KEY (account_id, idx)
+);
+
+CREATE TABLE IF NOT EXISTS reservation (
+    account_id     VARCHAR(64)    NOT NULL,
+    transaction_id VARCHAR(64)    NOT NULL,
+    ts             BIGINT         NOT NULL,
+    amount         DECIMAL(24, 2) NOT NULL,
+    status         VARCHAR(16)    NOT NULL,
+    PRIMARY KEY (account_id, transaction_id)
+);
+
+CREATE INDEX IF NOT EXISTS reservation_account_status_idx ON reservation (account_id, status);
+
+CREATE TABLE IF NOT EXISTS money_transaction (
+    id              VARCHAR(64)    NOT NULL PRIMARY KEY,
+    ts              BIGINT         NOT NULL,
+    account_id_from VARCHAR(64)    NOT NULL,
+    account_id_to   VARCHAR(64)    NOT NULL,
+    amount          DECIMAL(24, 2) NOT NULL,
+    status          VARCHAR(16)    NOT NULL,
+    reason          VARCHAR,
+    seq             BIGINT         AUTO_INCREMENT NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS money_transaction_seq_idx ON money_transaction (seq);
+CREATE INDEX IF NOT EXISTS money_transaction_from_idx ON money_transaction (account_id_from, seq);
+CREATE INDEX IF NOT EXISTS money_transaction_to_idx ON money_transaction (account_id_to, seq);
+CREATE INDEX IF NOT EXISTS money_transaction_status_idx ON money_transaction (status, seq);
+CREATE INDEX IF NOT EXISTS money_transaction_ts_idx ON money_transaction (ts);
+
+CREATE TABLE IF NOT EXISTS balance_call (
+    id                      VARCHAR(64) NOT NULL PRIMARY KEY,
+    ts                      BIGINT      NOT NULL,
+    shard                   INT         NOT NULL,
+    deadline                BIGINT      NOT NULL,
+    call_type               VARCHAR(32) NOT NULL,
+    account_id              VARCHAR(64) NOT NULL,
+    transaction_id          VARCHAR(64),
+    amount                  DECIMAL(24, 2),
+    counterparty_account_id VARCHAR(64),
+    result_ts               BIGINT,
+    result_amount           DECIMAL(24, 2),
+    result_reservation      VARCHAR(16),
+    result_error            VARCHAR
+);
+
+-- the list values of the multi-account and multi-transaction calls (and of their results) by index
+CREATE TABLE IF NOT EXISTS balance_call_item (
+    call_id            VARCHAR(64) NOT NULL,
+    idx                INT         NOT NULL,
+    account_id         VARCHAR(64),
+    transaction_id     VARCHAR(64),
+    amount             DECIMAL(24, 2),
+    result_amount      DECIMAL(24, 2),
+    result_reservation VARCHAR(16),
+    PRIMARY KEY (call_id, idx)
+);
+
+CREATE TABLE IF NOT EXISTS ledger_entry (
+    account_id     VARCHAR(64)    NOT NULL,
+    seq            BIGINT         NOT NULL,
+    ts             BIGINT         NOT NULL,
+    transaction_id VARCHAR(64),
+    amount         DECIMAL(24, 2) NOT NULL,
+    balance        DECIMAL(24, 2) NOT NULL,
+    PRIMARY KEY (account_id, seq)
+);
+
+CREATE INDEX IF NOT EXISTS ledger_entry_account_ts_idx ON ledger_entry (account_id, ts);
@@ -0,0 +1,66 @@
+package ru.mt;
+
+import org.openjdk.jmh.annotations.*;
+import ru.mt.app.Configuration;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a call to AccountBalanceManager: putting the call into the shard queue,
+ * its execution by the shard thread and waiting for the result.
+ * The sampled percentiles (p99) show the wake-up latency of the shard threads with every wait strategy;
+ * note that with busy_spin all the shard threads occupy a core each.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class AccountBalanceCallBenchmark {
+    private static final int ACCOUNT_COUNT = 1024;
+
+    @Param({"blocking", "phased", "busy_spin"})
+    public String waitStrategy;
+
+    private AccountService accountService;
+    private String[] accountIds;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        String next(String[] accountIds) {
+            return accountIds[index++ & (ACCOUNT_COUNT - 1)];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // every param value is run in its own fork, so the components are created with it
+        System.setProperty("mt.processor.shards.waitStrategy", waitStrategy);
+        accountService = Configuration.getComponent(AccountService.class);
+
+        accountIds = new String[ACCOUNT_COUNT];
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            accountIds[i] = accountService.createNewAccount();
+        }
+    }
+
+    @Benchmark
+    public Object getAccountBalance(Cursor cursor) {
+        return accountService.getAccountBalance(cursor.next(accountIds));
+    }
+
+    @Benchmark
+    public Object addAmount(Cursor cursor) {
+        return accountService.addAmount(cursor.next(accountIds), null, BigDecimal.ONE);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object getAccountBalance16Threads(Cursor cursor) {
+        return accountService.getAccountBalance(cursor.next(accountIds));
+    }
+}
@@ -0,0 +1,45 @@
+package ru.mt;
+
+import org.openjdk.jmh.annotations.*;
+import ru.mt.app.Configuration;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the available balance of an account that has many active reservations
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class AvailableBalanceBenchmark {
+
+    @Param({"0", "100", "10000"})
+    int reservationCount;
+
+    private AccountService accountService;
+    private String accountId;
+
+    @Setup
+    public void setUp() {
+        accountService = Configuration.getComponent(AccountService.class);
+
+        accountId = accountService.createNewAccount();
+        accountService.addAmount(accountId, null, BigDecimal.valueOf(reservationCount + 1));
+
+        for (int i = 0; i < reservationCount; i++) {
+            var result = accountService.reserveAmount(accountId, "benchmark-" + i, BigDecimal.ONE);
+            if (result.hasError()) {
+                throw new IllegalStateException(result.getErrorMessage());
+            }
+        }
+    }
+
+    @Benchmark
+    public Object getAccountBalance() {
+        return accountService.getAccountBalance(accountId);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.mt;
+
+import org.openjdk.jmh.annotations.*;
+import ru.mt.app.Configuration;
+import ru.mt.errors.MoneyTransferException;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the service operations with the in-memory and the JDBC (embedded H2) repositories.
+ * Every parameter value is run in its own fork, so the repository is chosen before the configuration is loaded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+    private static final int ACCOUNT_COUNT = 1000;
+    private static final BigDecimal INIT_BALANCE = new BigDecimal(1_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"inmemory", "jdbc"})
+    String repository;
+
+    private MoneyTransferService service;
+    private String[] accountIds;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        final SplittableRandom random = new SplittableRandom(1);
+    }
+
+    @Setup
+    public void setUp() throws MoneyTransferException {
+        System.setProperty("mt.repository", repository);
+        service = Configuration.getComponent(MoneyTransferService.class);
+
+        accountIds = new String[ACCOUNT_COUNT];
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            accountIds[i] = service.createNewAccount();
+            service.putMoneyIntoAccount(accountIds[i], INIT_BALANCE);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean transfer(ThreadRandom threadRandom) {
+        var from = threadRandom.random.nextInt(ACCOUNT_COUNT);
+        var to = (from + 1 + threadRandom.random.nextInt(ACCOUNT_COUNT - 1)) % ACCOUNT_COUNT;
+
+        try {
+            service.transferMoney(accountIds[from], accountIds[to], AMOUNT);
+            return true;
+        } catch (MoneyTransferException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean deposit(ThreadRandom threadRandom) {
+        try {
+            service.putMoneyIntoAccount(accountIds[threadRandom.random.nextInt(ACCOUNT_COUNT)], AMOUNT);
+            return true;
+        } catch (MoneyTransferException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object getAccountBalance(ThreadRandom threadRandom) throws MoneyTransferException {
+        return service.getAccountBalance(accountIds[threadRandom.random.nextInt(ACCOUNT_COUNT)]);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mt;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.ThreadParams;
+import ru.mt.app.Configuration;
+import ru.mt.errors.MoneyTransferException;
+import ru.mt.utils.ZipfGenerator;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end money transfer (the whole saga) at different thread counts and account skews.
+ * Skew is the exponent of Zipf distribution used to choose the accounts: 0 - uniform.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class TransferMoneyBenchmark {
+    private static final BigDecimal INIT_BALANCE = new BigDecimal(1_000_000);
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1000"})
+    int accountCount;
+
+    @Param({"0", "0.99"})
+    double skew;
+
+    private MoneyTransferService service;
+    private String[] accountIds;
+    private ZipfGenerator accountGenerator;
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        SplittableRandom random;
+
+        @Setup
+        public void setUp(ThreadParams threadParams) {
+            // the same sequence of accounts for the same thread in every run
+            random = new SplittableRandom(threadParams.getThreadIndex());
+        }
+    }
+
+    @Setup
+    public void setUp() throws MoneyTransferException {
+        service = Configuration.getComponent(MoneyTransferService.class);
+        accountGenerator = new ZipfGenerator(accountCount, skew);
+
+        accountIds = new String[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accountIds[i] = service.createNewAccount();
+            service.putMoneyIntoAccount(accountIds[i], INIT_BALANCE);
+        }
+    }
+
+    private boolean transfer(ThreadRandom threadRandom) {
+        var from = accountGenerator.next(threadRandom.random);
+        var to = accountGenerator.next(threadRandom.random);
+        if (from == to) {
+            to = (to + 1) % accountCount;
+        }
+
+        try {
+            service.transferMoney(accountIds[from], accountIds[to], AMOUNT);
+            return true;
+        } catch (MoneyTransferException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean transfer1Thread(ThreadRandom threadRandom) {
+        return transfer(threadRandom);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean transfer4Threads(ThreadRandom threadRandom) {
+        return transfer(threadRandom);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean transfer16Threads(ThreadRandom threadRandom) {
+        return transfer(threadRandom);
+    }
+}
@@ -0,0 +1,146 @@
+package ru.mt.cluster;
+
+import org.openjdk.jmh.annotations.*;
+import ru.mt.codec.CallCodec;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerPage;
+import ru.mt.domain.ReservationStatus;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the binary protocol between the nodes:
+ * encoding and decoding of a call and its result in a direct buffer,
+ * and the round trip of a call through the loopback connection to a node which answers at once
+ * (by one thread and by several threads pipelining their calls through the same connection)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class NodeProtocolBenchmark {
+    private static final AccountBalanceCall CALL = AccountBalanceCall.reserveAmount(
+            UUID.randomUUID().toString(), UUID.randomUUID().toString(), new BigDecimal("100.50"));
+    private static final AccountBalanceCallResult RESULT = AccountBalanceCallResult.builder()
+            .callId(CALL.getId())
+            .amount(CALL.getAmount())
+            .reservationStatus(ReservationStatus.OK)
+            .build();
+
+    @State(Scope.Thread)
+    public static class CodecState {
+        final CallCodec codec = new CallCodec();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConnectionState {
+        NodeServer server;
+        NodeClient client;
+
+        @Setup
+        public void setUp() throws IOException {
+            int port;
+            try (var socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+
+            server = new NodeServer(port, new EchoHandler());
+            client = new NodeClient(1, new InetSocketAddress("localhost", port), 10_000, 10_000);
+        }
+
+        @TearDown
+        public void tearDown() {
+            client.close();
+            server.destroy();
+        }
+    }
+
+    private static class EchoHandler implements NodeRequestHandler {
+        @Override
+        public AccountBalanceCallResult executeCall(AccountBalanceCall call) {
+            return RESULT;
+        }
+
+        @Override
+        public long checkShardAdmission(String accountId) {
+            return 0;
+        }
+
+        @Override
+        public void createAccount(String accountId) {
+        }
+
+        @Override
+        public void createAccounts(List<String> accountIds) {
+        }
+
+        @Override
+        public Set<String> getAccounts() {
+            return Set.of();
+        }
+
+        @Override
+        public boolean accountExists(String accountId) {
+            return true;
+        }
+
+        @Override
+        public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+        }
+
+        @Override
+        public LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit) {
+            return new LedgerPage(List.of(), -1);
+        }
+
+        @Override
+        public BigDecimal getBalanceAt(String accountId, long ts) {
+            return null;
+        }
+
+        @Override
+        public BalanceTotals getTotals() {
+            return BalanceTotals.ZERO;
+        }
+    }
+
+    @Benchmark
+    public Object encodeDecodeCall(CodecState state) {
+        state.buffer.clear();
+        state.codec.encode(CALL, state.buffer);
+        state.buffer.flip();
+        return state.codec.decode(state.buffer);
+    }
+
+    @Benchmark
+    public Object encodeDecodeResult(CodecState state) {
+        state.buffer.clear();
+        state.codec.encodeResult(RESULT, state.buffer);
+        state.buffer.flip();
+        return state.codec.decodeResult(state.buffer);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object roundTrip(ConnectionState state) {
+        return state.client.executeCall(CALL);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Object roundTripPipelined(ConnectionState state) {
+        return state.client.executeCall(CALL);
+    }
+}
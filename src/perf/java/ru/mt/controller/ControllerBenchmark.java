@@ -0,0 +1,78 @@
+package ru.mt.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mt.controller.dto.AccountBalanceResponse;
+import ru.mt.controller.dto.AccountIdsResponse;
+import ru.mt.controller.dto.ErrorResponse;
+import ru.mt.controller.dto.OKResponse;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding of the responses and parsing of the query parameters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ControllerBenchmark {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private AccountBalanceResponse balanceResponse;
+    private AccountIdsResponse accountIdsResponse;
+    private String transferQuery;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        var accountIdFrom = new UUID(random.nextLong(), random.nextLong()).toString();
+        var accountIdTo = new UUID(random.nextLong(), random.nextLong()).toString();
+
+        balanceResponse = new AccountBalanceResponse(accountIdFrom, new BigDecimal("12345.67"));
+
+        var accountIds = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            accountIds.add(new UUID(random.nextLong(), random.nextLong()).toString());
+        }
+        accountIdsResponse = new AccountIdsResponse(accountIds);
+
+        transferQuery = String.format("accountIdFrom=%s&accountIdTo=%s&amount=123.45", accountIdFrom, accountIdTo);
+    }
+
+    @Benchmark
+    public byte[] encodeOKResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(new OKResponse());
+    }
+
+    @Benchmark
+    public byte[] encodeErrorResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(new ErrorResponse("Query parameter not found: accountId"));
+    }
+
+    @Benchmark
+    public byte[] encodeAccountBalanceResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(balanceResponse);
+    }
+
+    @Benchmark
+    public byte[] encodeAccountIdsResponse1000() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(accountIdsResponse);
+    }
+
+    @Benchmark
+    public void parseTransferQuery(Blackhole blackhole) throws QueryParamsException {
+        var params = QueryParams.fromRawQuery(transferQuery);
+        blackhole.consume(params.getParamString("accountIdFrom"));
+        blackhole.consume(params.getParamString("accountIdTo"));
+        blackhole.consume(params.getParamBigDecimal("amount"));
+    }
+}
@@ -0,0 +1,76 @@
+package ru.mt.data.mmap;
+
+import org.openjdk.jmh.annotations.*;
+import ru.mt.data.LaneCallQueue;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.CallLane;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of putting a call into the shard queue and taking it out:
+ * the in-memory queue vs the memory-mapped one (the call is encoded into the mapped file and decoded back)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Thread)
+public class CallQueueBenchmark {
+    private static final CallLane[] LANE_ORDER = CallLane.values();
+
+    private final LaneCallQueue inMemoryQueue = new LaneCallQueue(100_000);
+    private Path directory;
+    private MappedCallQueue mappedQueue;
+    private AccountBalanceCall call;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("call-queue-benchmark");
+        mappedQueue = new MappedCallQueue(
+                directory.resolve("shard.queue"), directory.resolve("shard.offset"), 64 * 1024 * 1024);
+        call = AccountBalanceCall.reserveAmount(
+                UUID.randomUUID().toString(), UUID.randomUUID().toString(), new BigDecimal("100.50"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mappedQueue.close();
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object inMemory() throws InterruptedException {
+        inMemoryQueue.offer(call, 0);
+        return inMemoryQueue.poll(LANE_ORDER, 0);
+    }
+
+    @Benchmark
+    public Object mapped() throws InterruptedException {
+        mappedQueue.append(call, 0);
+        var polled = mappedQueue.poll(0);
+        mappedQueue.commit();
+        return polled;
+    }
+
+    @Benchmark
+    public boolean mappedAppendOnly() throws InterruptedException {
+        if (!mappedQueue.append(call, 0)) {
+            // the file is full, free it
+            while (mappedQueue.poll(0) != null) {
+            }
+            mappedQueue.commit();
+            return mappedQueue.append(call, 0);
+        }
+        return true;
+    }
+}
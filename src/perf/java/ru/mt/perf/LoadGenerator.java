@@ -0,0 +1,369 @@
+package ru.mt.perf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import ru.mt.metrics.Histogram;
+import ru.mt.utils.ZipfGenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load generator for the REST API.
+ * <p>
+ * Creates and funds the accounts, then sends the mix of transfer/balance/withdraw requests
+ * at the target rate, choosing the accounts by Zipf distribution.
+ * Requests are sent at the scheduled times regardless of the responses, and latency is measured
+ * from the scheduled time rather than from the actual send time, so the stalls of the server
+ * are not hidden (coordinated omission correction).
+ * At the end checks that the total money of the accounts equals the deposited money minus the withdrawn one.
+ * <p>
+ * Run (the application should be started):
+ * <pre>
+ * mvn -Pperf test-compile exec:java@load \
+ *     -Dexec.args="--rate 1000 --duration 60 --accounts 10000 --skew 0.99"
+ * </pre>
+ * Options (with default values):
+ * --url http://localhost:8081/api, --accounts 1000, --balance 1000, --rate 500 (requests per second),
+ * --duration 30 (seconds), --mix transfer:80,balance:15,withdraw:5, --skew 0.99, --seed 42,
+ * --setup-concurrency 64
+ */
+public class LoadGenerator {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(90);
+
+    private enum Operation {
+        transfer,
+        balance,
+        withdraw
+    }
+
+    @RequiredArgsConstructor
+    private static class OperationStats {
+        final Operation operation;
+        final Histogram latency = new Histogram();
+        final LongAdder okCount = new LongAdder();
+        /**
+         * Key: HTTP status code or -1 for the client errors
+         */
+        final ConcurrentMap<Integer, LongAdder> errorCounts = new ConcurrentHashMap<>();
+
+        void recordError(int code) {
+            errorCounts.computeIfAbsent(code, key -> new LongAdder()).increment();
+        }
+    }
+
+    private final String baseUrl;
+    private final int accountCount;
+    private final BigDecimal initBalance;
+    private final int rate;
+    private final int durationSeconds;
+    private final Operation[] operationWheel;
+    private final double skew;
+    private final long seed;
+    private final int setupConcurrency;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final Map<Operation, OperationStats> stats = new HashMap<>();
+    private final Histogram totalLatency = new Histogram();
+    /**
+     * Sum of successfully withdrawn money in cents
+     */
+    private final AtomicLong withdrawnCents = new AtomicLong();
+    /**
+     * Sum of withdrawals with unknown result (the response was not received) in cents
+     */
+    private final AtomicLong uncertainWithdrawnCents = new AtomicLong();
+    private String[] accountIds;
+
+    private LoadGenerator(Map<String, String> options) {
+        baseUrl = options.getOrDefault("url", "http://localhost:8081/api");
+        accountCount = Integer.parseInt(options.getOrDefault("accounts", "1000"));
+        initBalance = new BigDecimal(options.getOrDefault("balance", "1000"));
+        rate = Integer.parseInt(options.getOrDefault("rate", "500"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        operationWheel = parseMix(options.getOrDefault("mix", "transfer:80,balance:15,withdraw:5"));
+        skew = Double.parseDouble(options.getOrDefault("skew", "0.99"));
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        setupConcurrency = Integer.parseInt(options.getOrDefault("setup-concurrency", "64"));
+
+        for (var operation : Operation.values()) {
+            stats.put(operation, new OperationStats(operation));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        var ok = new LoadGenerator(options).run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * @param mix operation weights, e.g. "transfer:80,balance:15,withdraw:5"
+     * @return array of 100 operations in which every operation occurs according to its weight
+     */
+    private static Operation[] parseMix(String mix) {
+        var weights = new HashMap<Operation, Integer>();
+        var total = 0;
+        for (var item : mix.split(",")) {
+            var parts = item.split(":");
+            var weight = Integer.parseInt(parts[1]);
+            weights.put(Operation.valueOf(parts[0]), weight);
+            total += weight;
+        }
+
+        var wheel = new ArrayList<Operation>();
+        for (var entry : weights.entrySet()) {
+            var slots = Math.round(100f * entry.getValue() / total);
+            for (int i = 0; i < slots; i++) {
+                wheel.add(entry.getKey());
+            }
+        }
+
+        return wheel.toArray(new Operation[0]);
+    }
+
+    private boolean run() throws Exception {
+        setUpAccounts();
+        generateLoad();
+        printReport();
+        return checkTotalMoney();
+    }
+
+    //region accounts set-up
+
+    private void setUpAccounts() throws Exception {
+        log("Creating and funding %d accounts with balance %s...", accountCount, initBalance);
+        var startNanos = System.nanoTime();
+
+        accountIds = new String[accountCount];
+        var permits = new Semaphore(setupConcurrency);
+        var futures = new ArrayList<CompletableFuture<Void>>(accountCount);
+
+        for (int i = 0; i < accountCount; i++) {
+            permits.acquire();
+            var index = i;
+            var future = send("/new")
+                    .thenCompose(response -> {
+                        var accountId = parseJson(response).get("accountId").asText();
+                        accountIds[index] = accountId;
+                        return send(String.format("/put?accountId=%s&amount=%s", accountId, initBalance));
+                    })
+                    .thenAccept(response -> {
+                        if (response.statusCode() != 200) {
+                            throw new IllegalStateException("Account funding failed: " + response.body());
+                        }
+                    })
+                    .whenComplete((result, error) -> permits.release());
+            futures.add(future);
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        log("Accounts created in %d ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    //endregion
+
+    //region load
+
+    private void generateLoad() {
+        log("Sending %d requests/sec for %d seconds...", rate, durationSeconds);
+
+        var random = new SplittableRandom(seed);
+        var accountGenerator = new ZipfGenerator(accountCount, skew);
+        var intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        var requestCount = (long) rate * durationSeconds;
+        var inFlight = new ArrayList<CompletableFuture<Void>>();
+
+        var startNanos = System.nanoTime();
+        for (long i = 0; i < requestCount; i++) {
+            var scheduledNanos = startNanos + i * intervalNanos;
+
+            var delay = scheduledNanos - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+
+            var operation = operationWheel[random.nextInt(operationWheel.length)];
+            inFlight.add(sendOperation(operation, random, accountGenerator, scheduledNanos));
+
+            if (inFlight.size() >= 10_000) {
+                inFlight.removeIf(CompletableFuture::isDone);
+            }
+        }
+        var sendingNanos = System.nanoTime() - startNanos;
+
+        log("All requests sent in %d ms, waiting for the responses...", TimeUnit.NANOSECONDS.toMillis(sendingNanos));
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+
+        var totalNanos = System.nanoTime() - startNanos;
+        log("Throughput: %.1f requests/sec (target %d)",
+                totalLatency.getCount() * 1e9 / totalNanos, rate);
+    }
+
+    private CompletableFuture<Void> sendOperation(
+            Operation operation, SplittableRandom random, ZipfGenerator accountGenerator, long scheduledNanos) {
+
+        var accountIndex = accountGenerator.next(random);
+        String path;
+        long amountCents = 0;
+
+        switch (operation) {
+            case transfer:
+                var toIndex = accountGenerator.next(random);
+                if (toIndex == accountIndex) {
+                    toIndex = (toIndex + 1) % accountCount;
+                }
+                amountCents = 1 + random.nextInt(1000);
+                path = String.format("/transfer?accountIdFrom=%s&accountIdTo=%s&amount=%s",
+                        accountIds[accountIndex], accountIds[toIndex], BigDecimal.valueOf(amountCents, 2));
+                break;
+
+            case balance:
+                path = "/balance?accountId=" + accountIds[accountIndex];
+                break;
+
+            case withdraw:
+                amountCents = 1 + random.nextInt(100);
+                path = String.format("/withdraw?accountId=%s&amount=%s",
+                        accountIds[accountIndex], BigDecimal.valueOf(amountCents, 2));
+                break;
+
+            default:
+                throw new IllegalStateException("Unexpected operation: " + operation);
+        }
+
+        var operationStats = stats.get(operation);
+        var withdrawAmountCents = operation == Operation.withdraw ? amountCents : 0;
+
+        return send(path).handle((response, error) -> {
+            var latency = System.nanoTime() - scheduledNanos;
+            operationStats.latency.record(latency);
+            totalLatency.record(latency);
+
+            if (error != null) {
+                operationStats.recordError(-1);
+                uncertainWithdrawnCents.addAndGet(withdrawAmountCents);
+            } else if (response.statusCode() != 200) {
+                operationStats.recordError(response.statusCode());
+            } else {
+                operationStats.okCount.increment();
+                withdrawnCents.addAndGet(withdrawAmountCents);
+            }
+            return null;
+        });
+    }
+
+    //endregion
+
+    //region report
+
+    private void printReport() {
+        log("%-10s %10s %10s %10s %10s %10s %10s  %s",
+                "operation", "count", "ok", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors by code");
+
+        for (var operationStats : stats.values()) {
+            printLine(operationStats.operation.name(), operationStats.latency,
+                    operationStats.okCount.sum(), operationStats.errorCounts.toString());
+        }
+
+        var totalOk = stats.values().stream().mapToLong(s -> s.okCount.sum()).sum();
+        printLine("total", totalLatency, totalOk, "");
+    }
+
+    private static void printLine(String name, Histogram latency, long okCount, String errors) {
+        log("%-10s %10d %10d %10.2f %10.2f %10.2f %10.2f  %s",
+                name, latency.getCount(), okCount,
+                toMillis(latency.getValueAtPercentile(50)),
+                toMillis(latency.getValueAtPercentile(99)),
+                toMillis(latency.getValueAtPercentile(99.9)),
+                toMillis(latency.getMax()),
+                errors);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    //endregion
+
+    //region invariant check
+
+    private boolean checkTotalMoney() {
+        log("Checking the total money...");
+
+        var futures = new ArrayList<CompletableFuture<BigDecimal>>(accountCount);
+        var permits = new Semaphore(setupConcurrency);
+
+        for (var accountId : accountIds) {
+            permits.acquireUninterruptibly();
+            futures.add(send("/balance?accountId=" + accountId)
+                    .thenApply(response -> new BigDecimal(parseJson(response).get("balance").asText()))
+                    .whenComplete((result, error) -> permits.release()));
+        }
+
+        var actualTotal = futures.stream()
+                .map(CompletableFuture::join)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        var expectedTotal = initBalance.multiply(BigDecimal.valueOf(accountCount))
+                .subtract(BigDecimal.valueOf(withdrawnCents.get(), 2));
+
+        // the withdrawals without response may have been completed or not
+        var uncertainAmount = BigDecimal.valueOf(uncertainWithdrawnCents.get(), 2);
+        var ok = actualTotal.compareTo(expectedTotal) <= 0
+                && actualTotal.compareTo(expectedTotal.subtract(uncertainAmount)) >= 0;
+
+        log("Total money: expected = %s (minus up to %s of withdrawals without response); actual = %s --> %s",
+                expectedTotal, uncertainAmount, actualTotal, ok ? "OK" : "VIOLATED");
+        return ok;
+    }
+
+    //endregion
+
+    private CompletableFuture<HttpResponse<String>> send(String path) {
+        var request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static JsonNode parseJson(HttpResponse<String> response) {
+        try {
+            return OBJECT_MAPPER.readTree(response.body());
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid response: " + response.body(), e);
+        }
+    }
+
+    private static void log(String format, Object... args) {
+        System.out.println(String.format(format, args));
+    }
+}
@@ -0,0 +1,54 @@
+package ru.mt.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing of an account id to its shard
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class ShardUtilsBenchmark {
+    private static final int ID_COUNT = 1024;
+
+    @Param({"16"})
+    int shardCount;
+
+    private String[] ids;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        String next(String[] ids) {
+            return ids[index++ & (ID_COUNT - 1)];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        ids = new String[ID_COUNT];
+        for (int i = 0; i < ID_COUNT; i++) {
+            ids[i] = new UUID(random.nextLong(), random.nextLong()).toString();
+        }
+    }
+
+    @Benchmark
+    public int getShardIndexById(Cursor cursor) {
+        return ShardUtils.getShardIndexById(cursor.next(ids), shardCount);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int getShardIndexById4Threads(Cursor cursor) {
+        return ShardUtils.getShardIndexById(cursor.next(ids), shardCount);
+    }
+}
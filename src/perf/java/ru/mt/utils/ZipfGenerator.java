@@ -0,0 +1,49 @@
+package ru.mt.utils;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates indexes from 0 to n-1 by Zipf distribution:
+ * probability of index k is proportional to 1 / (k + 1)^exponent.
+ * Exponent 0 gives the uniform distribution, values near 1 give a strong skew towards the first indexes.
+ */
+public class ZipfGenerator {
+    private final double[] cumulativeProbabilities;
+
+    public ZipfGenerator(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("exponent must not be negative");
+        }
+
+        cumulativeProbabilities = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            cumulativeProbabilities[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulativeProbabilities[k] /= sum;
+        }
+    }
+
+    public int next(SplittableRandom random) {
+        var p = random.nextDouble();
+
+        // binary search of the first index with cumulative probability >= p
+        int low = 0;
+        int high = cumulativeProbabilities.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeProbabilities[mid] < p) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+}
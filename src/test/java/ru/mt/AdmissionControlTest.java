@@ -0,0 +1,84 @@
+package ru.mt;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mt.app.Configuration;
+import ru.mt.app.TestConfiguration;
+import ru.mt.errors.MoneyTransferOverloadException;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * The limits are lowered to zero, so that every new work is rejected without filling the queues
+ */
+class AdmissionControlTest {
+    private static final String SHARD_MAX_QUEUE_DEPTH = "mt.admission.shard.maxQueueDepth";
+    private static final String SHARD_MAX_WAIT = "mt.admission.shard.maxWaitMillis";
+    private static final String TRANSACTIONS_MAX_QUEUE_DEPTH = "mt.admission.transactions.maxQueueDepth";
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @AfterEach
+    void resetLimits() {
+        System.clearProperty(SHARD_MAX_QUEUE_DEPTH);
+        System.clearProperty(SHARD_MAX_WAIT);
+        TestConfiguration.clearProperty(TRANSACTIONS_MAX_QUEUE_DEPTH);
+    }
+
+    @SneakyThrows
+    private HttpResponse<String> get(String pathAndQuery) {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:8081" + pathAndQuery)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static void assertOverloaded(HttpResponse<String> response) {
+        Assertions.assertEquals(429, response.statusCode());
+        // the estimated wait of the empty queue is 0, it is rounded up to the min retry time
+        Assertions.assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    @Test
+    @SneakyThrows
+    void shardQueueDepthLimit() {
+        TestConfiguration.setProperty(SHARD_MAX_QUEUE_DEPTH, "0");
+        MoneyTransferService service = Configuration.getComponent(MoneyTransferService.class);
+        var accountId = service.createNewAccount();
+
+        var e = Assertions.assertThrows(MoneyTransferOverloadException.class,
+                () -> service.putMoneyIntoAccount(accountId, BigDecimal.TEN));
+        Assertions.assertEquals(1, e.getRetryAfterMillis());
+        assertOverloaded(get("/api/balance?accountId=" + accountId));
+    }
+
+    @Test
+    @SneakyThrows
+    void shardEstimatedWaitLimit() {
+        TestConfiguration.setProperty(SHARD_MAX_WAIT, "0");
+        MoneyTransferService service = Configuration.getComponent(MoneyTransferService.class);
+        var accountId = service.createNewAccount();
+
+        Assertions.assertThrows(MoneyTransferOverloadException.class, () -> service.getAccountBalance(accountId));
+        assertOverloaded(get("/api/put?accountId=" + accountId + "&amount=10"));
+    }
+
+    @Test
+    @SneakyThrows
+    void transactionQueueLimit() {
+        TestConfiguration.setProperty(TRANSACTIONS_MAX_QUEUE_DEPTH, "0");
+        MoneyTransferService service = Configuration.getComponent(MoneyTransferService.class);
+        var a1 = service.createNewAccount();
+        var a2 = service.createNewAccount();
+        service.putMoneyIntoAccount(a1, BigDecimal.TEN);
+
+        Assertions.assertThrows(MoneyTransferOverloadException.class,
+                () -> service.transferMoney(a1, a2, BigDecimal.ONE));
+        assertOverloaded(get("/api/transfer?accountIdFrom=" + a1 + "&accountIdTo=" + a2 + "&amount=1"));
+        Assertions.assertEquals(0, BigDecimal.TEN.compareTo(service.getAccountBalance(a1)));
+    }
+}
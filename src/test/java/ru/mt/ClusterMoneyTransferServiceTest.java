@@ -0,0 +1,25 @@
+package ru.mt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import ru.mt.app.LocalCluster;
+
+import java.io.IOException;
+
+/**
+ * The scenarios of MoneyTransferServiceTest on the cluster of 3 nodes on the localhost:
+ * the service runs in this JVM (node 0), but the most of the shards are served by the other nodes
+ */
+class ClusterMoneyTransferServiceTest extends MoneyTransferServiceTest {
+    private static LocalCluster cluster;
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        cluster = LocalCluster.start(3);
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        cluster.close();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.mt;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.mt.app.Configuration;
+import ru.mt.app.TestConfiguration;
+import ru.mt.data.TransactionRepository;
+import ru.mt.domain.ReservationStatus;
+import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionRecord;
+import ru.mt.domain.TransactionStatus;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The scenarios of MoneyTransferServiceTest with the JDBC repositories
+ */
+class JdbcMoneyTransferServiceTest extends MoneyTransferServiceTest {
+    @BeforeAll
+    static void useJdbc() {
+        TestConfiguration.setProperty("mt.repository", "jdbc");
+    }
+
+    @AfterAll
+    static void useInMemory() {
+        TestConfiguration.clearProperty("mt.repository");
+    }
+
+    @Test
+    @SneakyThrows
+    void failedReservationDoesNotFailOthers() {
+        AccountService accountService = Configuration.getComponent(AccountService.class);
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+
+        // the transaction id does not fit the reservation table, so only its reservation fails
+        var transactionIds = List.of("tx-" + accountId + "-1", "tx-" + "x".repeat(100), "tx-" + accountId + "-3");
+        var amounts = List.of(new BigDecimal(4), new BigDecimal(1), new BigDecimal(5));
+        var results = accountService.reserveAmounts(accountId, transactionIds, amounts);
+
+        Assertions.assertEquals(ReservationStatus.OK, results.get(0).getReservationStatus());
+        Assertions.assertTrue(results.get(1).hasError());
+        Assertions.assertEquals(ReservationStatus.OK, results.get(2).getReservationStatus());
+        assertEquals(1, service.getAccountBalance(accountId));
+
+        accountService.cancelReservedAmount(accountId, transactionIds.get(0));
+        accountService.cancelReservedAmount(accountId, transactionIds.get(2));
+        assertEquals(10, service.getAccountBalance(accountId));
+    }
+
+    @Test
+    @SneakyThrows
+    void interruptedBorrowIsContinuedAfterRestart() {
+        AccountService accountService = Configuration.getComponent(AccountService.class);
+        TransactionRepository transactionRepo = Configuration.getComponent(TransactionRepository.class);
+        var accountIdFrom = service.createNewAccount();
+        var accountIdTo = service.createNewAccount();
+        service.putMoneyIntoAccount(accountIdFrom, BigDecimal.TEN);
+
+        // the first borrow has added the amount, the second one has only reserved it, then the node stops
+        var added = startBorrow(transactionRepo, accountService, accountIdFrom, accountIdTo, 4);
+        accountService.addAmount(accountIdTo, added.getId(), new BigDecimal(4));
+        transactionRepo.updateTransactionStatus(added.getId(), TransactionStatus.ADDED, null);
+        var reserved = startBorrow(transactionRepo, accountService, accountIdFrom, accountIdTo, 3);
+        assertEquals(10 - 4 - 3, service.getAccountBalance(accountIdFrom));
+
+        // the restarted node debits the added borrow and cancels the other one
+        TestConfiguration.setProperty("mt.repository", "jdbc");
+        MoneyTransferService restarted = Configuration.getComponent(MoneyTransferService.class);
+        for (int i = 0; i < 100 && restarted.getAccountBalance(accountIdFrom).compareTo(new BigDecimal(6)) != 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(10 - 4, restarted.getAccountBalance(accountIdFrom));
+        assertEquals(4, restarted.getAccountBalance(accountIdTo));
+
+        var byAccount = TransactionFilter.builder().accountId(accountIdFrom).build();
+        var statuses = restarted.findTransactions(byAccount, -1, 10).getRecords().stream()
+                .collect(Collectors.toMap(record -> record.getTransaction().getId(), TransactionRecord::getStatus));
+        Assertions.assertEquals(TransactionStatus.DONE, statuses.get(added.getId()));
+        Assertions.assertEquals(TransactionStatus.DENIED, statuses.get(reserved.getId()));
+    }
+
+    private static Transaction startBorrow(TransactionRepository transactionRepo, AccountService accountService,
+                                           String accountIdFrom, String accountIdTo, int amount) {
+        var borrow = Transaction.restore("borrow-" + UUID.randomUUID(), System.currentTimeMillis(),
+                accountIdFrom, accountIdTo, new BigDecimal(amount), TransactionStatus.CREATED);
+        transactionRepo.saveOwnTransaction(borrow);
+        var result = accountService.reserveAmount(accountIdFrom, borrow.getId(), borrow.getAmount());
+        Assertions.assertEquals(ReservationStatus.OK, result.getReservationStatus());
+        transactionRepo.updateTransactionStatus(borrow.getId(), TransactionStatus.RESERVED, null);
+        return borrow;
+    }
+}
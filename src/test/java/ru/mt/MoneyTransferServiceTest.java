@@ -5,10 +5,18 @@ import lombok.extern.log4j.Log4j2;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.function.Executable;
+import ru.mt.app.Configuration;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.LedgerEntry;
+import ru.mt.domain.ReservationStatus;
+import ru.mt.domain.TransactionFilter;
 import ru.mt.domain.TransactionStatus;
+import ru.mt.errors.MoneyTransferAccountsException;
 import ru.mt.errors.MoneyTransferException;
 import ru.mt.errors.MoneyTransferTransactionException;
 import ru.mt.errors.MoneyTransferValidationException;
+import ru.mt.utils.Deadline;
 import ru.mt.utils.RandomUtils;
 import ru.mt.utils.TestUtils;
 
@@ -20,6 +28,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Log4j2
 class MoneyTransferServiceTest extends BaseTest<MoneyTransferService> {
@@ -32,7 +41,7 @@ class MoneyTransferServiceTest extends BaseTest<MoneyTransferService> {
         Assertions.assertNotEquals(1, BigDecimal.ZERO.compareTo(amount));
     }
 
-    private static void assertEquals(int expected, BigDecimal actual) {
+    static void assertEquals(int expected, BigDecimal actual) {
         Assertions.assertEquals(0, new BigDecimal(expected).compareTo(actual));
     }
 
@@ -148,6 +157,316 @@ class MoneyTransferServiceTest extends BaseTest<MoneyTransferService> {
 
         service.withdrawMoneyFromAccount(accountId, new BigDecimal(5));
         assertEquals(10 - 3 - 5, service.getAccountBalance(accountId));
+
+        // the denial reason comes with the call result (also from the shard of another node)
+        var e = Assertions.assertThrows(MoneyTransferTransactionException.class,
+                () -> service.withdrawMoneyFromAccount(accountId, new BigDecimal(3)));
+        Assertions.assertEquals(TransactionStatus.DENIED, e.getTransactionStatus());
+        Assertions.assertTrue(e.toString().endsWith("below required 3"), e.toString());
+        assertEquals(10 - 3 - 5, service.getAccountBalance(accountId));
+    }
+
+    @Test
+    @SneakyThrows
+    void getAccountBalanceWithStaleness() {
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        assertEquals(10, service.getAccountBalance(accountId, 1000));
+
+        // zero staleness: the follower must have applied all the changes
+        service.withdrawMoneyFromAccount(accountId, new BigDecimal(3));
+        assertEquals(10 - 3, service.getAccountBalance(accountId, 0));
+
+        var toAccountId = service.createNewAccount();
+        service.transferMoney(accountId, toAccountId, BigDecimal.ONE);
+        assertEquals(10 - 3 - 1, service.getAccountBalance(accountId, 0));
+        assertEquals(1, service.getAccountBalance(toAccountId, 0));
+
+        assertThrowsMTValidationException(() -> service.getAccountBalance(accountId, -1));
+    }
+
+    @Test
+    @SneakyThrows
+    void createNewAccountsInBulk() {
+        var depositedBefore = service.getCashDeskDepositedAmount();
+
+        var accountIds = service.createNewAccounts(100, BigDecimal.TEN);
+        Assertions.assertEquals(100, Set.copyOf(accountIds).size());
+        Assertions.assertTrue(service.getAccounts().containsAll(accountIds));
+        for (var balance : service.getAccountBalances(accountIds)) {
+            assertEquals(10, balance);
+        }
+        assertEquals(100 * 10, service.getCashDeskDepositedAmount().subtract(depositedBefore));
+
+        // every opening deposit is a transaction
+        var byAccount = TransactionFilter.builder().accountId(accountIds.get(0)).build();
+        var records = service.findTransactions(byAccount, -1, 10).getRecords();
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals(TransactionStatus.DONE, records.get(0).getStatus());
+        assertEquals(10, records.get(0).getTransaction().getAmount());
+
+        // the deposits are not executed after the deadline, but the created accounts are reported
+        Deadline.set(System.currentTimeMillis() - 1);
+        try {
+            var e = Assertions.assertThrows(MoneyTransferAccountsException.class,
+                    () -> service.createNewAccounts(5, BigDecimal.TEN));
+            Assertions.assertEquals(5, e.getAccountIds().size());
+            Assertions.assertEquals(Set.copyOf(e.getAccountIds()), Set.copyOf(e.getUnfundedAccountIds()));
+            Assertions.assertTrue(service.getAccounts().containsAll(e.getAccountIds()));
+            accountIds = e.getAccountIds();
+        } finally {
+            Deadline.clear();
+        }
+        assertEquals(0, service.getAccountBalance(accountIds.get(0)));
+        byAccount = TransactionFilter.builder().accountId(accountIds.get(0)).build();
+        Assertions.assertEquals(TransactionStatus.ERROR,
+                service.findTransactions(byAccount, -1, 10).getRecords().get(0).getStatus());
+
+        assertEquals(0, service.getAccountBalance(service.createNewAccounts(1, null).get(0)));
+        assertThrowsMTValidationException(() -> service.createNewAccounts(0, null));
+        assertThrowsMTValidationException(() -> service.createNewAccounts(1, BigDecimal.ZERO));
+    }
+
+    @Test
+    @SneakyThrows
+    void getAccountBalances() {
+        var accountIds = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            var accountId = service.createNewAccount();
+            service.putMoneyIntoAccount(accountId, new BigDecimal(i + 1));
+            accountIds.add(accountId);
+        }
+        // the balance of the split account is the sum of its sub-balances
+        service.splitAccount(accountIds.get(0), 4);
+        service.putMoneyIntoAccount(accountIds.get(0), BigDecimal.TEN);
+
+        var balances = service.getAccountBalances(accountIds);
+        Assertions.assertEquals(accountIds.size(), balances.size());
+        assertEquals(1 + 10, balances.get(0));
+        for (int i = 1; i < accountIds.size(); i++) {
+            assertEquals(i + 1, balances.get(i));
+        }
+
+        assertThrowsMTValidationException(() -> service.getAccountBalances(List.of()));
+        assertThrowsMTException(() -> service.getAccountBalances(List.of(accountIds.get(1), "unknown")));
+    }
+
+    @Test
+    @SneakyThrows
+    void accountHistory() {
+        var accountId = service.createNewAccount();
+        var toAccountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        service.withdrawMoneyFromAccount(accountId, new BigDecimal(3));
+        service.transferMoney(accountId, toAccountId, BigDecimal.ONE);
+
+        var firstPage = service.getAccountHistory(accountId, 0, Long.MAX_VALUE, -1, 2);
+        Assertions.assertEquals(2, firstPage.getEntries().size());
+        assertEquals(10, firstPage.getEntries().get(0).getAmount());
+        assertEquals(10, firstPage.getEntries().get(0).getBalance());
+        assertEquals(-3, firstPage.getEntries().get(1).getAmount());
+        assertEquals(7, firstPage.getEntries().get(1).getBalance());
+
+        var secondPage = service.getAccountHistory(accountId, 0, Long.MAX_VALUE, firstPage.getNextCursor(), 2);
+        Assertions.assertEquals(1, secondPage.getEntries().size());
+        assertEquals(6, secondPage.getEntries().get(0).getBalance());
+        Assertions.assertEquals(-1, secondPage.getNextCursor());
+
+        // the time range after the last change
+        var lastTs = secondPage.getEntries().get(0).getTs();
+        Assertions.assertTrue(service.getAccountHistory(accountId, lastTs + 1, Long.MAX_VALUE, -1, 10)
+                .getEntries().isEmpty());
+
+        assertThrowsMTValidationException(() -> service.getAccountHistory(accountId, 0, Long.MAX_VALUE, -1, 0));
+    }
+
+    @Test
+    @SneakyThrows
+    void findTransactions() {
+        var accountId = service.createNewAccount();
+        var toAccountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        service.transferMoney(accountId, toAccountId, BigDecimal.ONE);
+        Assertions.assertThrows(MoneyTransferTransactionException.class,
+                () -> service.transferMoney(accountId, toAccountId, new BigDecimal(100)));
+
+        var byAccount = TransactionFilter.builder().accountId(toAccountId).build();
+        var firstPage = service.findTransactions(byAccount, -1, 1);
+        Assertions.assertEquals(1, firstPage.getRecords().size());
+        Assertions.assertEquals(TransactionStatus.DONE, firstPage.getRecords().get(0).getStatus());
+        var secondPage = service.findTransactions(byAccount, firstPage.getNextCursor(), 1);
+        Assertions.assertEquals(TransactionStatus.DENIED, secondPage.getRecords().get(0).getStatus());
+        Assertions.assertEquals(-1, secondPage.getNextCursor());
+
+        var denied = TransactionFilter.builder().accountId(accountId).statuses(Set.of(TransactionStatus.DENIED)).build();
+        Assertions.assertEquals(1, service.findTransactions(denied, -1, 10).getRecords().size());
+
+        // no transactions are created in the future
+        var future = TransactionFilter.builder().fromTs(System.currentTimeMillis() + 10_000).build();
+        Assertions.assertTrue(service.findTransactions(future, -1, 10).getRecords().isEmpty());
+
+        assertThrowsMTValidationException(() -> service.findTransactions(byAccount, -1, 0));
+    }
+
+    @Test
+    @SneakyThrows
+    void expiredWorkIsNotExecuted() {
+        var accountId = service.createNewAccount();
+        var toAccountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+
+        Deadline.set(System.currentTimeMillis() - 1);
+        try {
+            Assertions.assertThrows(MoneyTransferException.class,
+                    () -> service.putMoneyIntoAccount(accountId, BigDecimal.ONE));
+            Assertions.assertThrows(MoneyTransferTransactionException.class,
+                    () -> service.transferMoney(accountId, toAccountId, BigDecimal.ONE));
+        } finally {
+            Deadline.clear();
+        }
+
+        assertEquals(10, service.getAccountBalance(accountId));
+        assertEquals(0, service.getAccountBalance(toAccountId));
+
+        // the final status is not waited for longer than the request deadline
+        Assertions.assertEquals(60_000, MoneyTransferService.getTransactionWaitMillis(Deadline.NONE));
+        Assertions.assertEquals(0, MoneyTransferService.getTransactionWaitMillis(System.currentTimeMillis() - 1));
+        var waitMillis = MoneyTransferService.getTransactionWaitMillis(System.currentTimeMillis() + 1000);
+        Assertions.assertTrue(waitMillis > 0 && waitMillis <= 1000, "wait: " + waitMillis);
+        Assertions.assertEquals(60_000,
+                MoneyTransferService.getTransactionWaitMillis(System.currentTimeMillis() + 3_600_000));
+
+        // the call result is waited for until the deadline (with a slack), but the saga continuation is not limited
+        Deadline.set(System.currentTimeMillis() + 1000);
+        try {
+            var callWaitMillis = AccountService.getCallWaitMillis(
+                    AccountBalanceCall.reserveAmount(accountId, "t1", BigDecimal.ONE));
+            Assertions.assertTrue(callWaitMillis > 1000 && callWaitMillis <= 2000, "wait: " + callWaitMillis);
+            Assertions.assertEquals(60_000,
+                    AccountService.getCallWaitMillis(AccountBalanceCall.debitReservedAmount(accountId, "t1")));
+        } finally {
+            Deadline.clear();
+        }
+        Assertions.assertEquals(60_000,
+                AccountService.getCallWaitMillis(AccountBalanceCall.reserveAmount(accountId, "t1", BigDecimal.ONE)));
+    }
+
+    @Test
+    @SneakyThrows
+    void accountBalanceAt() {
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        var putTs = service.getAccountHistory(accountId, 0, Long.MAX_VALUE, -1, 1).getEntries().get(0).getTs();
+
+        // the next change is made at the later time
+        Thread.sleep(2);
+        service.withdrawMoneyFromAccount(accountId, new BigDecimal(3));
+
+        assertEquals(0, service.getAccountBalanceAt(accountId, putTs - 1));
+        assertEquals(10, service.getAccountBalanceAt(accountId, putTs));
+        assertEquals(7, service.getAccountBalanceAt(accountId, Long.MAX_VALUE));
+    }
+
+    @Test
+    @SneakyThrows
+    void totalsMatchMoneySupply() {
+        var totals = service.getTotals();
+        Assertions.assertTrue(totals.isMoneyConserved(), totals::toString);
+
+        var accountId = service.createNewAccount();
+        var toAccountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        service.transferMoney(accountId, toAccountId, BigDecimal.ONE);
+        service.withdrawMoneyFromAccount(toAccountId, BigDecimal.ONE);
+
+        var newTotals = service.getTotals();
+        Assertions.assertTrue(newTotals.isMoneyConserved(), newTotals::toString);
+        // nothing is in progress, so the totals are checked exactly
+        Assertions.assertTrue(newTotals.isMoneyConservedExactly(), newTotals::toString);
+        Assertions.assertEquals(0, totals.getSupply().compareTo(newTotals.getSupply()));
+    }
+
+    @Test
+    @SneakyThrows
+    void cashDeskTotals() {
+        // the service is shared between the tests, so check the changes of the totals
+        var depositedBefore = service.getCashDeskDepositedAmount();
+        var withdrawnBefore = service.getCashDeskWithdrawnAmount();
+
+        var a1 = service.createNewAccount();
+        var a2 = service.createNewAccount();
+        service.putMoneyIntoAccount(a1, BigDecimal.TEN);
+        service.putMoneyIntoAccount(a2, new BigDecimal(5));
+        service.withdrawMoneyFromAccount(a1, new BigDecimal(3));
+        service.withdrawMoneyFromAccount(a2, new BigDecimal(2));
+
+        assertEquals(10 + 5, service.getCashDeskDepositedAmount().subtract(depositedBefore));
+        assertEquals(3 + 2, service.getCashDeskWithdrawnAmount().subtract(withdrawnBefore));
+    }
+
+    @Test
+    @SneakyThrows
+    void splitAccount() {
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        service.splitAccount(accountId, 4);
+        assertEquals(10, service.getAccountBalance(accountId));
+
+        // credits are spread over the sub-balances
+        for (int i = 0; i < 10; i++) {
+            service.putMoneyIntoAccount(accountId, BigDecimal.ONE);
+        }
+        assertEquals(20, service.getAccountBalance(accountId));
+        Assertions.assertEquals(1, service.getAccounts().stream().filter(accountId::equals).count());
+
+        // debits borrow from the sibling sub-balances when the local one is low
+        var a2 = service.createNewAccount();
+        service.transferMoney(accountId, a2, new BigDecimal(15));
+        service.withdrawMoneyFromAccount(accountId, new BigDecimal(5));
+
+        assertEquals(0, service.getAccountBalance(accountId));
+        assertEquals(15, service.getAccountBalance(a2));
+        assertThrowsMTTransactionException(() -> service.withdrawMoneyFromAccount(accountId, BigDecimal.ONE));
+
+        // already split
+        assertThrowsMTException(() -> service.splitAccount(accountId, 2));
+        assertThrowsMTValidationException(() -> service.splitAccount(a2, 1));
+    }
+
+    @Test
+    @SneakyThrows
+    void splitAccountHistory() {
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+        service.splitAccount(accountId, 4);
+        for (int i = 0; i < 10; i++) {
+            service.putMoneyIntoAccount(accountId, BigDecimal.ONE);
+        }
+        // borrows from the sibling sub-balances
+        service.withdrawMoneyFromAccount(accountId, new BigDecimal(15));
+
+        // the statement has the changes of all the sub-balances and the total balance after each one
+        var entries = new ArrayList<LedgerEntry>();
+        var cursor = -1L;
+        do {
+            var page = service.getAccountHistory(accountId, 0, Long.MAX_VALUE, cursor, 3);
+            Assertions.assertTrue(page.getEntries().size() <= 3);
+            entries.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor >= 0);
+
+        var allEntries = service.getAccountHistory(accountId, 0, Long.MAX_VALUE, -1, 1000).getEntries();
+        Assertions.assertEquals(allEntries.size(), entries.size());
+        Assertions.assertTrue(entries.size() >= 12);
+        var balance = BigDecimal.ZERO;
+        for (int i = 0; i < entries.size(); i++) {
+            Assertions.assertEquals(allEntries.get(i).getTs(), entries.get(i).getTs());
+            Assertions.assertEquals(0, allEntries.get(i).getAmount().compareTo(entries.get(i).getAmount()));
+            balance = balance.add(entries.get(i).getAmount());
+            Assertions.assertEquals(0, balance.compareTo(entries.get(i).getBalance()));
+        }
+        assertEquals(5, balance);
+        assertEquals(5, service.getAccountBalance(accountId));
     }
 
     @Test
@@ -187,6 +506,71 @@ class MoneyTransferServiceTest extends BaseTest<MoneyTransferService> {
                 () -> service.transferMoney(a1, a2, new BigDecimal(11)));
     }
 
+    @Test
+    @SneakyThrows
+    void reserveAmountsOfOneAccount() {
+        AccountService accountService = Configuration.getComponent(AccountService.class);
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+
+        // the reservations are made in order against the available balance
+        var transactionIds = List.of("tx-" + accountId + "-1", "tx-" + accountId + "-2", "tx-" + accountId + "-3");
+        var amounts = List.of(new BigDecimal(4), new BigDecimal(5), new BigDecimal(3));
+        var expectedStatuses = List.of(ReservationStatus.OK, ReservationStatus.OK, ReservationStatus.DENIED);
+        var results = accountService.reserveAmounts(accountId, transactionIds, amounts);
+        Assertions.assertEquals(expectedStatuses,
+                results.stream().map(AccountBalanceCallResult::getReservationStatus).collect(Collectors.toList()));
+        assertEquals(1, service.getAccountBalance(accountId));
+
+        // repeated reservations return the saved statuses
+        results = accountService.reserveAmounts(accountId, transactionIds, amounts);
+        Assertions.assertEquals(expectedStatuses,
+                results.stream().map(AccountBalanceCallResult::getReservationStatus).collect(Collectors.toList()));
+        assertEquals(1, service.getAccountBalance(accountId));
+
+        accountService.cancelReservedAmount(accountId, transactionIds.get(0));
+        accountService.cancelReservedAmount(accountId, transactionIds.get(1));
+        assertEquals(10, service.getAccountBalance(accountId));
+
+        // concurrent transfers from one account are reserved together, the ones that don't fit are denied
+        var transfers = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 5; i++) {
+            var accountTo = service.createNewAccount();
+            transfers.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    service.transferMoney(accountId, accountTo, new BigDecimal(3));
+                    return true;
+                } catch (MoneyTransferException e) {
+                    return false;
+                }
+            }));
+        }
+        var doneCount = transfers.stream().map(CompletableFuture::join).filter(done -> done).count();
+        Assertions.assertEquals(3, doneCount);
+        assertEquals(1, service.getAccountBalance(accountId));
+    }
+
+    @Test
+    @SneakyThrows
+    void reserveAmountsDeniedWithOwnReasons() {
+        AccountService accountService = Configuration.getComponent(AccountService.class);
+        var accountId = service.createNewAccount();
+        service.putMoneyIntoAccount(accountId, BigDecimal.TEN);
+
+        var transactionIds = List.of("tx-" + accountId + "-1", "tx-" + accountId + "-2", "tx-" + accountId + "-3");
+        var amounts = List.of(new BigDecimal(9), new BigDecimal(3), new BigDecimal(2));
+        var results = accountService.reserveAmounts(accountId, transactionIds, amounts);
+
+        Assertions.assertEquals(ReservationStatus.OK, results.get(0).getReservationStatus());
+        Assertions.assertEquals(ReservationStatus.DENIED, results.get(1).getReservationStatus());
+        Assertions.assertEquals(ReservationStatus.DENIED, results.get(2).getReservationStatus());
+        Assertions.assertTrue(results.get(1).getReservationReason().endsWith("below required 3"));
+        Assertions.assertTrue(results.get(2).getReservationReason().endsWith("below required 2"));
+
+        accountService.cancelReservedAmount(accountId, transactionIds.get(0));
+        assertEquals(10, service.getAccountBalance(accountId));
+    }
+
     @Test
     @SneakyThrows
     void parallelTransferMoneyFromOneAccountToAnother() {
@@ -0,0 +1,20 @@
+package ru.mt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import ru.mt.app.TestConfiguration;
+
+/**
+ * The scenarios of MoneyTransferServiceTest with 2 follower replicas of every shard
+ */
+class ReplicaMoneyTransferServiceTest extends MoneyTransferServiceTest {
+    @BeforeAll
+    static void startFollowers() {
+        TestConfiguration.setProperty("mt.replica.followers", "2");
+    }
+
+    @AfterAll
+    static void stopFollowers() {
+        TestConfiguration.clearProperty("mt.replica.followers");
+    }
+}
@@ -0,0 +1,101 @@
+package ru.mt.app;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster of several nodes on the localhost for the tests: this JVM becomes the node 0 (the configuration is reloaded),
+ * the other nodes are started as child JVMs with the same class path. Logs of the child nodes are written to target/.
+ */
+@Log4j2
+public class LocalCluster implements AutoCloseable {
+    private final List<Process> processes = new ArrayList<>();
+
+    private LocalCluster() {
+    }
+
+    public static LocalCluster start(int nodeCount) throws IOException {
+        var nodes = new ArrayList<String>();
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add("127.0.0.1:" + findFreePort());
+        }
+        var nodeList = String.join(",", nodes);
+
+        var cluster = new LocalCluster();
+        try {
+            for (int i = 1; i < nodeCount; i++) {
+                cluster.startNode(i, nodeList);
+            }
+
+            // this JVM must not come up as the node 0 twice (on the first access and on the reset),
+            // otherwise the money issued into its shards by the other nodes is lost with the first instance
+            Configuration.run();
+            System.setProperty("mt.cluster.nodes", nodeList);
+            System.setProperty("mt.cluster.nodeIndex", "0");
+            Configuration.reset();
+
+        } catch (Throwable e) {
+            cluster.close();
+            throw e;
+        }
+
+        log.info("Local cluster started: " + nodeList);
+        return cluster;
+    }
+
+    private void startNode(int nodeIndex, String nodeList) throws IOException {
+        var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        var logFile = new File("target", String.format("local-cluster-node-%d.log", nodeIndex));
+
+        var process = new ProcessBuilder(
+                java,
+                "-Xmx256m",
+                "-cp", System.getProperty("java.class.path"),
+                "-Dmt.cluster.nodes=" + nodeList,
+                "-Dmt.cluster.nodeIndex=" + nodeIndex,
+                "-Dmt.http.port=" + findFreePort(),
+                Application.class.getName())
+                .redirectErrorStream(true)
+                .redirectOutput(logFile)
+                .start();
+
+        processes.add(process);
+    }
+
+    private static int findFreePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Stops the child nodes and makes this JVM a single node again
+     */
+    @Override
+    public void close() {
+        System.clearProperty("mt.cluster.nodes");
+        System.clearProperty("mt.cluster.nodeIndex");
+        try {
+            Configuration.reset();
+        } finally {
+            processes.forEach(Process::destroy);
+            for (var process : processes) {
+                try {
+                    if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            log.info("Local cluster stopped");
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.mt.app;
+
+/**
+ * Changes the system properties which the components read at their creation
+ */
+public final class TestConfiguration {
+    private TestConfiguration() {
+    }
+
+    /**
+     * Sets the property and re-creates the components
+     */
+    public static void setProperty(String name, String value) {
+        System.setProperty(name, value);
+        Configuration.reset();
+    }
+
+    /**
+     * Clears the property and re-creates the components
+     */
+    public static void clearProperty(String name) {
+        System.clearProperty(name);
+        Configuration.reset();
+    }
+}
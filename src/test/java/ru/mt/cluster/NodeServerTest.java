@@ -0,0 +1,119 @@
+package ru.mt.cluster;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.BalanceTotals;
+import ru.mt.domain.LedgerPage;
+
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class NodeServerTest {
+    /**
+     * The new work waits for the latch, the saga continuation is executed at once
+     */
+    private static class BlockingHandler implements NodeRequestHandler {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        @Override
+        @SneakyThrows
+        public AccountBalanceCallResult executeCall(AccountBalanceCall call) {
+            if (!call.getCallType().isSagaContinuation()) {
+                started.countDown();
+                released.await(10, TimeUnit.SECONDS);
+            }
+            return AccountBalanceCallResult.builder().callId(call.getId()).amount(BigDecimal.ONE).build();
+        }
+
+        @Override
+        public long checkShardAdmission(String accountId) {
+            return 0;
+        }
+
+        @Override
+        public void createAccount(String accountId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void createAccounts(List<String> accountIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> getAccounts() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean accountExists(String accountId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveSplitAccount(String accountId, List<String> subAccountIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LedgerPage getLedger(String accountId, long fromTs, long toTs, long cursor, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BigDecimal getBalanceAt(String accountId, long ts) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BalanceTotals getTotals() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void fullPoolRejectsNewWorkButExecutesSagaContinuation() {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        var handler = new BlockingHandler();
+        // one request is executed and one waits in the queue
+        var server = new NodeServer(port, handler, 1, 1);
+        var client = new NodeClient(1, new InetSocketAddress("127.0.0.1", port), 5_000, 10_000);
+        try {
+            var executed = client.executeCallAsync(AccountBalanceCall.reserveAmount("a", "t1", BigDecimal.ONE));
+            Assertions.assertTrue(handler.started.await(5, TimeUnit.SECONDS));
+            var queued = client.executeCallAsync(AccountBalanceCall.reserveAmount("a", "t2", BigDecimal.ONE));
+
+            var rejected = client.executeCall(AccountBalanceCall.reserveAmount("a", "t3", BigDecimal.ONE));
+            Assertions.assertTrue(rejected.hasError());
+            Assertions.assertTrue(rejected.getErrorMessage().contains("overloaded"), rejected.getErrorMessage());
+            Assertions.assertEquals(1000, client.checkShardAdmission("a"));
+
+            var debit = client.executeCall(AccountBalanceCall.debitReservedAmount("a", "t0"));
+            Assertions.assertFalse(debit.hasError(), debit.getErrorMessage());
+
+            handler.released.countDown();
+            Assertions.assertFalse(executed.get(5, TimeUnit.SECONDS).hasError());
+            Assertions.assertFalse(queued.get(5, TimeUnit.SECONDS).hasError());
+            Assertions.assertEquals(0, client.checkShardAdmission("a"));
+
+        } finally {
+            handler.released.countDown();
+            client.close();
+            server.destroy();
+        }
+    }
+}
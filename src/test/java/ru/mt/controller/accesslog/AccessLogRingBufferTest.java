@@ -0,0 +1,71 @@
+package ru.mt.controller.accesslog;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class AccessLogRingBufferTest {
+
+    @Test
+    void rejectsWhenFull() {
+        var buffer = new AccessLogRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            Assertions.assertTrue(buffer.offer(i, 0, 0, 0, 0, 0, 0, 0));
+        }
+        Assertions.assertFalse(buffer.offer(4, 0, 0, 0, 0, 0, 0, 0));
+
+        var first = new long[1];
+        Assertions.assertEquals(1, buffer.drain((entries, offset) -> first[0] = entries[offset], 1));
+        Assertions.assertEquals(0, first[0]);
+        Assertions.assertTrue(buffer.offer(4, 0, 0, 0, 0, 0, 0, 0));
+        Assertions.assertEquals(4, buffer.size());
+    }
+
+    @Test
+    void concurrentProducers() {
+        final int PRODUCER_COUNT = 4;
+        final int ENTRY_COUNT = 20_000;
+        var buffer = new AccessLogRingBuffer(1024);
+
+        var producers = new CompletableFuture[PRODUCER_COUNT];
+        for (int p = 0; p < PRODUCER_COUNT; p++) {
+            var producer = p;
+            producers[p] = CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < ENTRY_COUNT; i++) {
+                    // every entry is consistent: all its values are derived from the first one
+                    long value = (long) producer * ENTRY_COUNT + i;
+                    while (!buffer.offer(value, value + 1, value + 2, value + 3,
+                            value + 4, value + 5, value + 6, value + 7)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+
+        var consumed = new AtomicInteger();
+        var lastValues = new long[PRODUCER_COUNT];
+        Arrays.fill(lastValues, -1);
+
+        while (consumed.get() < PRODUCER_COUNT * ENTRY_COUNT) {
+            buffer.drain((entries, offset) -> {
+                var value = entries[offset];
+                for (int i = 1; i < AccessLogRingBuffer.ENTRY_SIZE; i++) {
+                    Assertions.assertEquals(value + i, entries[offset + i]);
+                }
+
+                // entries of one producer are consumed in order
+                var producer = (int) (value / ENTRY_COUNT);
+                Assertions.assertTrue(value > lastValues[producer]);
+                lastValues[producer] = value;
+
+                consumed.incrementAndGet();
+            }, 100);
+        }
+
+        CompletableFuture.allOf(producers).join();
+        Assertions.assertEquals(0, buffer.size());
+    }
+}
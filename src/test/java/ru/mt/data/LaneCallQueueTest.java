@@ -0,0 +1,43 @@
+package ru.mt.data;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.CallLane;
+
+import java.math.BigDecimal;
+
+class LaneCallQueueTest {
+    private static final CallLane[] BY_PRIORITY = {CallLane.SAGA_STEP, CallLane.READ, CallLane.NEW_WORK};
+    private static final CallLane[] NEW_WORK_FIRST = {CallLane.NEW_WORK, CallLane.SAGA_STEP, CallLane.READ};
+
+    @Test
+    @SneakyThrows
+    void callsAreTakenByLaneOrder() {
+        var queue = new LaneCallQueue(10);
+        var reserve = AccountBalanceCall.reserveAmount("a", "t1", BigDecimal.ONE);
+        var read = AccountBalanceCall.getAvailableBalance("a");
+        var debit = AccountBalanceCall.debitReservedAmount("a", "t0");
+        var cancel = AccountBalanceCall.cancelReservedAmount("a", "t2");
+        for (var call : new AccountBalanceCall[]{reserve, read, debit, cancel}) {
+            Assertions.assertTrue(queue.offer(call, 0));
+        }
+        Assertions.assertEquals(4, queue.size());
+
+        Assertions.assertSame(debit, queue.poll(BY_PRIORITY, 0));
+        Assertions.assertSame(reserve, queue.poll(NEW_WORK_FIRST, 0));
+        Assertions.assertSame(cancel, queue.poll(NEW_WORK_FIRST, 0));
+        Assertions.assertSame(read, queue.poll(BY_PRIORITY, 0));
+        Assertions.assertNull(queue.poll(BY_PRIORITY, 0));
+    }
+
+    @Test
+    @SneakyThrows
+    void fullLaneDoesNotBlockOtherLanes() {
+        var queue = new LaneCallQueue(1);
+        Assertions.assertTrue(queue.offer(AccountBalanceCall.reserveAmount("a", "t1", BigDecimal.ONE), 0));
+        Assertions.assertFalse(queue.offer(AccountBalanceCall.reserveAmount("a", "t2", BigDecimal.ONE), 0));
+        Assertions.assertTrue(queue.offer(AccountBalanceCall.debitReservedAmount("a", "t0"), 0));
+    }
+}
@@ -0,0 +1,155 @@
+package ru.mt.data;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.mt.data.inmemory.InMemoryTransactionRepository;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
+import ru.mt.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TransactionStatusWriterTest {
+    /**
+     * Records the written batches; the first batch can be held until released, so that the next updates
+     * are queued meanwhile and written by one batch; the first writes can fail
+     */
+    private static class RecordingRepository extends InMemoryTransactionRepository {
+        final List<Map<String, TransactionStatus>> batches = new ArrayList<>();
+        final Map<String, String> reasons = new HashMap<>();
+        final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        final CountDownLatch firstBatchReleased = new CountDownLatch(1);
+        final AtomicInteger failuresLeft = new AtomicInteger();
+
+        @Override
+        @SneakyThrows
+        public void updateTransactionStatuses(Map<String, TransactionStatusUpdate> updates) {
+            firstBatchStarted.countDown();
+            firstBatchReleased.await();
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IllegalStateException("Test failure");
+            }
+            synchronized (batches) {
+                var statuses = new LinkedHashMap<String, TransactionStatus>();
+                updates.forEach((transactionId, update) -> {
+                    statuses.put(transactionId, update.getStatus());
+                    reasons.put(transactionId, update.getReason());
+                });
+                batches.add(statuses);
+            }
+        }
+
+        String getReason(String transactionId) {
+            synchronized (batches) {
+                return reasons.get(transactionId);
+            }
+        }
+
+        List<Map<String, TransactionStatus>> getBatches() {
+            synchronized (batches) {
+                return new ArrayList<>(batches);
+            }
+        }
+    }
+
+    private final RecordingRepository repository = new RecordingRepository();
+    private TransactionStatusWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        repository.firstBatchReleased.countDown();
+        writer.destroy();
+    }
+
+    private void startWriter(boolean elideIntermediateStatuses) {
+        writer = new TransactionStatusWriter(repository, new MetricsRegistry(), elideIntermediateStatuses);
+    }
+
+    @SneakyThrows
+    private List<Map<String, TransactionStatus>> waitForBatches(int count) {
+        for (int i = 0; i < 500 && repository.getBatches().size() < count; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        var batches = repository.getBatches();
+        Assertions.assertEquals(count, batches.size());
+        return batches;
+    }
+
+    @Test
+    @SneakyThrows
+    void lastStatusesAreWrittenInCompletionOrder() {
+        startWriter(false);
+        writer.updateTransactionStatus("t0", TransactionStatus.DONE);
+        Assertions.assertTrue(repository.firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+        // queued while the first batch is being written
+        writer.updateTransactionStatus("t1", TransactionStatus.RESERVED);
+        writer.updateTransactionStatus("t2", TransactionStatus.RESERVED);
+        writer.updateTransactionStatus("t1", TransactionStatus.ADDED);
+        writer.updateTransactionStatus("t2", TransactionStatus.DONE);
+        writer.updateTransactionStatus("t1", TransactionStatus.DONE);
+        repository.firstBatchReleased.countDown();
+
+        var batches = waitForBatches(2);
+        Assertions.assertEquals(Map.of("t0", TransactionStatus.DONE), batches.get(0));
+        // t2 is completed before t1
+        Assertions.assertEquals(List.of("t2", "t1"), new ArrayList<>(batches.get(1).keySet()));
+        Assertions.assertEquals(TransactionStatus.DONE, batches.get(1).get("t1"));
+        Assertions.assertEquals(TransactionStatus.DONE, batches.get(1).get("t2"));
+    }
+
+    @Test
+    @SneakyThrows
+    void intermediateStatusesAreElided() {
+        startWriter(true);
+        repository.firstBatchReleased.countDown();
+        writer.updateTransactionStatus("t1", TransactionStatus.RESERVED);
+        writer.updateTransactionStatus("t1", TransactionStatus.ADDED);
+        writer.updateTransactionStatus("t1", TransactionStatus.DENIED);
+
+        var batches = waitForBatches(1);
+        Assertions.assertEquals(Map.of("t1", TransactionStatus.DENIED), batches.get(0));
+    }
+
+    @Test
+    @SneakyThrows
+    void failedBatchIsRetried() {
+        startWriter(false);
+        repository.failuresLeft.set(2);
+        writer.updateTransactionStatus("t1", TransactionStatus.DONE);
+        Assertions.assertTrue(repository.firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+        // merged into the failed batch
+        writer.updateTransactionStatus("t2", TransactionStatus.ERROR);
+        repository.firstBatchReleased.countDown();
+
+        var batches = waitForBatches(1);
+        Assertions.assertEquals(List.of("t1", "t2"), new ArrayList<>(batches.get(0).keySet()));
+    }
+
+    @Test
+    @SneakyThrows
+    void reasonIsCapturedWhenQueued() {
+        startWriter(false);
+        writer.updateTransactionStatus("t0", TransactionStatus.DONE);
+        Assertions.assertTrue(repository.firstBatchStarted.await(5, TimeUnit.SECONDS));
+
+        // the same status of another transaction gets another reason before the batch is written
+        writer.updateTransactionStatus("t1", TransactionStatus.DENIED.setReason("reason 1"));
+        writer.updateTransactionStatus("t2", TransactionStatus.DENIED.setReason("reason 2"));
+        repository.firstBatchReleased.countDown();
+
+        waitForBatches(2);
+        Assertions.assertEquals("reason 1", repository.getReason("t1"));
+        Assertions.assertEquals("reason 2", repository.getReason("t2"));
+    }
+}
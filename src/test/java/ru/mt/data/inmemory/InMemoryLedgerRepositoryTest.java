@@ -0,0 +1,39 @@
+package ru.mt.data.inmemory;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+class InMemoryLedgerRepositoryTest {
+    @Test
+    void pagesOverChunks() {
+        var ledgerRepo = new InMemoryLedgerRepository();
+        for (int i = 0; i < 1000; i++) {
+            ledgerRepo.append("a", "t" + i, BigDecimal.ONE, new BigDecimal(i));
+        }
+
+        var count = 0;
+        var cursor = -1L;
+        do {
+            var page = ledgerRepo.findEntries("a", 0, Long.MAX_VALUE, cursor, 300);
+            for (var entry : page.getEntries()) {
+                Assertions.assertEquals(count, entry.getSeq());
+                Assertions.assertEquals("t" + count, entry.getTransactionId());
+                count++;
+            }
+            cursor = page.getNextCursor();
+        } while (cursor >= 0);
+        Assertions.assertEquals(1000, count);
+
+        var lastTs = ledgerRepo.findEntries("a", 0, Long.MAX_VALUE, 999, 1).getEntries().get(0).getTs();
+        Assertions.assertTrue(ledgerRepo.findEntries("a", lastTs + 1, Long.MAX_VALUE, -1, 10).getEntries().isEmpty());
+        Assertions.assertTrue(ledgerRepo.findEntries("a", 0, 0, -1, 10).getEntries().isEmpty());
+        Assertions.assertTrue(ledgerRepo.findEntries("b", 0, Long.MAX_VALUE, -1, 10).getEntries().isEmpty());
+
+        Assertions.assertEquals(new BigDecimal(999), ledgerRepo.findBalanceAt("a", lastTs));
+        Assertions.assertEquals(new BigDecimal(999), ledgerRepo.findBalanceAt("a", Long.MAX_VALUE));
+        Assertions.assertNull(ledgerRepo.findBalanceAt("a", 0));
+        Assertions.assertNull(ledgerRepo.findBalanceAt("b", lastTs));
+    }
+}
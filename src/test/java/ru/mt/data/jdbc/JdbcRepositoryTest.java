@@ -0,0 +1,257 @@
+package ru.mt.data.jdbc;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import ru.mt.domain.Account;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.CallLane;
+import ru.mt.domain.Reservation;
+import ru.mt.domain.ReservationStatus;
+import ru.mt.domain.Transaction;
+import ru.mt.domain.TransactionFilter;
+import ru.mt.domain.TransactionPage;
+import ru.mt.domain.TransactionStatus;
+import ru.mt.domain.TransactionStatusUpdate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+class JdbcRepositoryTest {
+    private static ConnectionPool pool;
+    private static JdbcAccountRepository accountRepo;
+    private static JdbcTransactionRepository transactionRepo;
+    private static JdbcLedgerRepository ledgerRepo;
+
+    @BeforeAll
+    @SneakyThrows
+    static void init() {
+        pool = new ConnectionPool("jdbc:h2:mem:repository-test;DB_CLOSE_DELAY=-1", "sa", "", 2);
+        pool.executeScript("/db/schema.sql");
+        accountRepo = new JdbcAccountRepository(pool);
+        transactionRepo = new JdbcTransactionRepository(pool);
+        ledgerRepo = new JdbcLedgerRepository(pool);
+    }
+
+    @AfterAll
+    static void destroy() {
+        ledgerRepo.destroy();
+        transactionRepo.destroy();
+        accountRepo.destroy();
+        pool.destroy();
+    }
+
+    private static String newAccount(int balance) {
+        var account = new Account(UUID.randomUUID().toString());
+        account.setBalance(new BigDecimal(balance));
+        accountRepo.saveNewAccount(account);
+        return account.getId();
+    }
+
+    private static void assertBalance(int expected, String accountId) {
+        Assertions.assertEquals(0, new BigDecimal(expected).compareTo(accountRepo.findAccount(accountId).getBalance()));
+    }
+
+    private static List<String> getTransactionIds(TransactionPage page) {
+        return page.getRecords().stream().map(record -> record.getTransaction().getId()).collect(Collectors.toList());
+    }
+
+    private static String findReason(String transactionId) {
+        return pool.execute(connection -> {
+            try (var statement = connection.prepareStatement("SELECT reason FROM money_transaction WHERE id = ?")) {
+                statement.setString(1, transactionId);
+                try (var resultSet = statement.executeQuery()) {
+                    Assertions.assertTrue(resultSet.next());
+                    return resultSet.getString(1);
+                }
+            }
+        });
+    }
+
+    @Test
+    void accountsAndReservations() {
+        var accountId = newAccount(10);
+        Assertions.assertTrue(accountRepo.findAllAccount().contains(accountId));
+        Assertions.assertNull(accountRepo.findAccount("<not-exist>"));
+        Assertions.assertThrows(IllegalStateException.class, () -> accountRepo.saveNewAccount(new Account(accountId)));
+
+        var reservation = new Reservation(accountId, "t1", new BigDecimal(3));
+        reservation.setStatus(ReservationStatus.OK);
+        accountRepo.saveNewReservation(reservation);
+        Assertions.assertEquals(1, accountRepo.getAllReservationWhereStatusOK(accountId).size());
+
+        accountRepo.updateAccountBalanceAndReservationStatus(accountId, "t1", new BigDecimal(7), ReservationStatus.DEBITED);
+        assertBalance(7, accountId);
+        Assertions.assertEquals(ReservationStatus.DEBITED, accountRepo.findReservation(accountId, "t1").getStatus());
+        Assertions.assertTrue(accountRepo.getAllReservationWhereStatusOK(accountId).isEmpty());
+    }
+
+    @Test
+    void balanceAndReservationStatusAreUpdatedInOneTransaction() {
+        var accountId = newAccount(10);
+
+        // the reservation does not exist => the balance update must be rolled back
+        Assertions.assertThrows(IllegalStateException.class, () -> accountRepo.updateAccountBalanceAndReservationStatus(
+                accountId, "<not-exist>", BigDecimal.ONE, ReservationStatus.DEBITED));
+        assertBalance(10, accountId);
+
+        // the second account does not exist => the first balance update must be rolled back
+        Assertions.assertThrows(IllegalStateException.class, () -> accountRepo.updateAccountBalances(
+                accountId, BigDecimal.ONE, "<not-exist>", BigDecimal.ONE));
+        assertBalance(10, accountId);
+    }
+
+    @Test
+    void accountsBatch() {
+        var a1 = new Account(UUID.randomUUID().toString());
+        var a2 = new Account(UUID.randomUUID().toString());
+        accountRepo.saveNewAccounts(List.of(a1, a2));
+        Assertions.assertTrue(accountRepo.findAllAccount().containsAll(Set.of(a1.getId(), a2.getId())));
+
+        var balances = new LinkedHashMap<String, BigDecimal>();
+        balances.put(a1.getId(), BigDecimal.ONE);
+        balances.put(a2.getId(), BigDecimal.TEN);
+        accountRepo.updateAccountBalances(balances);
+        assertBalance(1, a1.getId());
+        assertBalance(10, a2.getId());
+
+        // one of the accounts does not exist => all the balance updates must be rolled back
+        balances.put("<not-exist>", BigDecimal.ZERO);
+        Assertions.assertThrows(IllegalStateException.class, () -> accountRepo.updateAccountBalances(balances));
+        assertBalance(1, a1.getId());
+    }
+
+    @Test
+    @SneakyThrows
+    void transactionStatusesBatch() {
+        var t1 = new Transaction("a", "b", BigDecimal.ONE, TransactionStatus.CREATED);
+        var t2 = new Transaction("a", "b", BigDecimal.TEN, TransactionStatus.CREATED);
+        Assertions.assertTrue(transactionRepo.saveNewTransaction(t1));
+        Assertions.assertTrue(transactionRepo.saveNewTransaction(t2));
+
+        var future1 = transactionRepo.getFinalTransactionStatus(t1.getId());
+        var future2 = transactionRepo.getFinalTransactionStatus(t2.getId());
+
+        var updates = new LinkedHashMap<String, TransactionStatusUpdate>();
+        updates.put(t1.getId(), new TransactionStatusUpdate(TransactionStatus.DONE, "reason 1"));
+        updates.put(t2.getId(), new TransactionStatusUpdate(TransactionStatus.RESERVED, null));
+        transactionRepo.updateTransactionStatuses(updates);
+
+        Assertions.assertEquals(TransactionStatus.DONE, future1.get(1, TimeUnit.SECONDS));
+        Assertions.assertFalse(future2.isDone());
+        // the completed transaction is read from the DB
+        Assertions.assertEquals(TransactionStatus.DONE,
+                transactionRepo.getFinalTransactionStatus(t1.getId()).get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals("reason 1", findReason(t1.getId()));
+    }
+
+    @Test
+    @SneakyThrows
+    void processedTransactionsBatch() {
+        var t1 = new Transaction("a", "b", BigDecimal.ONE, TransactionStatus.CREATED);
+        var t2 = new Transaction("a", "c", BigDecimal.ONE, TransactionStatus.CREATED);
+        transactionRepo.saveProcessedTransactions(List.of(t1, t2), TransactionStatus.ERROR, "shard failed");
+
+        for (var transaction : List.of(t1, t2)) {
+            Assertions.assertEquals(TransactionStatus.ERROR,
+                    transactionRepo.getFinalTransactionStatus(transaction.getId()).get(1, TimeUnit.SECONDS));
+            Assertions.assertEquals("shard failed", findReason(transaction.getId()));
+        }
+    }
+
+    @Test
+    void transactionQueries() {
+        var accountId = UUID.randomUUID().toString();
+        var t1 = new Transaction(accountId, "b", BigDecimal.ONE, TransactionStatus.CREATED);
+        var t2 = new Transaction("b", accountId, BigDecimal.TEN, TransactionStatus.CREATED);
+        var t3 = new Transaction(accountId, "c", BigDecimal.ONE, TransactionStatus.CREATED);
+        Assertions.assertTrue(transactionRepo.saveNewTransaction(t1));
+        Assertions.assertTrue(transactionRepo.saveNewTransaction(t2));
+        transactionRepo.saveProcessedTransaction(t3, TransactionStatus.DONE, null);
+
+        var byAccount = TransactionFilter.builder().accountId(accountId).build();
+        var firstPage = transactionRepo.findTransactions(byAccount, -1, 2);
+        Assertions.assertEquals(List.of(t1.getId(), t2.getId()), getTransactionIds(firstPage));
+        var secondPage = transactionRepo.findTransactions(byAccount, firstPage.getNextCursor(), 2);
+        Assertions.assertEquals(List.of(t3.getId()), getTransactionIds(secondPage));
+        Assertions.assertEquals(-1, secondPage.getNextCursor());
+
+        var notFinal = TransactionFilter.builder()
+                .accountId(accountId)
+                .statuses(Set.of(TransactionStatus.CREATED, TransactionStatus.RESERVED))
+                .toTs(t3.getTs() + 1)
+                .build();
+        transactionRepo.updateTransactionStatus(t2.getId(), TransactionStatus.DENIED, "reason 2");
+        var page = transactionRepo.findTransactions(notFinal, -1, 10);
+        Assertions.assertEquals(List.of(t1.getId()), getTransactionIds(page));
+        Assertions.assertEquals("reason 2", findReason(t2.getId()));
+        Assertions.assertEquals(BigDecimal.ONE, page.getRecords().get(0).getTransaction().getAmount().stripTrailingZeros());
+    }
+
+    @Test
+    void ledgerPages() {
+        var accountId = UUID.randomUUID().toString();
+        for (int i = 1; i <= 5; i++) {
+            ledgerRepo.append(accountId, "t" + i, BigDecimal.ONE, new BigDecimal(i));
+        }
+
+        var page = ledgerRepo.findEntries(accountId, 0, Long.MAX_VALUE, -1, 3);
+        Assertions.assertEquals(3, page.getEntries().size());
+        Assertions.assertEquals("t1", page.getEntries().get(0).getTransactionId());
+
+        page = ledgerRepo.findEntries(accountId, 0, Long.MAX_VALUE, page.getNextCursor(), 3);
+        Assertions.assertEquals(2, page.getEntries().size());
+        Assertions.assertEquals("t5", page.getEntries().get(1).getTransactionId());
+        Assertions.assertEquals(-1, page.getNextCursor());
+
+        // a new repository continues the ledger stored in the DB
+        var lastTs = page.getEntries().get(1).getTs();
+        new JdbcLedgerRepository(pool).append(accountId, "t6", BigDecimal.ONE, new BigDecimal(6));
+        page = ledgerRepo.findEntries(accountId, lastTs, Long.MAX_VALUE, -1, 10);
+        Assertions.assertEquals(6, page.getEntries().get(page.getEntries().size() - 1).getSeq() + 1);
+
+        Assertions.assertEquals(0, new BigDecimal(6).compareTo(ledgerRepo.findBalanceAt(accountId, Long.MAX_VALUE)));
+        Assertions.assertNull(ledgerRepo.findBalanceAt(accountId, 0));
+    }
+
+    @Test
+    @SneakyThrows
+    void callsAreLoggedWithListValues() {
+        var callRepo = new JdbcAccountBalanceCallRepository(pool);
+        callRepo.initShards(1);
+        var call = AccountBalanceCall.reserveMany("account", List.of("t1", "t2"), List.of(BigDecimal.ONE, BigDecimal.TEN));
+        Assertions.assertTrue(callRepo.putNewCall(call, 0, 0));
+        callRepo.getNextCall(0, CallLane.values(), 0);
+        callRepo.setCallResult(call.getId(), AccountBalanceCallResult.builder()
+                .callId(call.getId())
+                .reservationStatuses(List.of(ReservationStatus.OK, ReservationStatus.DENIED))
+                .build());
+        Assertions.assertNotNull(callRepo.getCallResult(call.getId(), 0));
+
+        var items = pool.execute(connection -> {
+            try (var statement = connection.prepareStatement(
+                    "SELECT transaction_id, amount, result_reservation FROM balance_call_item " +
+                            "WHERE call_id = ? ORDER BY idx")) {
+                statement.setString(1, call.getId());
+                var rows = new ArrayList<String>();
+                try (var resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows.add(resultSet.getString(1) + ":" + resultSet.getBigDecimal(2).stripTrailingZeros()
+                                .toPlainString() + ":" + resultSet.getString(3));
+                    }
+                }
+                return rows;
+            }
+        });
+        Assertions.assertEquals(List.of("t1:1:OK", "t2:10:DENIED"), items);
+    }
+}
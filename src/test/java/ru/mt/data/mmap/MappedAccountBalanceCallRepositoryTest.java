@@ -0,0 +1,72 @@
+package ru.mt.data.mmap;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mt.domain.AccountBalanceCall;
+import ru.mt.domain.AccountBalanceCallResult;
+import ru.mt.domain.CallLane;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+class MappedAccountBalanceCallRepositoryTest {
+    @TempDir
+    Path directory;
+
+    private MappedAccountBalanceCallRepository openRepository() {
+        var repository = new MappedAccountBalanceCallRepository(directory, 3 * 4096);
+        repository.initShards(1);
+        return repository;
+    }
+
+    @Test
+    @SneakyThrows
+    void shardFileSizeIsSplitBetweenLanes() {
+        openRepository().destroy();
+        Assertions.assertEquals(4096, Files.size(directory.resolve("shard-0000.queue")));
+        Assertions.assertEquals(4096, Files.size(directory.resolve("shard-0000-new_work.queue")));
+
+        var laneDirectory = directory.resolve("lanes");
+        var repository = new MappedAccountBalanceCallRepository(laneDirectory,
+                Map.of(CallLane.SAGA_STEP, 8192, CallLane.READ, 1024, CallLane.NEW_WORK, 4096));
+        repository.initShards(1);
+        repository.destroy();
+        Assertions.assertEquals(1024, Files.size(laneDirectory.resolve("shard-0000-read.queue")));
+    }
+
+    @Test
+    @SneakyThrows
+    void onlyCallsAppliedAtMostOnceAreReplayed() {
+        var add = AccountBalanceCall.addAmount("to", "tx1", BigDecimal.ONE);
+        var debit = AccountBalanceCall.debitReservedAmount("from", "tx1");
+        var deposit = AccountBalanceCall.deposit("account", "cash-desk", "tx2", BigDecimal.TEN);
+
+        var repository = openRepository();
+        for (var call : new AccountBalanceCall[]{add, debit, deposit}) {
+            Assertions.assertTrue(repository.putNewCall(call, 0, 0));
+        }
+        // the credit is executed, but the process dies before its result is set
+        Assertions.assertEquals(add.getId(), repository.getNextCall(0, CallLane.values(), 0).getId());
+        repository.destroy();
+
+        repository = openRepository();
+        Assertions.assertEquals(3, repository.getQueueSize(0));
+        // the credit and the deposit are skipped, the debit of the reservation is replayed
+        Assertions.assertNull(repository.getNextCall(0, CallLane.values(), 0));
+        var replayed = repository.getNextCall(0, CallLane.values(), 0);
+        Assertions.assertEquals(debit.getId(), replayed.getId());
+        repository.setCallResult(replayed.getId(), AccountBalanceCallResult.builder().callId(replayed.getId()).build());
+        Assertions.assertNull(repository.getNextCall(0, CallLane.values(), 0));
+        Assertions.assertEquals(0, repository.getQueueSize(0));
+        repository.destroy();
+
+        // the skipped calls are committed, so they are not replayed again
+        repository = openRepository();
+        Assertions.assertEquals(0, repository.getQueueSize(0));
+        repository.destroy();
+    }
+}
@@ -0,0 +1,97 @@
+package ru.mt.data.mmap;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mt.domain.AccountBalanceCall;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+
+class MappedCallQueueTest {
+    @TempDir
+    Path directory;
+
+    @SneakyThrows
+    private MappedCallQueue openQueue(int capacity) {
+        return new MappedCallQueue(directory.resolve("test.queue"), directory.resolve("test.offset"), capacity);
+    }
+
+    @Test
+    @SneakyThrows
+    void callIsDecodedAsItWasEncoded() {
+        try (var queue = openQueue(4096)) {
+            var call = AccountBalanceCall.deposit("account", "cash-desk", "tx", new BigDecimal("12.34"));
+            Assertions.assertTrue(queue.append(call, 0));
+            Assertions.assertTrue(queue.append(AccountBalanceCall.getAvailableBalance("account"), 0));
+            var reserveManyCall = AccountBalanceCall.reserveMany(
+                    "account", List.of("tx1", "tx2"), List.of(BigDecimal.ONE, new BigDecimal("0.5")));
+            Assertions.assertTrue(queue.append(reserveManyCall, 0));
+
+            var decoded = queue.poll(0);
+            Assertions.assertEquals(call.toString(), decoded.toString());
+            Assertions.assertNull(queue.poll(0).getAmount());
+            Assertions.assertEquals(reserveManyCall.toString(), queue.poll(0).toString());
+            Assertions.assertNull(queue.poll(0));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void notCommittedCallsAreReplayedAfterReopening() {
+        var calls = new AccountBalanceCall[3];
+        try (var queue = openQueue(4096)) {
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] = AccountBalanceCall.addAmount("account", "tx" + i, BigDecimal.ONE);
+                queue.append(calls[i], 0);
+            }
+
+            queue.poll(0);
+            queue.commit();
+            // polled, but not processed
+            queue.poll(0);
+        }
+
+        try (var queue = openQueue(4096)) {
+            Assertions.assertEquals(2, queue.size());
+            Assertions.assertEquals(calls[1].getId(), queue.poll(0).getId());
+            Assertions.assertEquals(calls[2].getId(), queue.poll(0).getId());
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void spaceIsReusedAfterCommit() {
+        var call = AccountBalanceCall.reserveAmount("account", "tx", BigDecimal.TEN);
+        var count = 0;
+
+        try (var queue = openQueue(1024)) {
+            // the queue is full until the calls are committed
+            while (queue.append(call, 0)) {
+                count++;
+            }
+            Assertions.assertTrue(count > 1);
+            Assertions.assertEquals(count, queue.size());
+
+            // the tail of the file which is too small for the call is skipped when the queue wraps around
+            var appended = 0;
+            for (int i = 0; i < 100; i++) {
+                Assertions.assertNotNull(queue.poll(0));
+                queue.commit();
+                if (queue.append(call, 0)) {
+                    appended++;
+                }
+            }
+            Assertions.assertTrue(appended > 50);
+            count += appended - 100;
+            Assertions.assertEquals(count, queue.size());
+        }
+
+        // the queue has been wrapped around many times
+        try (var queue = openQueue(1024)) {
+            Assertions.assertEquals(count, queue.size());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mt.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class HistogramTest {
+
+    @Test
+    void bucketBoundsCoverValues() {
+        for (long value = 0; value < 1_000_000; value += 7) {
+            var index = Histogram.getBucketIndex(value);
+            var upperBound = Histogram.getBucketUpperBound(index);
+
+            Assertions.assertTrue(value <= upperBound);
+            // relative error is less than 1/16
+            Assertions.assertTrue(upperBound - value <= value / 16, "value = " + value);
+        }
+    }
+
+    @Test
+    void percentiles() {
+        var histogram = new Histogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        Assertions.assertEquals(10_000, histogram.getCount());
+        Assertions.assertEquals(10_000_000, histogram.getMax());
+        assertAround(5_000_000, histogram.getValueAtPercentile(50));
+        assertAround(9_900_000, histogram.getValueAtPercentile(99));
+        Assertions.assertEquals(10_000_000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void coordinatedOmissionCorrection() {
+        var histogram = new Histogram();
+        histogram.recordWithExpectedInterval(1000, 100);
+
+        // 1000, 900, 800, ..., 100
+        Assertions.assertEquals(10, histogram.getCount());
+        assertAround(500, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void prometheusExport() {
+        var registry = new MetricsRegistry();
+        registry.counter("test_total", "Test counter", "kind", "a").add(3);
+        registry.histogram("test_seconds", "Test histogram").record(2_000_000);
+        registry.gauge("test_depth", "Test gauge", () -> 42);
+
+        var text = registry.toPrometheusText();
+        Assertions.assertTrue(text.contains("# TYPE test_total counter"));
+        Assertions.assertTrue(text.contains("test_total{kind=\"a\"} 3"));
+        Assertions.assertTrue(text.contains("test_seconds_bucket{le=\"0.0025\"} 1"));
+        Assertions.assertTrue(text.contains("test_seconds_bucket{le=\"0.001\"} 0"));
+        Assertions.assertTrue(text.contains("test_seconds_count 1"));
+        Assertions.assertTrue(text.contains("test_depth 42"));
+    }
+
+    private static void assertAround(long expected, long actual) {
+        Assertions.assertTrue(Math.abs(expected - actual) <= expected / 16,
+                String.format("expected ~%d but was %d", expected, actual));
+    }
+}
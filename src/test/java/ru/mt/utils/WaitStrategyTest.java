@@ -0,0 +1,37 @@
+package ru.mt.utils;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+class WaitStrategyTest {
+
+    @Test
+    @SneakyThrows
+    void allStrategiesTakeTheItemOrTimeOut() {
+        for (var strategy : WaitStrategy.values()) {
+            var queue = new LinkedBlockingQueue<String>();
+            WaitStrategy.TimedPoll<String> poll = timeout -> queue.poll(timeout, TimeUnit.MILLISECONDS);
+
+            Assertions.assertNull(strategy.poll(poll, 10), strategy::name);
+
+            CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS).execute(() -> queue.add("item"));
+            Assertions.assertEquals("item", strategy.poll(poll, 5000), strategy::name);
+        }
+    }
+
+    @Test
+    void strategyIsSelectedByProperty() {
+        System.setProperty("mt.test.waitStrategy", "busy_spin");
+        try {
+            Assertions.assertEquals(WaitStrategy.BUSY_SPIN, WaitStrategy.fromProperty("mt.test.waitStrategy"));
+        } finally {
+            System.clearProperty("mt.test.waitStrategy");
+        }
+        Assertions.assertEquals(WaitStrategy.BLOCKING, WaitStrategy.fromProperty("mt.test.waitStrategy"));
+    }
+}